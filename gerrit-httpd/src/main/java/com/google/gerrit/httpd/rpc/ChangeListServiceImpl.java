@@ -24,6 +24,7 @@ import com.google.gerrit.common.data.ToggleStarRequest;
 import com.google.gerrit.common.errors.InvalidQueryException;
 import com.google.gerrit.common.errors.NoSuchEntityException;
 import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.client.Branch;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.PatchSet;
 import com.google.gerrit.reviewdb.client.PatchSetApproval;
@@ -52,8 +53,10 @@ import com.google.inject.Provider;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class ChangeListServiceImpl extends BaseServiceImplementation implements
@@ -113,6 +116,39 @@ public class ChangeListServiceImpl extends BaseServiceImplementation implements
     }
   }
 
+  /**
+   * Checks visibility of many changes for the current user.
+   * <p>
+   * Except for drafts, a change is visible if its destination branch is, so
+   * the answer is computed once per branch.
+   */
+  private class VisibleChanges {
+    private final ReviewDb db;
+    private final Map<Branch.NameKey, Boolean> branches =
+        new HashMap<Branch.NameKey, Boolean>();
+
+    VisibleChanges(final ReviewDb db) {
+      this.db = db;
+    }
+
+    boolean canRead(final Change c) throws OrmException {
+      if (c.getStatus() == Change.Status.DRAFT) {
+        return ChangeListServiceImpl.this.canRead(c, db);
+      }
+
+      Boolean visible = branches.get(c.getDest());
+      if (visible == null) {
+        try {
+          visible = changeControlFactory.controlFor(c).isRefVisible();
+        } catch (NoSuchChangeException e) {
+          visible = false;
+        }
+        branches.put(c.getDest(), visible);
+      }
+      return visible;
+    }
+  }
+
   @Override
   public void allQueryPrev(final String query, final String pos,
       final int pageSize, final AsyncCallback<SingleListChangeInfo> callback) {
@@ -226,33 +262,36 @@ public class ChangeListServiceImpl extends BaseServiceImplementation implements
 
         final Set<Change.Id> stars = currentUser.get().getStarredChanges();
         final ChangeAccess changes = db.changes();
+        final VisibleChanges visible = new VisibleChanges(db);
         final AccountDashboardInfo d;
 
         final Set<Change.Id> openReviews = new HashSet<Change.Id>();
         final Set<Change.Id> closedReviews = new HashSet<Change.Id>();
-        for (final PatchSetApproval ca : db.patchSetApprovals().openByUser(id)) {
+        for (final PatchSetApproval ca : db.patchSetApprovals()
+            .openByUser(target)) {
           openReviews.add(ca.getPatchSetId().getParentKey());
         }
         for (final PatchSetApproval ca : db.patchSetApprovals()
-            .closedByUser(id)) {
+            .closedByUser(target)) {
           closedReviews.add(ca.getPatchSetId().getParentKey());
         }
 
         d = new AccountDashboardInfo(target);
-        d.setByOwner(filter(changes.byOwnerOpen(target), stars, ac, db));
-        d.setClosed(filter(changes.byOwnerClosed(target), stars, ac, db));
+        d.setByOwner(filter(changes.byOwnerOpen(target), stars, ac, visible));
+        d.setClosed(filter(changes.byOwnerClosed(target), stars, ac, visible));
 
         for (final ChangeInfo c : d.getByOwner()) {
           openReviews.remove(c.getId());
         }
-        d.setForReview(filter(changes.get(openReviews), stars, ac, db));
+        d.setForReview(filter(changes.get(openReviews), stars, ac, visible));
         Collections.sort(d.getForReview(), ID_COMP);
 
         for (final ChangeInfo c : d.getClosed()) {
           closedReviews.remove(c.getId());
         }
         if (!closedReviews.isEmpty()) {
-          d.getClosed().addAll(filter(changes.get(closedReviews), stars, ac, db));
+          d.getClosed().addAll(
+              filter(changes.get(closedReviews), stars, ac, visible));
           Collections.sort(d.getClosed(), SORT_KEY_COMP);
         }
 
@@ -291,19 +330,24 @@ public class ChangeListServiceImpl extends BaseServiceImplementation implements
 
         final Set<Change.Id> stars = currentUser.get().getStarredChanges();
         final ChangeAccess changes = db.changes();
+        final VisibleChanges visible = new VisibleChanges(db);
         final AccountDashboardReviewInfo d;
 
         final Set<Change.Id> openReviews = new HashSet<Change.Id>();
-        final Set<Change.Id> haveReviewed = new HashSet<Change.Id>();
 
         d = new AccountDashboardReviewInfo(target);
-        d.setByOwner(filter(changes.byOwnerOpen(target), stars, ac, db));
+        d.setByOwner(filter(changes.byOwnerOpen(target), stars, ac, visible));
 
         // Get all changes with PatchSetApprovals owned by the current user.
         // This will get changes that the current user submitted, has been
         // requested to review, or has reviewed previously.
-        for (final PatchSetApproval ca : db.patchSetApprovals().openByUser(id)) {
+        final Set<PatchSet.Id> scored = new HashSet<PatchSet.Id>();
+        for (final PatchSetApproval ca : db.patchSetApprovals()
+            .openByUser(target)) {
           openReviews.add(ca.getPatchSetId().getParentKey());
+          if (ca.getValue() != 0) {
+            scored.add(ca.getPatchSetId());
+          }
         }
 
         // Get remaining potentially reviewable changes (Starred or Watched).
@@ -327,19 +371,30 @@ public class ChangeListServiceImpl extends BaseServiceImplementation implements
         }
 
         // Find the changes where the current user has reviewed the most recent
-        // patchset.
-        for (final Change.Id cid : openReviews) {
-          final PatchSet ps = db.patchSets().get(db.changes().get(cid).currPatchSetId());
-          for (final PatchSetApproval pa : db.patchSetApprovals().byPatchSetUser(ps.getId(), id)) {
-            if (pa.getValue() != 0) {
-              haveReviewed.add(cid);
+        // patchset. The approvals on open changes were read above; starred
+        // changes may also be closed, and are looked up one by one.
+        final List<Change> forReview = new ArrayList<Change>();
+        final List<Change> haveReviewed = new ArrayList<Change>();
+        for (final Change c : changes.get(openReviews)) {
+          final PatchSet.Id ps = c.currPatchSetId();
+          boolean reviewed = scored.contains(ps);
+          if (!reviewed && !c.getStatus().isOpen()) {
+            for (final PatchSetApproval pa : db.patchSetApprovals()
+                .byPatchSetUser(ps, target)) {
+              if (pa.getValue() != 0) {
+                reviewed = true;
+              }
             }
           }
+          if (reviewed) {
+            haveReviewed.add(c);
+          } else {
+            forReview.add(c);
+          }
         }
 
-        openReviews.removeAll(haveReviewed);
-        d.setForReview(filter(changes.get(openReviews), stars, ac, db));
-        d.setHaveReviewed(filter(changes.get(haveReviewed), stars, ac, db));
+        d.setForReview(filter(forReview, stars, ac, visible));
+        d.setHaveReviewed(filter(haveReviewed, stars, ac, visible));
 
         Collections.sort(d.getForReview(), ID_COMP);
         Collections.sort(d.getHaveReviewed(), ID_COMP);
@@ -394,12 +449,12 @@ public class ChangeListServiceImpl extends BaseServiceImplementation implements
     return 0 < pageSize && pageSize <= maxLimit ? pageSize : maxLimit;
   }
 
-  private List<ChangeInfo> filter(final ResultSet<Change> rs,
+  private List<ChangeInfo> filter(final Iterable<Change> rs,
       final Set<Change.Id> starred, final AccountInfoCacheFactory accts,
-      final ReviewDb db) throws OrmException {
+      final VisibleChanges visible) throws OrmException {
     final ArrayList<ChangeInfo> r = new ArrayList<ChangeInfo>();
     for (final Change c : rs) {
-      if (canRead(c, db)) {
+      if (visible.canRead(c)) {
         final ChangeInfo ci = new ChangeInfo(c);
         accts.want(ci.getOwner());
         ci.setStarred(starred.contains(ci.getId()));
@@ -426,10 +481,11 @@ public class ChangeListServiceImpl extends BaseServiceImplementation implements
       final SingleListChangeInfo d = new SingleListChangeInfo();
       final Set<Change.Id> starred = currentUser.get().getStarredChanges();
 
+      final VisibleChanges visible = new VisibleChanges(db);
       final ArrayList<ChangeInfo> list = new ArrayList<ChangeInfo>();
       final ResultSet<Change> rs = query(db, slim, pos);
       for (final Change c : rs) {
-        if (!canRead(c, db)) {
+        if (!visible.canRead(c)) {
           continue;
         }
         final ChangeInfo ci = new ChangeInfo(c);
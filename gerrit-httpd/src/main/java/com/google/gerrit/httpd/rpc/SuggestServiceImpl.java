@@ -20,9 +20,7 @@ import com.google.gerrit.common.data.ReviewerInfo;
 import com.google.gerrit.common.data.SuggestService;
 import com.google.gerrit.common.errors.NoSuchGroupException;
 import com.google.gerrit.reviewdb.client.Account;
-import com.google.gerrit.reviewdb.client.AccountExternalId;
 import com.google.gerrit.reviewdb.client.AccountGroup;
-import com.google.gerrit.reviewdb.client.AccountGroupName;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.server.ReviewDb;
@@ -30,12 +28,14 @@ import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.account.AccountCache;
 import com.google.gerrit.server.account.AccountControl;
+import com.google.gerrit.server.account.AccountState;
+import com.google.gerrit.server.account.AccountSuggestIndex;
 import com.google.gerrit.server.account.AccountVisibility;
 import com.google.gerrit.server.account.GroupCache;
 import com.google.gerrit.server.account.GroupControl;
-import com.google.gerrit.server.account.GroupMembers;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.patch.AddReviewer;
+import com.google.gerrit.server.patch.ReviewerSuggestionCache;
 import com.google.gerrit.server.project.ChangeControl;
 import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gerrit.server.project.NoSuchProjectException;
@@ -50,6 +50,7 @@ import org.eclipse.jgit.lib.Config;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -57,14 +58,16 @@ import java.util.Set;
 
 class SuggestServiceImpl extends BaseServiceImplementation implements
     SuggestService {
-  private static final String MAX_SUFFIX = "\u9fa5";
+  /** Most index entries examined per field, when few of them are visible. */
+  private static final int MAX_CANDIDATES = 200;
 
   private final Provider<ReviewDb> reviewDbProvider;
   private final ProjectControl.Factory projectControlFactory;
   private final ProjectCache projectCache;
   private final AccountCache accountCache;
+  private final AccountSuggestIndex accountSuggestIndex;
   private final GroupControl.Factory groupControlFactory;
-  private final GroupMembers.Factory groupMembersFactory;
+  private final ReviewerSuggestionCache reviewerSuggestionCache;
   private final IdentifiedUser.GenericFactory identifiedUserFactory;
   private final AccountControl.Factory accountControlFactory;
   private final ChangeControl.Factory changeControlFactory;
@@ -76,8 +79,9 @@ class SuggestServiceImpl extends BaseServiceImplementation implements
   SuggestServiceImpl(final Provider<ReviewDb> schema,
       final ProjectControl.Factory projectControlFactory,
       final ProjectCache projectCache, final AccountCache accountCache,
+      final AccountSuggestIndex accountSuggestIndex,
       final GroupControl.Factory groupControlFactory,
-      final GroupMembers.Factory groupMembersFactory,
+      final ReviewerSuggestionCache reviewerSuggestionCache,
       final Provider<CurrentUser> currentUser,
       final IdentifiedUser.GenericFactory identifiedUserFactory,
       final AccountControl.Factory accountControlFactory,
@@ -88,8 +92,9 @@ class SuggestServiceImpl extends BaseServiceImplementation implements
     this.projectControlFactory = projectControlFactory;
     this.projectCache = projectCache;
     this.accountCache = accountCache;
+    this.accountSuggestIndex = accountSuggestIndex;
     this.groupControlFactory = groupControlFactory;
-    this.groupMembersFactory = groupMembersFactory;
+    this.reviewerSuggestionCache = reviewerSuggestionCache;
     this.identifiedUserFactory = identifiedUserFactory;
     this.accountControlFactory = accountControlFactory;
     this.changeControlFactory = changeControlFactory;
@@ -141,7 +146,7 @@ class SuggestServiceImpl extends BaseServiceImplementation implements
       final int limit, final AsyncCallback<List<AccountInfo>> callback) {
     run(callback, new Action<List<AccountInfo>>() {
       public List<AccountInfo> run(final ReviewDb db) throws OrmException {
-        return suggestAccount(db, query, active, limit, new VisibilityControl() {
+        return suggestAccount(query, active, limit, new VisibilityControl() {
           @Override
           public boolean isVisible(Account account) throws OrmException {
             return accountControlFactory.get().canSee(account);
@@ -151,37 +156,31 @@ class SuggestServiceImpl extends BaseServiceImplementation implements
     });
   }
 
-  private List<AccountInfo> suggestAccount(final ReviewDb db,
-      final String query, final Boolean active, final int limit,
+  private List<AccountInfo> suggestAccount(final String query,
+      final Boolean active, final int limit,
       VisibilityControl visibilityControl)
       throws OrmException {
     if (!suggestAccounts) {
       return Collections.<AccountInfo> emptyList();
     }
 
-    final String a = query;
-    final String b = a + MAX_SUFFIX;
     final int max = 10;
     final int n = limit <= 0 ? max : Math.min(limit, max);
 
     final LinkedHashMap<Account.Id, AccountInfo> r =
         new LinkedHashMap<Account.Id, AccountInfo>();
-    for (final Account p : db.accounts().suggestByFullName(a, b, n)) {
-      addSuggestion(r, p, new AccountInfo(p), active, visibilityControl);
-    }
-    if (r.size() < n) {
-      for (final Account p : db.accounts().suggestByPreferredEmail(a, b,
-          n - r.size())) {
-        addSuggestion(r, p, new AccountInfo(p), active, visibilityControl);
-      }
-    }
-    if (r.size() < n) {
-      for (final AccountExternalId e : db.accountExternalIds()
-          .suggestByEmailAddress(a, b, n - r.size())) {
-        if (!r.containsKey(e.getAccountId())) {
-          final Account p = accountCache.get(e.getAccountId()).getAccount();
+    for (final AccountSuggestIndex.Field f : AccountSuggestIndex.Field.values()) {
+      for (final AccountSuggestIndex.Match m : accountSuggestIndex.byPrefix(f,
+          query, MAX_CANDIDATES)) {
+        if (r.size() == n) {
+          return new ArrayList<AccountInfo>(r.values());
+        }
+        if (!r.containsKey(m.getAccountId())) {
+          final Account p = accountCache.get(m.getAccountId()).getAccount();
           final AccountInfo info = new AccountInfo(p);
-          info.setPreferredEmail(e.getEmailAddress());
+          if (f == AccountSuggestIndex.Field.EMAIL_ADDRESS) {
+            info.setPreferredEmail(m.getKey());
+          }
           addSuggestion(r, p, info, active, visibilityControl);
         }
       }
@@ -207,24 +206,26 @@ class SuggestServiceImpl extends BaseServiceImplementation implements
       final AsyncCallback<List<GroupReference>> callback) {
     run(callback, new Action<List<GroupReference>>() {
       public List<GroupReference> run(final ReviewDb db) throws OrmException {
-        return suggestAccountGroup(db, query, limit);
+        return suggestAccountGroup(query, limit);
       }
     });
   }
 
-  private List<GroupReference> suggestAccountGroup(final ReviewDb db,
-      final String query, final int limit) throws OrmException {
-    final String a = query;
-    final String b = a + MAX_SUFFIX;
+  private List<GroupReference> suggestAccountGroup(final String query,
+      final int limit) throws OrmException {
     final int max = 10;
     final int n = limit <= 0 ? max : Math.min(limit, max);
     List<GroupReference> r = new ArrayList<GroupReference>(n);
-    for (AccountGroupName group : db.accountGroupNames().suggestByName(a, b, n)) {
+    for (AccountGroup.NameKey name : groupCache.byName(query)) {
+      AccountGroup g = groupCache.get(name);
+      if (g == null || g.getGroupUUID() == null) {
+        continue;
+      }
       try {
-        if (groupControlFactory.controlFor(group.getId()).isVisible()) {
-          AccountGroup g = groupCache.get(group.getId());
-          if (g != null && g.getGroupUUID() != null) {
-            r.add(GroupReference.forGroup(g));
+        if (groupControlFactory.controlFor(g.getId()).isVisible()) {
+          r.add(GroupReference.forGroup(g));
+          if (r.size() == n) {
+            break;
           }
         }
       } catch (NoSuchGroupException e) {
@@ -253,7 +254,7 @@ class SuggestServiceImpl extends BaseServiceImplementation implements
         } catch (NoSuchChangeException e) {
           return Collections.emptyList();
         }
-        VisibilityControl visibilityControl = new VisibilityControl() {
+        final VisibilityControl visibilityControl = new VisibilityControl() {
           @Override
           public boolean isVisible(Account account) throws OrmException {
             IdentifiedUser who =
@@ -262,22 +263,51 @@ class SuggestServiceImpl extends BaseServiceImplementation implements
           }
         };
 
-        final List<AccountInfo> suggestedAccounts =
-            suggestAccount(db, query, Boolean.TRUE, limit, visibilityControl);
-        final List<ReviewerInfo> reviewer =
-            new ArrayList<ReviewerInfo>(suggestedAccounts.size());
-        for (final AccountInfo a : suggestedAccounts) {
-          reviewer.add(new ReviewerInfo(a));
+        final Project.NameKey project = changeControl.getProject().getNameKey();
+        final int n = limit <= 0 ? 10 : Math.min(limit, 10);
+
+        // Frequent reviewers of the project are suggested first, most
+        // frequent first; other matches follow in alphabetical order.
+        final List<ReviewerInfo> ranked = new ArrayList<ReviewerInfo>();
+        final Set<Account.Id> seen = new HashSet<Account.Id>();
+        if (suggestAccounts) {
+          for (Account.Id id : reviewerSuggestionCache
+              .getFrequentReviewers(project)) {
+            if (ranked.size() == n) {
+              break;
+            }
+            final AccountState state = accountCache.get(id);
+            final Account a = state.getAccount();
+            if (a.isActive() && AccountSuggestIndex.matches(state, query)
+                && seen.add(id) && visibilityControl.isVisible(a)) {
+              ranked.add(new ReviewerInfo(new AccountInfo(a)));
+            }
+          }
         }
-        final List<GroupReference> suggestedAccountGroups =
-            suggestAccountGroup(db, query, limit);
-        for (final GroupReference g : suggestedAccountGroups) {
-          if (suggestGroupAsReviewer(changeControl.getProject().getNameKey(), g)) {
-            reviewer.add(new ReviewerInfo(g));
+
+        final List<ReviewerInfo> reviewer = new ArrayList<ReviewerInfo>();
+        if (ranked.size() < n) {
+          // Ranked accounts were already checked, and suggested if visible.
+          final VisibilityControl unranked = new VisibilityControl() {
+            @Override
+            public boolean isVisible(Account account) throws OrmException {
+              return !seen.contains(account.getId())
+                  && visibilityControl.isVisible(account);
+            }
+          };
+          for (final AccountInfo a : suggestAccount(query, Boolean.TRUE,
+              limit, unranked)) {
+            reviewer.add(new ReviewerInfo(a));
+          }
+          for (final GroupReference g : suggestAccountGroup(query, limit)) {
+            if (suggestGroupAsReviewer(project, g)) {
+              reviewer.add(new ReviewerInfo(g));
+            }
           }
+          Collections.sort(reviewer);
         }
 
-        Collections.sort(reviewer);
+        reviewer.addAll(0, ranked);
         if (reviewer.size() <= limit) {
           return reviewer;
         } else {
@@ -288,31 +318,23 @@ class SuggestServiceImpl extends BaseServiceImplementation implements
   }
 
   private boolean suggestGroupAsReviewer(final Project.NameKey project,
-      final GroupReference group) throws OrmException {
+      final GroupReference group) {
     if (!AddReviewer.isLegalReviewerGroup(group.getUUID())) {
       return false;
     }
 
-    try {
-      final Set<Account> members =
-          groupMembersFactory.create().listAccounts(group.getUUID(), project);
-
-      if (members.isEmpty()) {
-        return false;
-      }
-
-      final int maxAllowed =
-          cfg.getInt("addreviewer", "maxAllowed",
-              AddReviewer.DEFAULT_MAX_REVIEWERS);
-      if (maxAllowed > 0 && members.size() > maxAllowed) {
-        return false;
-      }
-    } catch (NoSuchGroupException e) {
-      return false;
-    } catch (NoSuchProjectException e) {
+    final int members =
+        reviewerSuggestionCache.getMemberCount(group.getUUID(), project);
+    if (members == 0) {
       return false;
     }
 
+    final int maxAllowed =
+        cfg.getInt("addreviewer", "maxAllowed",
+            AddReviewer.DEFAULT_MAX_REVIEWERS);
+    if (maxAllowed > 0 && members > maxAllowed) {
+      return false;
+    }
     return true;
   }
 }
@@ -38,6 +38,7 @@ import com.google.gerrit.server.account.GroupCache;
 import com.google.gerrit.server.account.GroupControl;
 import com.google.gerrit.server.account.GroupIncludeCache;
 import com.google.gerrit.server.account.Realm;
+import com.google.gerrit.server.patch.ReviewerSuggestionCache;
 import com.google.gwtjsonrpc.common.AsyncCallback;
 import com.google.gwtjsonrpc.common.VoidResult;
 import com.google.gwtorm.server.OrmException;
@@ -59,6 +60,7 @@ class GroupAdminServiceImpl extends BaseServiceImplementation implements
   private final GroupCache groupCache;
   private final GroupIncludeCache groupIncludeCache;
   private final GroupControl.Factory groupControlFactory;
+  private final ReviewerSuggestionCache reviewerSuggestionCache;
 
   private final CreateGroup.Factory createGroupFactory;
   private final RenameGroup.Factory renameGroupFactory;
@@ -73,6 +75,7 @@ class GroupAdminServiceImpl extends BaseServiceImplementation implements
       final AccountResolver accountResolver, final Realm accountRealm,
       final GroupCache groupCache,
       final GroupControl.Factory groupControlFactory,
+      final ReviewerSuggestionCache reviewerSuggestionCache,
       final CreateGroup.Factory createGroupFactory,
       final RenameGroup.Factory renameGroupFactory,
       final GroupDetailHandler.Factory groupDetailFactory,
@@ -84,6 +87,7 @@ class GroupAdminServiceImpl extends BaseServiceImplementation implements
     this.accountRealm = accountRealm;
     this.groupCache = groupCache;
     this.groupControlFactory = groupControlFactory;
+    this.reviewerSuggestionCache = reviewerSuggestionCache;
     this.createGroupFactory = createGroupFactory;
     this.renameGroupFactory = renameGroupFactory;
     this.groupDetailFactory = groupDetailFactory;
@@ -173,6 +177,7 @@ class GroupAdminServiceImpl extends BaseServiceImplementation implements
         group.setType(newType);
         db.accountGroups().update(Collections.singleton(group));
         groupCache.evict(group);
+        reviewerSuggestionCache.evictMembers(group.getGroupUUID());
         return VoidResult.INSTANCE;
       }
     });
@@ -236,6 +241,8 @@ class GroupAdminServiceImpl extends BaseServiceImplementation implements
                   getAccountId())));
           db.accountGroupMembers().insert(Collections.singleton(m));
           accountCache.evict(m.getAccountId());
+          reviewerSuggestionCache.evictMembers(
+              control.getAccountGroup().getGroupUUID());
         }
 
         return groupDetailFactory.create(groupId).call();
@@ -268,6 +275,8 @@ class GroupAdminServiceImpl extends BaseServiceImplementation implements
                   getAccountId())));
           db.accountGroupIncludes().insert(Collections.singleton(m));
           groupIncludeCache.evictInclude(a.getGroupUUID());
+          reviewerSuggestionCache.evictMembers(
+              control.getAccountGroup().getGroupUUID());
         }
 
         return groupDetailFactory.create(groupId).call();
@@ -324,6 +333,8 @@ class GroupAdminServiceImpl extends BaseServiceImplementation implements
             accountCache.evict(m.getAccountId());
           }
         }
+        reviewerSuggestionCache.evictMembers(
+            control.getAccountGroup().getGroupUUID());
         return VoidResult.INSTANCE;
       }
     });
@@ -378,6 +389,8 @@ class GroupAdminServiceImpl extends BaseServiceImplementation implements
         for (AccountGroup group : db.accountGroups().get(groupsToEvict)) {
           groupIncludeCache.evictInclude(group.getGroupUUID());
         }
+        reviewerSuggestionCache.evictMembers(
+            control.getAccountGroup().getGroupUUID());
         return VoidResult.INSTANCE;
       }
     });
@@ -28,6 +28,7 @@ import com.google.gerrit.reviewdb.client.AccountDiffPreference.Whitespace;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.patch.IntraLinePrefetcher;
 import com.google.gerrit.server.patch.PatchList;
 import com.google.gerrit.server.patch.PatchListCache;
 import com.google.gerrit.server.patch.PatchListKey;
@@ -65,6 +66,7 @@ class PatchSetDetailFactory extends Handler<PatchSetDetail> {
   private final PatchSetInfoFactory infoFactory;
   private final ReviewDb db;
   private final PatchListCache patchListCache;
+  private final IntraLinePrefetcher intraLinePrefetcher;
   private final ChangeControl.Factory changeControlFactory;
 
   private Project.NameKey projectKey;
@@ -81,6 +83,7 @@ class PatchSetDetailFactory extends Handler<PatchSetDetail> {
   @Inject
   PatchSetDetailFactory(final PatchSetInfoFactory psif, final ReviewDb db,
       final PatchListCache patchListCache,
+      final IntraLinePrefetcher intraLinePrefetcher,
       final ChangeControl.Factory changeControlFactory,
       @Assisted("psIdBase") @Nullable final PatchSet.Id psIdBase,
       @Assisted("psIdNew") final PatchSet.Id psIdNew,
@@ -88,6 +91,7 @@ class PatchSetDetailFactory extends Handler<PatchSetDetail> {
     this.infoFactory = psif;
     this.db = db;
     this.patchListCache = patchListCache;
+    this.intraLinePrefetcher = intraLinePrefetcher;
     this.changeControlFactory = changeControlFactory;
 
     this.psIdBase = psIdBase;
@@ -122,6 +126,12 @@ class PatchSetDetailFactory extends Handler<PatchSetDetail> {
       }
     }
 
+    if (diffPrefs == null || diffPrefs.isIntralineDifference()) {
+      // The user is likely to open the files next; have their intraline
+      // differences ready by then.
+      intraLinePrefetcher.prefetch(control.getProject().getNameKey(), list);
+    }
+
     final List<Patch> patches = list.toPatchList(patchSet.getId());
     final Map<Patch.Key, Patch> byKey = new HashMap<Patch.Key, Patch>();
     for (final Patch p : patches) {
@@ -30,6 +30,7 @@ import com.google.gerrit.server.patch.IntraLineDiff;
 import com.google.gerrit.server.patch.IntraLineDiffKey;
 import com.google.gerrit.server.patch.PatchListCache;
 import com.google.gerrit.server.patch.PatchListEntry;
+import com.google.gerrit.server.patch.StreamedText;
 import com.google.gerrit.server.patch.Text;
 import com.google.inject.Inject;
 
@@ -43,6 +44,7 @@ import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevTree;
@@ -51,6 +53,7 @@ import org.eclipse.jgit.treewalk.TreeWalk;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -59,6 +62,9 @@ class PatchScriptBuilder {
   static final int MAX_CONTEXT = 5000000;
   static final int BIG_FILE = 9000;
 
+  /** Files larger than this many bytes are streamed, not loaded. */
+  static final int LARGE_FILE = 8 << 20;
+
   private static final Comparator<Edit> EDIT_SORT = new Comparator<Edit>() {
     @Override
     public int compare(final Edit o1, final Edit o2) {
@@ -141,8 +147,9 @@ class PatchScriptBuilder {
     b.resolve(a, bId);
 
     edits = new ArrayList<Edit>(content.getEdits());
+    final boolean large = a.isLarge() || b.isLarge();
 
-    if (!isModify(content)) {
+    if (!isModify(content) || large) {
       intralineDifferenceIsPossible = false;
     } else if (diffPrefs.isIntralineDifference()) {
       IntraLineDiff d =
@@ -175,7 +182,7 @@ class PatchScriptBuilder {
     boolean hugeFile = false;
     if (a.mode == FileMode.GITLINK || b.mode == FileMode.GITLINK) {
 
-    } else if (a.src == b.src && a.size() <= context
+    } else if (!large && a.src == b.src && a.size() <= context
         && content.getEdits().isEmpty()) {
       // Odd special case; the files are identical (100% rename or copy)
       // and the user has asked for context that is larger than the file.
@@ -188,7 +195,7 @@ class PatchScriptBuilder {
       edits.add(new Edit(a.size(), a.size()));
 
     } else {
-      if (BIG_FILE < Math.max(a.size(), b.size())) {
+      if (large || BIG_FILE < Math.max(a.size(), b.size())) {
         // IF the file is really large, we disable things to avoid choking
         // the browser client.
         //
@@ -204,6 +211,10 @@ class PatchScriptBuilder {
         //
         context = MAX_CONTEXT;
       }
+      if (large) {
+        a.stream(true);
+        b.stream(false);
+      }
       packContent(diffPrefs.getIgnoreWhitespace() != Whitespace.IGNORE_NONE);
     }
 
@@ -374,14 +385,14 @@ class PatchScriptBuilder {
     for (final EditList.Hunk hunk : list.getHunks()) {
       while (hunk.next()) {
         if (hunk.isContextLine()) {
-          final String lineA = a.src.getString(hunk.getCurA());
+          final String lineA = a.getString(hunk.getCurA());
           a.dst.addLine(hunk.getCurA(), lineA);
 
           if (ignoredWhitespace) {
             // If we ignored whitespace in some form, also get the line
             // from b when it does not exactly match the line from a.
             //
-            final String lineB = b.src.getString(hunk.getCurB());
+            final String lineB = b.getString(hunk.getCurB());
             if (!lineA.equals(lineB)) {
               b.dst.addLine(hunk.getCurB(), lineB);
             }
@@ -409,17 +420,66 @@ class PatchScriptBuilder {
     FileMode mode;
     byte[] srcContent;
     Text src;
+    ObjectLoader large;
+    StreamedText streamed;
     MimeType mimeType = MimeUtil2.UNKNOWN_MIME_TYPE;
     DisplayMethod displayMethod = DisplayMethod.DIFF;
     PatchScript.FileMode fileMode = PatchScript.FileMode.FILE;
     final SparseFileContent dst = new SparseFileContent();
 
+    boolean isLarge() {
+      return large != null;
+    }
+
     int size() {
+      if (streamed != null) {
+        return streamed.size();
+      }
       return src != null ? src.size() : 0;
     }
 
+    String getString(int line) {
+      return streamed != null ? streamed.getString(line) : src.getString(line);
+    }
+
     void addLine(int line) {
-      dst.addLine(line, src.getString(line));
+      dst.addLine(line, getString(line));
+    }
+
+    /**
+     * Read the lines of a large file displayed around the edits.
+     *
+     * @param sideA true to select lines by the old side of each edit.
+     */
+    void stream(boolean sideA) throws IOException {
+      if (large == null) {
+        return;
+      }
+
+      final int[] ranges = new int[2 * edits.size()];
+      int n = 0;
+      for (Edit e : edits) {
+        final int begin = Math.max(0,
+            (sideA ? e.getBeginA() : e.getBeginB()) - context);
+        final int end = (sideA ? e.getEndA() : e.getEndB()) + context;
+        if (0 < n && begin <= ranges[n - 1]) {
+          ranges[n - 1] = Math.max(ranges[n - 1], end);
+        } else {
+          ranges[n++] = begin;
+          ranges[n++] = end;
+        }
+      }
+      streamed = StreamedText.read(large, Arrays.copyOf(ranges, n));
+
+      if (FileMode.SYMLINK != mode) {
+        mimeType = registry.getMimeType(path, streamed.getHead());
+        if ("image".equals(mimeType.getMediaType())
+            && registry.isSafeInline(mimeType)) {
+          displayMethod = DisplayMethod.IMG;
+        }
+      }
+      dst.setMissingNewlineAtEnd(streamed.isMissingNewlineAtEnd());
+      dst.setSize(size());
     }
 
     void resolve(final Side other, final ObjectId within) throws IOException {
@@ -454,9 +514,17 @@ class PatchScriptBuilder {
 
           if (reuse) {
             srcContent = other.srcContent;
+            large = other.large;
 
           } else if (mode.getObjectType() == Constants.OBJ_BLOB) {
-            srcContent = Text.asByteArray(db.open(id, Constants.OBJ_BLOB));
+            final ObjectLoader ldr = reader.open(id, Constants.OBJ_BLOB);
+            if (LARGE_FILE < ldr.getSize() || ldr.isLarge()) {
+              // Read later by stream(), once the displayed lines are known.
+              large = ldr;
+              srcContent = Text.NO_BYTES;
+            } else {
+              srcContent = Text.asByteArray(ldr);
+            }
 
           } else {
             srcContent = Text.NO_BYTES;
@@ -467,6 +535,9 @@ class PatchScriptBuilder {
             displayMethod = other.displayMethod;
             src = other.src;
 
+          } else if (large != null) {
+            // Content type is detected from the head of the stream.
+
           } else if (srcContent.length > 0 && FileMode.SYMLINK != mode) {
             mimeType = registry.getMimeType(path, srcContent);
             if ("image".equals(mimeType.getMediaType())
@@ -481,7 +552,9 @@ class PatchScriptBuilder {
         }
 
         if (!reuse) {
-          if (srcContent == Text.NO_BYTES) {
+          if (large != null) {
+            src = null;
+          } else if (srcContent == Text.NO_BYTES) {
             src = Text.EMPTY;
           } else {
             src = new Text(srcContent);
@@ -32,6 +32,7 @@ import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.account.AccountInfoCacheFactory;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.LargeObjectException;
+import com.google.gerrit.server.patch.IntraLinePrefetcher;
 import com.google.gerrit.server.patch.PatchList;
 import com.google.gerrit.server.patch.PatchListCache;
 import com.google.gerrit.server.patch.PatchListEntry;
@@ -72,6 +73,7 @@ class PatchScriptFactory extends Handler<PatchScript> {
   private final GitRepositoryManager repoManager;
   private final Provider<PatchScriptBuilder> builderFactory;
   private final PatchListCache patchListCache;
+  private final IntraLinePrefetcher intraLinePrefetcher;
   private final ReviewDb db;
   private final ChangeControl.Factory changeControlFactory;
   private final AccountInfoCacheFactory.Factory aicFactory;
@@ -97,7 +99,8 @@ class PatchScriptFactory extends Handler<PatchScript> {
   @Inject
   PatchScriptFactory(final GitRepositoryManager grm,
       Provider<PatchScriptBuilder> builderFactory,
-      final PatchListCache patchListCache, final ReviewDb db,
+      final PatchListCache patchListCache,
+      final IntraLinePrefetcher intraLinePrefetcher, final ReviewDb db,
       final ChangeControl.Factory changeControlFactory,
       final AccountInfoCacheFactory.Factory aicFactory,
       @Assisted final Patch.Key patchKey,
@@ -107,6 +110,7 @@ class PatchScriptFactory extends Handler<PatchScript> {
     this.repoManager = grm;
     this.builderFactory = builderFactory;
     this.patchListCache = patchListCache;
+    this.intraLinePrefetcher = intraLinePrefetcher;
     this.db = db;
     this.changeControlFactory = changeControlFactory;
     this.aicFactory = aicFactory;
@@ -146,6 +150,11 @@ class PatchScriptFactory extends Handler<PatchScript> {
     }
     try {
       final PatchList list = listFor(keyFor(diffPrefs.getIgnoreWhitespace()));
+      if (diffPrefs.isIntralineDifference()) {
+        // Compute the other files while the user reads this one. Lists
+        // already prefetched when the change was opened are skipped.
+        intraLinePrefetcher.prefetch(projectKey, list);
+      }
       final PatchScriptBuilder b = newBuilder(list, git);
       final PatchListEntry content = list.get(patchKey.getFileName());
 
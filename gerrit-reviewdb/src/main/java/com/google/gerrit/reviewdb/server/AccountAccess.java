@@ -47,4 +47,7 @@ public interface AccountAccess extends Access<Account, Account.Id> {
 
   @Query("ORDER BY accountId LIMIT ?")
   ResultSet<Account> firstNById(int n) throws OrmException;
+
+  @Query
+  ResultSet<Account> all() throws OrmException;
 }
@@ -34,4 +34,7 @@ public interface AccountGroupIncludeAccess extends
 
   @Query("WHERE key.groupId = ?")
   ResultSet<AccountGroupInclude> byGroup(AccountGroup.Id id) throws OrmException;
+
+  @Query
+  ResultSet<AccountGroupInclude> all() throws OrmException;
 }
@@ -35,4 +35,7 @@ public interface AccountGroupMemberAccess extends
 
   @Query("WHERE key.groupId = ?")
   ResultSet<AccountGroupMember> byGroup(AccountGroup.Id id) throws OrmException;
+
+  @Query
+  ResultSet<AccountGroupMember> all() throws OrmException;
 }
@@ -30,4 +30,7 @@ public interface AccountSshKeyAccess extends
 
   @Query("WHERE id.accountId = ?")
   ResultSet<AccountSshKey> byAccount(Account.Id id) throws OrmException;
+
+  @Query
+  ResultSet<AccountSshKey> all() throws OrmException;
 }
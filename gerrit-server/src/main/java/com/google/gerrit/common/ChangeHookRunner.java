@@ -16,7 +16,10 @@ package com.google.gerrit.common;
 
 import com.google.gerrit.common.data.ApprovalType;
 import com.google.gerrit.common.data.ApprovalTypes;
+import com.google.gerrit.lifecycle.LifecycleListener;
+import com.google.gerrit.lifecycle.LifecycleModule;
 import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.client.AccountGroup;
 import com.google.gerrit.reviewdb.client.ApprovalCategory;
 import com.google.gerrit.reviewdb.client.ApprovalCategoryValue;
 import com.google.gerrit.reviewdb.client.Branch;
@@ -29,6 +32,7 @@ import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.account.AccountCache;
 import com.google.gerrit.server.account.AccountState;
 import com.google.gerrit.server.config.AnonymousCowardName;
+import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.events.ApprovalAttribute;
@@ -38,35 +42,39 @@ import com.google.gerrit.server.events.ChangeMergedEvent;
 import com.google.gerrit.server.events.ChangeRestoreEvent;
 import com.google.gerrit.server.events.CommentAddedEvent;
 import com.google.gerrit.server.events.EventFactory;
+import com.google.gerrit.server.events.EventJournal;
 import com.google.gerrit.server.events.PatchSetCreatedEvent;
 import com.google.gerrit.server.events.RefUpdatedEvent;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.project.ProjectCache;
-import com.google.gerrit.server.project.ProjectControl;
 import com.google.gerrit.server.project.ProjectState;
+import com.google.gerrit.server.project.RefControl;
 import com.google.gwtorm.server.OrmException;
-import com.google.inject.AbstractModule;
+import com.google.gwtorm.server.SchemaFactory;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
-import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.RefUpdate;
-import org.eclipse.jgit.lib.Repository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /** Spawns local executables when a hook action occurs. */
 @Singleton
@@ -74,11 +82,33 @@ public class ChangeHookRunner implements ChangeHooks {
     /** A logger for this class. */
     private static final Logger log = LoggerFactory.getLogger(ChangeHookRunner.class);
 
-    public static class Module extends AbstractModule {
+    public static class Module extends LifecycleModule {
       @Override
       protected void configure() {
         bind(ChangeHookRunner.class);
         bind(ChangeHooks.class).to(ChangeHookRunner.class);
+        listener().to(EventJournal.Lifecycle.class);
+        listener().to(Lifecycle.class);
+      }
+    }
+
+    static class Lifecycle implements LifecycleListener {
+      private final ChangeHookRunner hooks;
+
+      @Inject
+      Lifecycle(final ChangeHookRunner hooks) {
+        this.hooks = hooks;
+      }
+
+      @Override
+      public void start() {
+      }
+
+      @Override
+      public void stop() {
+        for (Hook h : hooks.allHooks()) {
+          h.stop();
+        }
       }
     }
 
@@ -96,35 +126,52 @@ public class ChangeHookRunner implements ChangeHooks {
     private final Map<ChangeListener, ChangeListenerHolder> listeners =
       new ConcurrentHashMap<ChangeListener, ChangeListenerHolder>();
 
-    /** Filename of the new patchset hook. */
-    private final File patchsetCreatedHook;
+    /** Maximum number of events waiting to be delivered to listeners. */
+    private static final int MAX_PENDING_EVENTS = 4096;
+
+    /** Events fired but not yet delivered to listeners, oldest first. */
+    private final BlockingQueue<PendingEvent> pendingEvents =
+      new ArrayBlockingQueue<PendingEvent>(MAX_PENDING_EVENTS);
+
+    /** True while a {@link DeliverEvents} task is scheduled or running. */
+    private final AtomicBoolean delivering = new AtomicBoolean();
+
+    /** The new patchset hook. */
+    private final Hook patchsetCreatedHook;
 
-    /** Filename of the new comments hook. */
-    private final File commentAddedHook;
+    /** The new comments hook. */
+    private final Hook commentAddedHook;
 
-    /** Filename of the change merged hook. */
-    private final File changeMergedHook;
+    /** The change merged hook. */
+    private final Hook changeMergedHook;
 
-    /** Filename of the change abandoned hook. */
-    private final File changeAbandonedHook;
+    /** The change abandoned hook. */
+    private final Hook changeAbandonedHook;
 
-    /** Filename of the change abandoned hook. */
-    private final File changeRestoredHook;
+    /** The change abandoned hook. */
+    private final Hook changeRestoredHook;
 
-    /** Filename of the ref updated hook. */
-    private final File refUpdatedHook;
+    /** The ref updated hook. */
+    private final Hook refUpdatedHook;
 
-    /** Filename of the cla signed hook. */
-    private final File claSignedHook;
+    /** The cla signed hook. */
+    private final Hook claSignedHook;
 
     private final String anonymousCowardName;
 
     /** Repository Manager. */
     private final GitRepositoryManager repoManager;
 
-    /** Queue of hooks that need to run. */
+    /** Threads running hooks, shared by all hooks. */
     private final WorkQueue.Executor hookQueue;
 
+    /** Queue delivering events to listeners, off the request thread. */
+    private final WorkQueue.Executor eventQueue;
+
+    private final SchemaFactory<ReviewDb> schema;
+
+    private final EventJournal journal;
+
     private final ProjectCache projectCache;
 
     private final AccountCache accountCache;
@@ -149,24 +196,51 @@ public class ChangeHookRunner implements ChangeHooks {
       final @AnonymousCowardName String anonymousCowardName,
       final SitePaths sitePath, final ProjectCache projectCache,
       final AccountCache accountCache, final ApprovalTypes approvalTypes,
-      final EventFactory eventFactory) {
+      final EventFactory eventFactory, final SchemaFactory<ReviewDb> schema,
+      final EventJournal journal) {
         this.anonymousCowardName = anonymousCowardName;
         this.repoManager = repoManager;
-        this.hookQueue = queue.createQueue(1, "hook");
+        this.hookQueue = queue.createQueue(
+            Math.max(1, config.getInt("hooks", null, "threads", 4)), "hook");
+        this.eventQueue = queue.createQueue(1, "ChangeEvents");
+        this.schema = schema;
+        this.journal = journal;
         this.projectCache = projectCache;
         this.accountCache = accountCache;
         this.approvalTypes = approvalTypes;
         this.eventFactory = eventFactory;
 
         final File hooksPath = sitePath.resolve(getValue(config, "hooks", "path", sitePath.hooks_dir.getAbsolutePath()));
+        final long checkFrequency = ConfigUtil.getTimeUnit(config, "hooks",
+            null, "checkFrequency", TimeUnit.SECONDS.toMillis(10),
+            TimeUnit.MILLISECONDS);
+
+        patchsetCreatedHook = newHook(config, checkFrequency, sitePath.resolve(new File(hooksPath, getValue(config, "hooks", "patchsetCreatedHook", "patchset-created")).getPath()));
+        commentAddedHook = newHook(config, checkFrequency, sitePath.resolve(new File(hooksPath, getValue(config, "hooks", "commentAddedHook", "comment-added")).getPath()));
+        changeMergedHook = newHook(config, checkFrequency, sitePath.resolve(new File(hooksPath, getValue(config, "hooks", "changeMergedHook", "change-merged")).getPath()));
+        changeAbandonedHook = newHook(config, checkFrequency, sitePath.resolve(new File(hooksPath, getValue(config, "hooks", "changeAbandonedHook", "change-abandoned")).getPath()));
+        changeRestoredHook = newHook(config, checkFrequency, sitePath.resolve(new File(hooksPath, getValue(config, "hooks", "changeRestoredHook", "change-restored")).getPath()));
+        refUpdatedHook = newHook(config, checkFrequency, sitePath.resolve(new File(hooksPath, getValue(config, "hooks", "refUpdatedHook", "ref-updated")).getPath()));
+        claSignedHook = newHook(config, checkFrequency, sitePath.resolve(new File(hooksPath, getValue(config, "hooks", "claSignedHook", "cla-signed")).getPath()));
+    }
 
-        patchsetCreatedHook = sitePath.resolve(new File(hooksPath, getValue(config, "hooks", "patchsetCreatedHook", "patchset-created")).getPath());
-        commentAddedHook = sitePath.resolve(new File(hooksPath, getValue(config, "hooks", "commentAddedHook", "comment-added")).getPath());
-        changeMergedHook = sitePath.resolve(new File(hooksPath, getValue(config, "hooks", "changeMergedHook", "change-merged")).getPath());
-        changeAbandonedHook = sitePath.resolve(new File(hooksPath, getValue(config, "hooks", "changeAbandonedHook", "change-abandoned")).getPath());
-        changeRestoredHook = sitePath.resolve(new File(hooksPath, getValue(config, "hooks", "changeRestoredHook", "change-restored")).getPath());
-        refUpdatedHook = sitePath.resolve(new File(hooksPath, getValue(config, "hooks", "refUpdatedHook", "ref-updated")).getPath());
-        claSignedHook = sitePath.resolve(new File(hooksPath, getValue(config, "hooks", "claSignedHook", "cla-signed")).getPath());
+    private Hook newHook(Config config, long checkFrequency, File file) {
+        return new Hook(file, config, checkFrequency, repoManager, hookQueue);
+    }
+
+    private List<Hook> allHooks() {
+        return Arrays.asList(patchsetCreatedHook, commentAddedHook,
+            changeMergedHook, changeAbandonedHook, changeRestoredHook,
+            refUpdatedHook, claSignedHook);
+    }
+
+    /** @return totals of the events run by each hook. */
+    public List<HookStatistics> getHookStatistics() {
+        final List<HookStatistics> r = new ArrayList<HookStatistics>();
+        for (Hook h : allHooks()) {
+            r.add(h.getStatistics());
+        }
+        return r;
     }
 
     public void addChangeListener(ChangeListener listener, IdentifiedUser user) {
@@ -191,31 +265,6 @@ public class ChangeHookRunner implements ChangeHooks {
         return (result == null) ? fallback : result;
     }
 
-    /**
-     * Get the Repository for the given change, or null on error.
-     *
-     * @param change Change to get repo for,
-     * @return Repository or null.
-     */
-    private Repository openRepository(final Change change) {
-        return openRepository(change.getProject());
-    }
-
-    /**
-     * Get the Repository for the given project name, or null on error.
-     *
-     * @param name Project to get repo for,
-     * @return Repository or null.
-     */
-    private Repository openRepository(final Project.NameKey name) {
-        try {
-            return repoManager.openRepository(name);
-        } catch (RepositoryNotFoundException err) {
-            log.warn("Cannot open repository " + name.get(), err);
-            return null;
-        }
-    }
-
     private void addArg(List<String> args, String name, String value) {
         if (value != null) {
             args.add(name);
@@ -231,7 +280,7 @@ public class ChangeHookRunner implements ChangeHooks {
         event.change = eventFactory.asChangeAttribute(change);
         event.patchSet = eventFactory.asPatchSetAttribute(patchSet);
         event.uploader = eventFactory.asAccountAttribute(uploader.getAccount());
-        fireEvent(change, event, db);
+        fireEvent(change, event);
 
         final List<String> args = new ArrayList<String>();
         addArg(args, "--change", event.change.id);
@@ -242,7 +291,7 @@ public class ChangeHookRunner implements ChangeHooks {
         addArg(args, "--commit", event.patchSet.revision);
         addArg(args, "--patchset", event.patchSet.number);
 
-        runHook(change.getProject(), patchsetCreatedHook, args);
+        runHook(change.getProject(), patchsetCreatedHook, args, event);
     }
 
     public void doCommentAddedHook(final Change change, final Account account,
@@ -263,7 +312,7 @@ public class ChangeHookRunner implements ChangeHooks {
             }
         }
 
-        fireEvent(change, event, db);
+        fireEvent(change, event);
 
         final List<String> args = new ArrayList<String>();
         addArg(args, "--change", event.change.id);
@@ -277,7 +326,7 @@ public class ChangeHookRunner implements ChangeHooks {
             addArg(args, "--" + approval.getKey().get(), Short.toString(approval.getValue().get()));
         }
 
-        runHook(change.getProject(), commentAddedHook, args);
+        runHook(change.getProject(), commentAddedHook, args, event);
     }
 
     public void doChangeMergedHook(final Change change, final Account account,
@@ -287,7 +336,7 @@ public class ChangeHookRunner implements ChangeHooks {
         event.change = eventFactory.asChangeAttribute(change);
         event.submitter = eventFactory.asAccountAttribute(account);
         event.patchSet = eventFactory.asPatchSetAttribute(patchSet);
-        fireEvent(change, event, db);
+        fireEvent(change, event);
 
         final List<String> args = new ArrayList<String>();
         addArg(args, "--change", event.change.id);
@@ -297,7 +346,7 @@ public class ChangeHookRunner implements ChangeHooks {
         addArg(args, "--submitter", getDisplayName(account));
         addArg(args, "--commit", event.patchSet.revision);
 
-        runHook(change.getProject(), changeMergedHook, args);
+        runHook(change.getProject(), changeMergedHook, args, event);
     }
 
     public void doChangeAbandonedHook(final Change change, final Account account,
@@ -307,7 +356,7 @@ public class ChangeHookRunner implements ChangeHooks {
         event.change = eventFactory.asChangeAttribute(change);
         event.abandoner = eventFactory.asAccountAttribute(account);
         event.reason = reason;
-        fireEvent(change, event, db);
+        fireEvent(change, event);
 
         final List<String> args = new ArrayList<String>();
         addArg(args, "--change", event.change.id);
@@ -317,7 +366,7 @@ public class ChangeHookRunner implements ChangeHooks {
         addArg(args, "--abandoner", getDisplayName(account));
         addArg(args, "--reason", reason == null ? "" : reason);
 
-        runHook(change.getProject(), changeAbandonedHook, args);
+        runHook(change.getProject(), changeAbandonedHook, args, event);
     }
 
     public void doChangeRestoreHook(final Change change, final Account account,
@@ -327,7 +376,7 @@ public class ChangeHookRunner implements ChangeHooks {
         event.change = eventFactory.asChangeAttribute(change);
         event.restorer = eventFactory.asAccountAttribute(account);
         event.reason = reason;
-        fireEvent(change, event, db);
+        fireEvent(change, event);
 
         final List<String> args = new ArrayList<String>();
         addArg(args, "--change", event.change.id);
@@ -337,7 +386,7 @@ public class ChangeHookRunner implements ChangeHooks {
         addArg(args, "--restorer", getDisplayName(account));
         addArg(args, "--reason", reason == null ? "" : reason);
 
-        runHook(change.getProject(), changeRestoredHook, args);
+        runHook(change.getProject(), changeRestoredHook, args, event);
     }
 
     public void doRefUpdatedHook(final Branch.NameKey refName, final RefUpdate refUpdate, final Account account) {
@@ -362,7 +411,7 @@ public class ChangeHookRunner implements ChangeHooks {
         addArg(args, "--submitter", getDisplayName(account));
       }
 
-      runHook(refName.getParentKey(), refUpdatedHook, args);
+      runHook(refName.getParentKey(), refUpdatedHook, args, event);
     }
 
     public void doClaSignupHook(Account account, ContributorAgreement cla) {
@@ -372,42 +421,182 @@ public class ChangeHookRunner implements ChangeHooks {
         addArg(args, "--user-id", account.getId().toString());
         addArg(args, "--cla-id", cla.getId().toString());
 
-        runHook(claSignedHook, args);
+        claSignedHook.run(null, args, null);
       }
     }
 
-    private void fireEvent(final Change change, final ChangeEvent event, final ReviewDb db) throws OrmException {
-      for (ChangeListenerHolder holder : listeners.values()) {
-          if (isVisibleTo(change, holder.user, db)) {
-              holder.listener.onChangeEvent(event);
-          }
+    private void fireEvent(final Change change, final ChangeEvent event) {
+      if (!listeners.isEmpty() || journal.isEnabled()) {
+        post(new PendingEvent(change.getProject(), change.getDest(), change,
+            event));
       }
     }
 
     private void fireEvent(Branch.NameKey branchName, final ChangeEvent event) {
+      if (!listeners.isEmpty() || journal.isEnabled()) {
+        post(new PendingEvent(branchName.getParentKey(), branchName, null,
+            event));
+      }
+    }
+
+    /**
+     * Queue an event for delivery to listeners.
+     * <p>
+     * Listeners are notified by a background task, so that the request which
+     * fired the event does not wait on visibility checks for every connected
+     * listener. If listeners fall too far behind the oldest events are
+     * discarded.
+     */
+    private void post(final PendingEvent e) {
+      while (!pendingEvents.offer(e)) {
+        final PendingEvent dropped = pendingEvents.poll();
+        if (dropped != null) {
+          log.warn("Event queue full, dropping " + dropped.describe());
+        }
+      }
+      if (delivering.compareAndSet(false, true)) {
+        eventQueue.execute(new DeliverEvents());
+      }
+    }
+
+    private void record(final PendingEvent e) {
+      if (journal.isEnabled()) {
+        try {
+          journal.append(e.project, e.branch,
+              e.change != null ? e.change.getId() : null, e.draft, e.event);
+        } catch (IOException err) {
+          log.error("Cannot journal " + e.describe(), err);
+        }
+      }
+    }
+
+    private void deliver(final PendingEvent e, final LazyReviewDb db) {
+      final ProjectState pe = projectCache.get(e.project);
+      if (pe == null) {
+        return;
+      }
+
+      // For most refs visibility depends only on the groups of the user,
+      // so evaluate it once per distinct set of groups among listeners.
+      // Drafts and per-user refs still need a check for each user.
+      //
+      final Map<Set<AccountGroup.UUID>, Boolean> visibleToGroups =
+          new HashMap<Set<AccountGroup.UUID>, Boolean>();
+      RefControl base = null;
+
       for (ChangeListenerHolder holder : listeners.values()) {
-          if (isVisibleTo(branchName, holder.user)) {
-              holder.listener.onChangeEvent(event);
+        try {
+          final RefControl rc;
+          if (base == null) {
+            rc = base = pe.controlFor(holder.user).controlForRef(e.branch);
+          } else {
+            rc = base.forUser(holder.user);
+          }
+
+          final boolean visible;
+          if (e.draft) {
+            visible = rc.getProjectControl().controlFor(e.change)
+                .isVisible(db.get());
+          } else if (rc.isUserSpecific()) {
+            visible = rc.isVisible();
+          } else {
+            final Set<AccountGroup.UUID> groups =
+                holder.user.getEffectiveGroups().getKnownGroups();
+            Boolean v = visibleToGroups.get(groups);
+            if (v == null) {
+              v = rc.isVisible();
+              visibleToGroups.put(groups, v);
+            }
+            visible = v;
+          }
+
+          if (visible) {
+            holder.listener.onChangeEvent(e.event);
           }
+        } catch (OrmException err) {
+          log.error("Cannot check visibility of " + e.describe(), err);
+        } catch (RuntimeException err) {
+          log.error("Cannot deliver " + e.describe(), err);
+        }
       }
     }
 
-    private boolean isVisibleTo(Change change, IdentifiedUser user, ReviewDb db) throws OrmException {
-        final ProjectState pe = projectCache.get(change.getProject());
-        if (pe == null) {
-          return false;
+    /** Event waiting to be delivered, with the data to check visibility. */
+    private static class PendingEvent {
+      final Project.NameKey project;
+      final Branch.NameKey branch;
+      final Change change;
+      final boolean draft;
+      final ChangeEvent event;
+
+      PendingEvent(Project.NameKey project, Branch.NameKey branch,
+          Change change, ChangeEvent event) {
+        this.project = project;
+        this.branch = branch;
+        this.change = change;
+        this.draft = change != null
+            && change.getStatus() == Change.Status.DRAFT;
+        this.event = event;
+      }
+
+      String describe() {
+        return event.getClass().getSimpleName() + " on " + project.get();
+      }
+    }
+
+    /** Opens a database connection only if a visibility check needs one. */
+    private class LazyReviewDb {
+      private ReviewDb db;
+
+      ReviewDb get() throws OrmException {
+        if (db == null) {
+          db = schema.open();
         }
-        final ProjectControl pc = pe.controlFor(user);
-        return pc.controlFor(change).isVisible(db);
+        return db;
+      }
+
+      void close() {
+        if (db != null) {
+          db.close();
+          db = null;
+        }
+      }
     }
 
-    private boolean isVisibleTo(Branch.NameKey branchName, IdentifiedUser user) {
-        final ProjectState pe = projectCache.get(branchName.getParentKey());
-        if (pe == null) {
-          return false;
+    /** Delivers all queued events, in the order they were fired. */
+    private class DeliverEvents implements Runnable {
+      @Override
+      public void run() {
+        final LazyReviewDb db = new LazyReviewDb();
+        try {
+          final List<PendingEvent> batch = new ArrayList<PendingEvent>();
+          for (;;) {
+            pendingEvents.drainTo(batch);
+            if (batch.isEmpty()) {
+              delivering.set(false);
+              // An event may have been queued after the drain, but before
+              // the flag was cleared; if so take the delivery back.
+              if (pendingEvents.isEmpty()
+                  || !delivering.compareAndSet(false, true)) {
+                break;
+              }
+              continue;
+            }
+            for (PendingEvent e : batch) {
+              record(e);
+              deliver(e, db);
+            }
+            batch.clear();
+          }
+        } finally {
+          db.close();
         }
-        final ProjectControl pc = pe.controlFor(user);
-        return pc.controlForRef(branchName).isVisible();
+      }
+
+      @Override
+      public String toString() {
+        return "deliver change events";
+      }
     }
 
     /**
@@ -451,82 +640,12 @@ public class ChangeHookRunner implements ChangeHooks {
    * @param project used to open repository to run the hook for.
    * @param hook the hook to execute.
    * @param args Arguments to use to run the hook.
+   * @param event the event, for hooks reading events from standard input.
    */
-  private synchronized void runHook(Project.NameKey project, File hook,
-      List<String> args) {
-    if (project != null && hook.exists()) {
-      hookQueue.execute(new HookTask(project, hook, args));
-    }
-  }
-
-  private synchronized void runHook(File hook, List<String> args) {
-    if (hook.exists()) {
-      hookQueue.execute(new HookTask(null, hook, args));
-    }
-  }
-
-  private final class HookTask implements Runnable {
-    private final Project.NameKey project;
-    private final File hook;
-    private final List<String> args;
-
-    private HookTask(Project.NameKey project, File hook, List<String> args) {
-      this.project = project;
-      this.hook = hook;
-      this.args = args;
-    }
-
-    @Override
-    public void run() {
-      Repository repo = null;
-      try {
-        final List<String> argv = new ArrayList<String>(1 + args.size());
-        argv.add(hook.getAbsolutePath());
-        argv.addAll(args);
-
-        final ProcessBuilder pb = new ProcessBuilder(argv);
-        pb.redirectErrorStream(true);
-
-        if (project != null) {
-          repo = openRepository(project);
-        }
-
-        if (repo != null) {
-          pb.directory(repo.getDirectory());
-
-          final Map<String, String> env = pb.environment();
-          env.put("GIT_DIR", repo.getDirectory().getAbsolutePath());
-        }
-
-        Process ps = pb.start();
-        ps.getOutputStream().close();
-
-        BufferedReader br =
-            new BufferedReader(new InputStreamReader(ps.getInputStream()));
-        try {
-          String line;
-          while ((line = br.readLine()) != null) {
-            log.info("hook[" + hook.getName() + "] output: " + line);
-          }
-        } finally {
-          try {
-            br.close();
-          } catch (IOException closeErr) {
-          }
-          ps.waitFor();
-        }
-      } catch (Throwable err) {
-        log.error("Error running hook " + hook.getAbsolutePath(), err);
-      } finally {
-        if (repo != null) {
-          repo.close();
-        }
-      }
-    }
-
-    @Override
-    public String toString() {
-      return "hook " + hook.getName();
+  private void runHook(Project.NameKey project, Hook hook, List<String> args,
+      ChangeEvent event) {
+    if (project != null) {
+      hook.run(project, args, event);
     }
   }
 }
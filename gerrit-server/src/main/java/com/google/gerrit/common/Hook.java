@@ -0,0 +1,343 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.common;
+
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.events.ChangeEvent;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gson.Gson;
+
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Repository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * A hook executable, and the events waiting for it.
+ * <p>
+ * Each hook runs at most {@code hooks.<name>.maxConcurrent} events at once,
+ * on the thread pool shared by all hooks. A busy hook therefore no longer
+ * delays other hooks, and events for one hook still start in the order they
+ * were fired when the limit is 1. Whether the hook file exists is checked at
+ * most once every {@code hooks.checkFrequency}, instead of for every event.
+ * <p>
+ * If {@code hooks.<name>.stream} is set, the hook is started once and
+ * receives each event as a single line of JSON on its standard input, in
+ * the format used by {@code gerrit stream-events}. Events without a JSON
+ * form are run the usual way, with a new process per event. Events are
+ * counted as run once they have been flushed to the process; if it exits,
+ * it is started again and sent the events it may not have received.
+ */
+class Hook {
+  private static final Logger log = LoggerFactory.getLogger(Hook.class);
+
+  /** Events run by one task before it yields its thread to other hooks. */
+  private static final int BATCH_SIZE = 16;
+
+  private final File file;
+  private final String name;
+  private final GitRepositoryManager repoManager;
+  private final Executor pool;
+  private final int maxConcurrent;
+  private final boolean stream;
+  private final long checkFrequency;
+  private final HookStatistics stats;
+  private final Gson gson = new Gson();
+
+  private volatile boolean exists;
+  private volatile long checkedAt;
+
+  private final LinkedList<Invocation> waiting = new LinkedList<Invocation>();
+  private int running;
+
+  /** Guards the process of a hook in stream mode. */
+  private final Object processLock = new Object();
+  private Process process;
+  private OutputStream processIn;
+
+  /** Events written to {@link #processIn} since it was last flushed. */
+  private final List<byte[]> unflushed = new ArrayList<byte[]>();
+
+  Hook(final File file, final Config cfg, final long checkFrequency,
+      final GitRepositoryManager repoManager, final Executor pool) {
+    this.file = file;
+    this.name = file.getName();
+    this.repoManager = repoManager;
+    this.pool = pool;
+    this.checkFrequency = checkFrequency;
+    this.stream = cfg.getBoolean("hooks", name, "stream", false);
+    this.maxConcurrent = stream //
+        ? 1 // One process reads all events.
+        : Math.max(1, cfg.getInt("hooks", name, "maxConcurrent", 1));
+    this.stats = new HookStatistics(name);
+  }
+
+  HookStatistics getStatistics() {
+    return stats;
+  }
+
+  /**
+   * Queue the hook to run for an event.
+   *
+   * @param project project the event happened in; its repository is the
+   *        working directory of the hook. May be null.
+   * @param args command line arguments describing the event.
+   * @param event the event, sent to hooks in stream mode. May be null.
+   */
+  void run(Project.NameKey project, List<String> args, ChangeEvent event) {
+    if (!exists()) {
+      return;
+    }
+
+    final Invocation inv = new Invocation(project, args, event);
+    synchronized (this) {
+      if (maxConcurrent <= running) {
+        waiting.add(inv);
+        stats.setPending(waiting.size());
+        return;
+      }
+      running++;
+    }
+    pool.execute(new Worker(inv));
+  }
+
+  private boolean exists() {
+    final long now = System.currentTimeMillis();
+    if (checkFrequency <= now - checkedAt) {
+      exists = file.exists();
+      checkedAt = now;
+    }
+    return exists;
+  }
+
+  /** Stop the process of a hook in stream mode. */
+  void stop() {
+    synchronized (processLock) {
+      if (process != null) {
+        try {
+          processIn.close();
+        } catch (IOException e) {
+          // The process is destroyed below anyway.
+        }
+        process.destroy();
+        process = null;
+        processIn = null;
+      }
+    }
+  }
+
+  private static class Invocation {
+    final Project.NameKey project;
+    final List<String> args;
+    final ChangeEvent event;
+    final long queuedAt;
+
+    Invocation(Project.NameKey project, List<String> args, ChangeEvent event) {
+      this.project = project;
+      this.args = args;
+      this.event = event;
+      this.queuedAt = System.currentTimeMillis();
+    }
+  }
+
+  /** Runs waiting events of this hook until none are left. */
+  private class Worker implements Runnable {
+    private Invocation next;
+
+    Worker(Invocation first) {
+      next = first;
+    }
+
+    @Override
+    public void run() {
+      for (int n = 0; next != null; n++) {
+        if (BATCH_SIZE <= n) {
+          // Give other hooks a chance to use this thread.
+          pool.execute(this);
+          return;
+        }
+
+        final Invocation inv = next;
+        synchronized (Hook.this) {
+          next = waiting.poll();
+          stats.setPending(waiting.size());
+          if (next == null) {
+            running--;
+          }
+        }
+        stats.recordStart(System.currentTimeMillis() - inv.queuedAt);
+        if (stream && inv.event != null) {
+          send(inv, next == null || next.event == null
+              || BATCH_SIZE <= n + 1);
+        } else {
+          try {
+            exec(inv);
+            stats.recordRun();
+          } catch (Throwable err) {
+            stats.recordFailure();
+            log.error("Error running hook " + file.getAbsolutePath(), err);
+          }
+        }
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "hook " + name;
+    }
+  }
+
+  /**
+   * Write an event to the hook process, starting it if necessary.
+   * <p>
+   * The events written since the last flush are counted as run once
+   * {@code flush} is true and the flush succeeded. If the process exited,
+   * it is started once more and sent all of them again.
+   */
+  private void send(Invocation inv, boolean flush) {
+    synchronized (processLock) {
+      try {
+        final byte[] line =
+            (gson.toJson(inv.event) + "\n").getBytes("UTF-8");
+        unflushed.add(line);
+        for (int attempt = 0;; attempt++) {
+          try {
+            if (process == null) {
+              start();
+              for (byte[] b : unflushed) {
+                processIn.write(b);
+              }
+            } else {
+              processIn.write(line);
+            }
+            if (flush) {
+              processIn.flush();
+            }
+            break;
+          } catch (IOException e) {
+            // The process has exited, possibly before reading the events
+            // still buffered for it; start it again once.
+            stop();
+            if (0 < attempt) {
+              throw e;
+            }
+          }
+        }
+      } catch (Throwable err) {
+        for (int i = 0; i < unflushed.size(); i++) {
+          stats.recordFailure();
+        }
+        unflushed.clear();
+        log.error("Error running hook " + file.getAbsolutePath(), err);
+        return;
+      }
+
+      if (flush) {
+        for (int i = 0; i < unflushed.size(); i++) {
+          stats.recordRun();
+        }
+        unflushed.clear();
+      }
+    }
+  }
+
+  private void start() throws IOException {
+    final ProcessBuilder pb = new ProcessBuilder(file.getAbsolutePath());
+    pb.redirectErrorStream(true);
+    pb.directory(file.getParentFile());
+    process = pb.start();
+    processIn = process.getOutputStream();
+
+    final InputStream out = process.getInputStream();
+    final Thread t = new Thread("hook[" + name + "] output") {
+      @Override
+      public void run() {
+        logOutput(out);
+      }
+    };
+    t.setDaemon(true);
+    t.start();
+  }
+
+  /** Run the hook in a new process for one event, and wait for it. */
+  private void exec(Invocation inv) throws IOException, InterruptedException {
+    Repository repo = null;
+    try {
+      final List<String> argv = new ArrayList<String>(1 + inv.args.size());
+      argv.add(file.getAbsolutePath());
+      argv.addAll(inv.args);
+
+      final ProcessBuilder pb = new ProcessBuilder(argv);
+      pb.redirectErrorStream(true);
+
+      if (inv.project != null) {
+        try {
+          repo = repoManager.openRepository(inv.project);
+        } catch (RepositoryNotFoundException err) {
+          log.warn("Cannot open repository " + inv.project.get(), err);
+        }
+      }
+
+      if (repo != null) {
+        pb.directory(repo.getDirectory());
+
+        final Map<String, String> env = pb.environment();
+        env.put("GIT_DIR", repo.getDirectory().getAbsolutePath());
+      }
+
+      final Process ps = pb.start();
+      ps.getOutputStream().close();
+      try {
+        logOutput(ps.getInputStream());
+      } finally {
+        ps.waitFor();
+      }
+    } finally {
+      if (repo != null) {
+        repo.close();
+      }
+    }
+  }
+
+  private void logOutput(InputStream in) {
+    final BufferedReader br = new BufferedReader(new InputStreamReader(in));
+    try {
+      String line;
+      while ((line = br.readLine()) != null) {
+        log.info("hook[" + name + "] output: " + line);
+      }
+    } catch (IOException err) {
+      // The process exited; nothing more to log.
+    } finally {
+      try {
+        br.close();
+      } catch (IOException closeErr) {
+      }
+    }
+  }
+}
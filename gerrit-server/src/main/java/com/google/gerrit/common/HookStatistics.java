@@ -0,0 +1,82 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Running totals of the invocations of a single hook. */
+public class HookStatistics {
+  private final String hookName;
+  private final AtomicLong runs = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong waited = new AtomicLong();
+  private final AtomicLong maxWait = new AtomicLong();
+  private volatile int pending;
+
+  HookStatistics(final String hookName) {
+    this.hookName = hookName;
+  }
+
+  void setPending(final int waiting) {
+    pending = waiting;
+  }
+
+  void recordStart(final long waitMillis) {
+    waited.addAndGet(waitMillis);
+    long max;
+    do {
+      max = maxWait.get();
+    } while (max < waitMillis && !maxWait.compareAndSet(max, waitMillis));
+  }
+
+  void recordRun() {
+    runs.incrementAndGet();
+  }
+
+  void recordFailure() {
+    failures.incrementAndGet();
+  }
+
+  /** @return file name of the hook. */
+  public String getHookName() {
+    return hookName;
+  }
+
+  /** @return number of events passed to the hook. */
+  public long getRuns() {
+    return runs.get();
+  }
+
+  /** @return number of events the hook could not be run for. */
+  public long getFailures() {
+    return failures.get();
+  }
+
+  /** @return number of events waiting for the hook, as of the last change. */
+  public int getPending() {
+    return pending;
+  }
+
+  /** @return average time events waited before the hook started on them. */
+  public long getAverageWaitMillis() {
+    final long n = getRuns() + getFailures();
+    return n > 0 ? waited.get() / n : 0;
+  }
+
+  /** @return longest time an event waited before the hook started on it. */
+  public long getMaxWaitMillis() {
+    return maxWait.get();
+  }
+}
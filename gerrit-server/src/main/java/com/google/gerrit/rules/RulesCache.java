@@ -20,6 +20,7 @@ import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
@@ -39,6 +40,8 @@ import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.util.RawParseUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
@@ -52,7 +55,14 @@ import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 /**
  * Manages a cache of compiled Prolog rules.
@@ -60,9 +70,18 @@ import java.util.Map;
  * Rules are loaded from the {@code site_path/cache/rules/rules-SHA1.jar}, where
  * {@code SHA1} is the SHA1 of the Prolog {@code rules.pl} in a project's
  * {@link GitRepositoryManager#REF_CONFIG} branch.
+ * <p>
+ * Machines are created outside of any lock, so a slow load of one project's
+ * rules does not delay other projects. Concurrent requests for the same rules
+ * wait for a single load. The most recently used machines are held strongly;
+ * older ones are kept only as long as a {@code ProjectState} still refers to
+ * them. Rules that had to be consulted from source are compiled into the jar
+ * cache in the background, so the next load can use the bytecode.
  */
 @Singleton
 public class RulesCache {
+  private static final Logger log = LoggerFactory.getLogger(RulesCache.class);
+
   /** Maximum size of a dynamic Prolog script, in bytes. */
   private static final int SRC_LIMIT = 128 * 1024;
 
@@ -74,9 +93,22 @@ public class RulesCache {
       "gerrit",
     };
 
+  /** Lock protecting the maps below. */
+  private final Object lock = new Object();
+
   private final Map<ObjectId, MachineRef> machineCache =
       new HashMap<ObjectId, MachineRef>();
 
+  /** Most recently used machines, in access order. */
+  private final Map<ObjectId, PrologMachineCopy> recent;
+
+  /** Loads in progress; other callers wait on these rather than reload. */
+  private final Map<ObjectId, FutureTask<PrologMachineCopy>> loading =
+      new HashMap<ObjectId, FutureTask<PrologMachineCopy>>();
+
+  /** Rules already submitted for background compilation. */
+  private final Set<ObjectId> compiled = new HashSet<ObjectId>();
+
   private final ReferenceQueue<PrologMachineCopy> dead =
       new ReferenceQueue<PrologMachineCopy>();
 
@@ -90,21 +122,45 @@ public class RulesCache {
     }
   }
 
+  private final Config config;
+  private final SitePaths site;
   private final boolean enableProjectRules;
   private final File cacheDir;
   private final File rulesDir;
   private final GitRepositoryManager gitMgr;
   private final ClassLoader systemLoader;
   private final PrologMachineCopy defaultMachine;
+  private final Executor compileQueue;
+  private volatile boolean compileFailed;
 
   @Inject
   protected RulesCache(@GerritServerConfig Config config, SitePaths site,
-      GitRepositoryManager gm) {
+      GitRepositoryManager gm, WorkQueue workQueue) {
+    this.config = config;
+    this.site = site;
     enableProjectRules = config.getBoolean("rules", null, "enable", true);
     cacheDir = site.resolve(config.getString("cache", null, "directory"));
     rulesDir = cacheDir != null ? new File(cacheDir, "rules") : null;
     gitMgr = gm;
 
+    final int max = config.getInt("rules", null, "machineCacheSize", 32);
+    recent = new LinkedHashMap<ObjectId, PrologMachineCopy>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(
+          Map.Entry<ObjectId, PrologMachineCopy> eldest) {
+        return max < size();
+      }
+    };
+
+    if (enableProjectRules && rulesDir != null
+        && config.getBoolean("rules", null, "compileInBackground", true)) {
+      compileQueue = workQueue.createQueue(1, "RulesCompiler");
+    } else {
+      compileQueue = null;
+    }
+
     systemLoader = getClass().getClassLoader();
     defaultMachine = save(newEmptyMachine(systemLoader));
   }
@@ -115,33 +171,164 @@ public class RulesCache {
    * @return a Prolog machine, after loading the specified rules.
    * @throws CompileException the machine cannot be created.
    */
-  public synchronized PrologMachineCopy loadMachine(
-      Project.NameKey project,
-      ObjectId rulesId)
+  public PrologMachineCopy loadMachine(
+      final Project.NameKey project,
+      final ObjectId rulesId)
       throws CompileException {
     if (!enableProjectRules || project == null || rulesId == null) {
       return defaultMachine;
     }
 
+    FutureTask<PrologMachineCopy> task;
+    boolean owner = false;
+    synchronized (lock) {
+      PrologMachineCopy pmc = get(rulesId);
+      if (pmc != null) {
+        return pmc;
+      }
+
+      task = loading.get(rulesId);
+      if (task == null) {
+        task = new FutureTask<PrologMachineCopy>(
+            new Callable<PrologMachineCopy>() {
+              @Override
+              public PrologMachineCopy call() throws CompileException {
+                return load(project, rulesId);
+              }
+            });
+        loading.put(rulesId, task);
+        owner = true;
+      }
+    }
+
+    if (owner) {
+      try {
+        task.run();
+      } finally {
+        synchronized (lock) {
+          loading.remove(rulesId);
+        }
+      }
+    }
+
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CompileException("Interrupted loading rules of " + project, e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof CompileException) {
+        throw (CompileException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new CompileException("Cannot load rules of " + project, cause);
+    }
+  }
+
+  /** Lookup a machine in the cache; must be called holding {@link #lock}. */
+  private PrologMachineCopy get(ObjectId rulesId) {
+    PrologMachineCopy pmc = recent.get(rulesId);
+    if (pmc != null) {
+      return pmc;
+    }
+
     Reference<? extends PrologMachineCopy> ref = machineCache.get(rulesId);
     if (ref != null) {
-      PrologMachineCopy pmc = ref.get();
+      pmc = ref.get();
       if (pmc != null) {
+        recent.put(rulesId, pmc);
         return pmc;
       }
 
       machineCache.remove(rulesId);
       ref.enqueue();
     }
+    return null;
+  }
 
-    gc();
-
+  private PrologMachineCopy load(Project.NameKey project, ObjectId rulesId)
+      throws CompileException {
+    boolean fromJar = hasJar(rulesId);
     PrologMachineCopy pcm = createMachine(project, rulesId);
-    MachineRef newRef = new MachineRef(rulesId, pcm, dead);
-    machineCache.put(rulesId, newRef);
+    synchronized (lock) {
+      gc();
+      machineCache.put(rulesId, new MachineRef(rulesId, pcm, dead));
+      recent.put(rulesId, pcm);
+    }
+    if (!fromJar) {
+      compileInBackground(project, rulesId);
+    }
     return pcm;
   }
 
+  private boolean hasJar(ObjectId rulesId) {
+    return rulesDir != null && jarFile(rulesId).isFile();
+  }
+
+  private File jarFile(ObjectId rulesId) {
+    return new File(rulesDir, "rules-" + rulesId.getName() + ".jar");
+  }
+
+  private void compileInBackground(final Project.NameKey project,
+      final ObjectId rulesId) {
+    if (compileQueue == null || compileFailed) {
+      return;
+    }
+    synchronized (lock) {
+      if (!compiled.add(rulesId.copy())) {
+        return;
+      }
+    }
+
+    compileQueue.execute(new Runnable() {
+      @Override
+      public void run() {
+        compile(project, rulesId);
+      }
+
+      @Override
+      public String toString() {
+        return "compile rules of " + project.get();
+      }
+    });
+  }
+
+  private void compile(Project.NameKey project, ObjectId rulesId) {
+    try {
+      Repository git = gitMgr.openRepository(project);
+      try {
+        new PrologCompiler(config, site, git).call();
+      } finally {
+        git.close();
+      }
+    } catch (CompileException e) {
+      // A JRE cannot compile any rules; a syntax error only affects these.
+      log.warn("Cannot compile rules of " + project + ": " + e.getMessage());
+      if (e.getMessage() != null && e.getMessage().startsWith("JDK required")) {
+        compileFailed = true;
+      }
+      return;
+    } catch (IOException e) {
+      log.warn("Cannot compile rules of " + project, e);
+      return;
+    }
+
+    if (hasJar(rulesId)) {
+      // Drop the consulted machine so the next load uses the bytecode.
+      synchronized (lock) {
+        recent.remove(rulesId);
+        MachineRef ref = machineCache.remove(rulesId);
+        if (ref != null) {
+          ref.enqueue();
+        }
+      }
+    }
+  }
+
   private void gc() {
     Reference<?> ref;
     while ((ref = dead.poll()) != null) {
@@ -158,7 +345,7 @@ public class RulesCache {
     // that over dynamic consult as the bytecode will be faster.
     //
     if (rulesDir != null) {
-      File jarFile = new File(rulesDir, "rules-" + rulesId.getName() + ".jar");
+      File jarFile = jarFile(rulesId);
       if (jarFile.isFile()) {
         URL[] cp = new URL[] {toURL(jarFile)};
         return save(newEmptyMachine(new URLClassLoader(cp, systemLoader)));
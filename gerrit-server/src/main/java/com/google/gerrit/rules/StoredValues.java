@@ -27,8 +27,9 @@ import com.google.gerrit.server.patch.PatchList;
 import com.google.gerrit.server.patch.PatchListCache;
 import com.google.gerrit.server.patch.PatchListKey;
 import com.google.gerrit.server.patch.PatchSetInfoFactory;
-import com.google.gerrit.server.patch.PatchSetInfoNotAvailableException;
+import com.google.gerrit.server.patch.Text;
 import com.google.gerrit.server.project.ChangeControl;
+import com.google.gwtorm.server.OrmException;
 
 import com.googlecode.prolog_cafe.lang.Prolog;
 import com.googlecode.prolog_cafe.lang.SystemException;
@@ -36,6 +37,11 @@ import com.googlecode.prolog_cafe.lang.SystemException;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import java.io.IOException;
+import java.util.Map;
 
 public final class StoredValues {
   public static final StoredValue<ReviewDb> REVIEW_DB = create(ReviewDb.class);
@@ -51,8 +57,17 @@ public final class StoredValues {
       PatchSetInfoFactory patchInfoFactory =
           env.getInjector().getInstance(PatchSetInfoFactory.class);
       try {
-        return patchInfoFactory.get(REVIEW_DB.get(engine), patchSetId);
-      } catch (PatchSetInfoNotAvailableException e) {
+        PatchSet ps = REVIEW_DB.get(engine).patchSets().get(patchSetId);
+        if (ps == null) {
+          throw new SystemException("Patch set " + patchSetId + " not found");
+        }
+        RevWalk rw = REV_WALK.get(engine);
+        RevCommit src =
+            rw.parseCommit(ObjectId.fromString(ps.getRevision().get()));
+        return patchInfoFactory.get(rw, src, patchSetId);
+      } catch (OrmException e) {
+        throw new SystemException(e.getMessage());
+      } catch (IOException e) {
         throw new SystemException(e.getMessage());
       }
     }
@@ -102,6 +117,45 @@ public final class StoredValues {
     }
   };
 
+  /**
+   * Walk over {@link #REPOSITORY}, shared by all predicates of an evaluation.
+   * <p>
+   * Its reader and parsed objects are reused across predicates, and across
+   * the parent projects' submit_filter environments, which inherit the stored
+   * values of the child.
+   */
+  public static final StoredValue<RevWalk> REV_WALK = new StoredValue<RevWalk>() {
+    @Override
+    public RevWalk createValue(Prolog engine) {
+      PrologEnvironment env = (PrologEnvironment) engine.control;
+      final RevWalk rw = new RevWalk(REPOSITORY.get(engine));
+      env.addToCleanup(new Runnable() {
+        @Override
+        public void run() {
+          rw.release();
+        }
+      });
+      return rw;
+    }
+  };
+
+  /** Most bytes of file contents held by {@link #BLOB_TEXT}. */
+  static final long BLOB_TEXT_MAX_BYTES = 8 << 20;
+
+  /**
+   * File contents loaded through {@link #REV_WALK}, by blob id.
+   * <p>
+   * Bounded to {@link #BLOB_TEXT_MAX_BYTES}, least recently used first out,
+   * so a change touching many large files cannot hold them all in memory.
+   */
+  public static final StoredValue<Map<ObjectId, Text>> BLOB_TEXT =
+      new StoredValue<Map<ObjectId, Text>>() {
+        @Override
+        public Map<ObjectId, Text> createValue(Prolog engine) {
+          return new TextCache(BLOB_TEXT_MAX_BYTES);
+        }
+      };
+
   private StoredValues() {
   }
 }
\ No newline at end of file
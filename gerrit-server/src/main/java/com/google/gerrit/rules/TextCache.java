@@ -0,0 +1,84 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.rules;
+
+import com.google.gerrit.server.patch.Text;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * File contents by blob id, holding at most a fixed number of bytes.
+ * <p>
+ * The least recently used texts are discarded first. A text larger than the
+ * whole limit is not kept at all.
+ */
+class TextCache extends LinkedHashMap<ObjectId, Text> {
+  private static final long serialVersionUID = 1L;
+
+  private final long maxBytes;
+  private long bytes;
+
+  TextCache(long maxBytes) {
+    super(16, 0.75f, true);
+    this.maxBytes = maxBytes;
+  }
+
+  /** @return total size of the texts currently held. */
+  long getBytes() {
+    return bytes;
+  }
+
+  @Override
+  public Text put(ObjectId id, Text text) {
+    final long size = sizeOf(text);
+    if (maxBytes < size) {
+      return remove(id);
+    }
+
+    final Text old = super.put(id, text);
+    bytes += size - sizeOf(old);
+
+    final Iterator<Map.Entry<ObjectId, Text>> i = entrySet().iterator();
+    while (maxBytes < bytes && i.hasNext()) {
+      final Map.Entry<ObjectId, Text> e = i.next();
+      if (e.getValue() != text) {
+        bytes -= sizeOf(e.getValue());
+        i.remove();
+      }
+    }
+    return old;
+  }
+
+  @Override
+  public Text remove(Object id) {
+    final Text old = super.remove(id);
+    bytes -= sizeOf(old);
+    return old;
+  }
+
+  @Override
+  public void clear() {
+    super.clear();
+    bytes = 0;
+  }
+
+  private static long sizeOf(Text text) {
+    return text != null ? text.getContent().length : 0;
+  }
+}
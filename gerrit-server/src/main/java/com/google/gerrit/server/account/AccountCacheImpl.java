@@ -21,6 +21,7 @@ import com.google.gerrit.reviewdb.client.AccountGroupMember;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.cache.Cache;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.CacheWarmer;
 import com.google.gerrit.server.cache.EntryCreator;
 import com.google.gwtorm.server.OrmException;
 import com.google.gwtorm.server.SchemaFactory;
@@ -53,6 +54,12 @@ public class AccountCacheImpl implements AccountCache {
             new TypeLiteral<Cache<String, Account.Id>>() {};
         core(byUsernameType, BYUSER_NAME).populateWith(ByNameLoader.class);
 
+        final TypeLiteral<Cache<AccountSuggestIndex.ListKey, AccountSuggestIndex.Snapshot>> suggestType =
+            new TypeLiteral<Cache<AccountSuggestIndex.ListKey, AccountSuggestIndex.Snapshot>>() {};
+        core(suggestType, AccountSuggestIndex.CACHE_NAME) //
+            .populateWith(AccountSuggestIndex.Loader.class);
+        bind(AccountSuggestIndex.class);
+
         bind(AccountCacheImpl.class);
         bind(AccountCache.class).to(AccountCacheImpl.class);
       }
@@ -61,12 +68,19 @@ public class AccountCacheImpl implements AccountCache {
 
   private final Cache<Account.Id, AccountState> byId;
   private final Cache<String, Account.Id> byName;
+  private final CacheWarmer<Account.Id, AccountState> byIdWarmer;
+  private final CacheWarmer<String, Account.Id> byNameWarmer;
+  private final AccountSuggestIndex suggestIndex;
 
   @Inject
   AccountCacheImpl(@Named(BYID_NAME) Cache<Account.Id, AccountState> byId,
-      @Named(BYUSER_NAME) Cache<String, Account.Id> byUsername) {
+      @Named(BYUSER_NAME) Cache<String, Account.Id> byUsername,
+      AccountSuggestIndex suggestIndex) {
     this.byId = byId;
     this.byName = byUsername;
+    this.suggestIndex = suggestIndex;
+    this.byIdWarmer = new CacheWarmer<Account.Id, AccountState>(byId);
+    this.byNameWarmer = new CacheWarmer<String, Account.Id>(byUsername);
   }
 
   public AccountState get(final Account.Id accountId) {
@@ -81,10 +95,51 @@ public class AccountCacheImpl implements AccountCache {
 
   public void evict(final Account.Id accountId) {
     byId.remove(accountId);
+    byIdWarmer.evicted(accountId);
+    suggestIndex.evict(accountId);
   }
 
   public void evictByUsername(String username) {
     byName.remove(username);
+    byNameWarmer.evicted(username);
+  }
+
+  void beginWarmUp() {
+    byIdWarmer.begin();
+    byNameWarmer.begin();
+  }
+
+  void warm(final AccountState state) {
+    byIdWarmer.put(state.getAccount().getId(), state);
+    if (state.getUserName() != null) {
+      byNameWarmer.put(state.getUserName(), state.getAccount().getId());
+    }
+  }
+
+  void endWarmUp() {
+    byIdWarmer.end();
+    byNameWarmer.end();
+  }
+
+  static AccountState newState(final Account account,
+      final Collection<AccountExternalId> externalIds,
+      final Iterable<AccountGroupMember> memberships,
+      final GroupCache groupCache) {
+    Set<AccountGroup.UUID> internalGroups = new HashSet<AccountGroup.UUID>();
+    for (AccountGroupMember g : memberships) {
+      final AccountGroup.Id groupId = g.getAccountGroupId();
+      final AccountGroup group = groupCache.get(groupId);
+      if (group != null && group.getType() == AccountGroup.Type.INTERNAL) {
+        internalGroups.add(group.getGroupUUID());
+      }
+    }
+
+    internalGroups.add(AccountGroup.REGISTERED_USERS);
+    internalGroups.add(AccountGroup.ANONYMOUS_USERS);
+    internalGroups = Collections.unmodifiableSet(internalGroups);
+
+    return new AccountState(account, internalGroups,
+        Collections.unmodifiableCollection(externalIds));
   }
 
   static class ByIdLoader extends EntryCreator<Account.Id, AccountState> {
@@ -123,24 +178,9 @@ public class AccountCacheImpl implements AccountCache {
         return missing(who);
       }
 
-      final Collection<AccountExternalId> externalIds =
-          Collections.unmodifiableCollection(db.accountExternalIds().byAccount(
-              who).toList());
-
-      Set<AccountGroup.UUID> internalGroups = new HashSet<AccountGroup.UUID>();
-      for (AccountGroupMember g : db.accountGroupMembers().byAccount(who)) {
-        final AccountGroup.Id groupId = g.getAccountGroupId();
-        final AccountGroup group = groupCache.get(groupId);
-        if (group != null && group.getType() == AccountGroup.Type.INTERNAL) {
-          internalGroups.add(group.getGroupUUID());
-        }
-      }
-
-      internalGroups.add(AccountGroup.REGISTERED_USERS);
-      internalGroups.add(AccountGroup.ANONYMOUS_USERS);
-      internalGroups = Collections.unmodifiableSet(internalGroups);
-
-      return new AccountState(account, internalGroups, externalIds);
+      return newState(account,
+          db.accountExternalIds().byAccount(who).toList(),
+          db.accountGroupMembers().byAccount(who), groupCache);
     }
 
     @Override
@@ -0,0 +1,216 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import com.google.gerrit.lifecycle.LifecycleListener;
+import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.client.AccountExternalId;
+import com.google.gerrit.reviewdb.client.AccountGroup;
+import com.google.gerrit.reviewdb.client.AccountGroupInclude;
+import com.google.gerrit.reviewdb.client.AccountGroupMember;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.SchemaFactory;
+import com.google.inject.Inject;
+
+import org.eclipse.jgit.lib.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads accounts and groups into their caches at startup.
+ * <p>
+ * Enabled by {@code cache.warmUp}. The caches are filled in the background
+ * from a few queries reading whole tables, while the SSH and HTTP servers
+ * start, instead of with several queries per user on their first request.
+ * At most {@code cache.accounts.memoryLimit} accounts are loaded.
+ */
+public class AccountCacheWarmUp implements LifecycleListener {
+  private static final Logger log =
+      LoggerFactory.getLogger(AccountCacheWarmUp.class);
+
+  private final SchemaFactory<ReviewDb> schema;
+  private final WorkQueue queue;
+  private final AccountCacheImpl accountCache;
+  private final GroupCacheImpl groupCache;
+  private final GroupIncludeCacheImpl includeCache;
+  private final boolean enabled;
+  private final int accountLimit;
+
+  @Inject
+  AccountCacheWarmUp(@GerritServerConfig final Config cfg,
+      final SchemaFactory<ReviewDb> schema, final WorkQueue queue,
+      final AccountCacheImpl accountCache, final GroupCacheImpl groupCache,
+      final GroupIncludeCacheImpl includeCache) {
+    this.schema = schema;
+    this.queue = queue;
+    this.accountCache = accountCache;
+    this.groupCache = groupCache;
+    this.includeCache = includeCache;
+    this.enabled = cfg.getBoolean("cache", "warmUp", false);
+    this.accountLimit = cfg.getInt("cache", "accounts", "memoryLimit", 1024);
+  }
+
+  @Override
+  public void start() {
+    if (enabled) {
+      queue.getDefaultQueue().execute(new Task());
+    }
+  }
+
+  @Override
+  public void stop() {
+  }
+
+  private class Task implements Runnable {
+    private volatile String status = "starting";
+
+    @Override
+    public void run() {
+      final long start = System.currentTimeMillis();
+      log.info("Warming account caches");
+      try {
+        final ReviewDb db = schema.open();
+        try {
+          final int groups = warmGroups(db);
+          final int accounts = warmAccounts(db);
+          log.info("Warmed account caches with " + groups + " groups and "
+              + accounts + " accounts in "
+              + (System.currentTimeMillis() - start) + " ms");
+        } finally {
+          db.close();
+        }
+      } catch (OrmException e) {
+        log.warn("Cannot warm account caches", e);
+      } finally {
+        status = "done";
+      }
+    }
+
+    private int warmGroups(final ReviewDb db) throws OrmException {
+      groupCache.beginWarmUp();
+      includeCache.beginWarmUp();
+      try {
+        status = "groups";
+        final Map<AccountGroup.Id, AccountGroup> groups =
+            new HashMap<AccountGroup.Id, AccountGroup>();
+        for (AccountGroup g : db.accountGroups().all()) {
+          groups.put(g.getId(), g);
+          groupCache.warm(g);
+        }
+
+        status = "group includes";
+        final Map<AccountGroup.Id, Set<AccountGroup.UUID>> byInclude =
+            new HashMap<AccountGroup.Id, Set<AccountGroup.UUID>>();
+        for (AccountGroupInclude i : db.accountGroupIncludes().all()) {
+          final AccountGroup parent = groups.get(i.getGroupId());
+          if (parent != null) {
+            Set<AccountGroup.UUID> s = byInclude.get(i.getIncludeId());
+            if (s == null) {
+              s = new HashSet<AccountGroup.UUID>();
+              byInclude.put(i.getIncludeId(), s);
+            }
+            s.add(parent.getGroupUUID());
+          }
+        }
+        for (AccountGroup g : groups.values()) {
+          final Set<AccountGroup.UUID> s = byInclude.get(g.getId());
+          if (s != null) {
+            includeCache.warm(g.getGroupUUID(),
+                Collections.unmodifiableCollection(s));
+          } else {
+            includeCache.warm(g.getGroupUUID(),
+                Collections.<AccountGroup.UUID> emptyList());
+          }
+        }
+        return groups.size();
+      } finally {
+        groupCache.endWarmUp();
+        includeCache.endWarmUp();
+      }
+    }
+
+    private int warmAccounts(final ReviewDb db) throws OrmException {
+      accountCache.beginWarmUp();
+      try {
+        status = "accounts";
+        final Map<Account.Id, Account> accounts =
+            new HashMap<Account.Id, Account>();
+        for (Account a : db.accounts().firstNById(accountLimit)) {
+          if (a.isActive()) {
+            accounts.put(a.getId(), a);
+          }
+        }
+
+        status = "external ids";
+        final Map<Account.Id, List<AccountExternalId>> externalIds =
+            new HashMap<Account.Id, List<AccountExternalId>>();
+        for (AccountExternalId e : db.accountExternalIds().all()) {
+          if (accounts.containsKey(e.getAccountId())) {
+            add(externalIds, e.getAccountId(), e);
+          }
+        }
+
+        status = "group members";
+        final Map<Account.Id, List<AccountGroupMember>> members =
+            new HashMap<Account.Id, List<AccountGroupMember>>();
+        for (AccountGroupMember m : db.accountGroupMembers().all()) {
+          if (accounts.containsKey(m.getAccountId())) {
+            add(members, m.getAccountId(), m);
+          }
+        }
+
+        for (Account a : accounts.values()) {
+          accountCache.warm(AccountCacheImpl.newState(a,
+              get(externalIds, a.getId()), get(members, a.getId()),
+              groupCache));
+        }
+        return accounts.size();
+      } finally {
+        accountCache.endWarmUp();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "warm account caches (" + status + ")";
+    }
+  }
+
+  private static <K, V> void add(Map<K, List<V>> map, K key, V value) {
+    List<V> l = map.get(key);
+    if (l == null) {
+      l = new ArrayList<V>(4);
+      map.put(key, l);
+    }
+    l.add(value);
+  }
+
+  private static <K, V> Collection<V> get(Map<K, List<V>> map, K key) {
+    final List<V> l = map.get(key);
+    return l != null ? l : Collections.<V> emptyList();
+  }
+}
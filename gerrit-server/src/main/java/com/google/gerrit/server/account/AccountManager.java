@@ -320,6 +320,7 @@ public class AccountManager {
     }
 
     byEmailCache.evict(account.getPreferredEmail());
+    byIdCache.evict(newId);
     realm.onCreateAccount(who, account);
     return new AuthResult(newId, extId.getKey(), true);
   }
@@ -0,0 +1,363 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import static com.google.gerrit.reviewdb.client.AccountExternalId.SCHEME_USERNAME;
+
+import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.client.AccountExternalId;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.cache.Cache;
+import com.google.gerrit.server.cache.EntryCreator;
+import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.SchemaFactory;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Prefix index of the names and email addresses of all accounts.
+ * <p>
+ * The index is one sorted array per {@link Field}, held in the single entry
+ * of the {@code accounts_suggest} cache and replaced as a whole when it
+ * changes. Accounts evicted from the {@link AccountCache} are read again
+ * before the next lookup, so changes made through this server are visible
+ * to the next suggestion. Like the database queries it replaces, matching
+ * is case sensitive.
+ */
+@Singleton
+public class AccountSuggestIndex {
+  private static final Logger log =
+      LoggerFactory.getLogger(AccountSuggestIndex.class);
+
+  static final String CACHE_NAME = "accounts_suggest";
+
+  /** Keys of an account, in the order suggestions prefer them. */
+  public static enum Field {
+    FULL_NAME, PREFERRED_EMAIL, EMAIL_ADDRESS, USER_NAME;
+  }
+
+  /** An account matched by one of its keys. */
+  public static class Match {
+    private final String key;
+    private final Account.Id accountId;
+
+    Match(final String key, final Account.Id accountId) {
+      this.key = key;
+      this.accountId = accountId;
+    }
+
+    /** @return the name or email address that matched. */
+    public String getKey() {
+      return key;
+    }
+
+    public Account.Id getAccountId() {
+      return accountId;
+    }
+  }
+
+  private static final Comparator<Match> ORDER = new Comparator<Match>() {
+    @Override
+    public int compare(Match a, Match b) {
+      final int cmp = a.key.compareTo(b.key);
+      if (cmp != 0) {
+        return cmp;
+      }
+      return a.accountId.get() - b.accountId.get();
+    }
+  };
+
+  private final SchemaFactory<ReviewDb> schema;
+  private final Cache<ListKey, Snapshot> cache;
+  private final Set<Account.Id> pending =
+      Collections.newSetFromMap(new ConcurrentHashMap<Account.Id, Boolean>());
+  private final Lock updateLock = new ReentrantLock(true /* fair */);
+
+  @Inject
+  AccountSuggestIndex(final SchemaFactory<ReviewDb> schema,
+      @Named(CACHE_NAME) final Cache<ListKey, Snapshot> cache) {
+    this.schema = schema;
+    this.cache = cache;
+  }
+
+  /**
+   * Find accounts by common prefix of one of their keys.
+   *
+   * @param field the kind of key to match.
+   * @param prefix common prefix.
+   * @param limit maximum number of matches returned.
+   * @return matches sorted by key; an account may be listed more than once
+   *         if several of its email addresses match.
+   */
+  public List<Match> byPrefix(Field field, String prefix, int limit) {
+    if (!pending.isEmpty()) {
+      update();
+    }
+    return cache.get(ListKey.ALL).byPrefix(field, prefix, limit);
+  }
+
+  /**
+   * Check if an account would be found by {@link #byPrefix} in any field.
+   *
+   * @param state the account.
+   * @param prefix common prefix.
+   * @return true if one of the account's keys starts with the prefix.
+   */
+  public static boolean matches(final AccountState state, final String prefix) {
+    final Map<Field, List<Match>> keys = Snapshot.newFields();
+    Snapshot.addKeys(keys, state.getAccount(), state.getExternalIds());
+    for (List<Match> l : keys.values()) {
+      for (Match m : l) {
+        if (m.key.startsWith(prefix)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Notify the index that an account or its external ids changed. */
+  public void evict(final Account.Id accountId) {
+    pending.add(accountId);
+  }
+
+  private void update() {
+    updateLock.lock();
+    try {
+      final Set<Account.Id> ids = new HashSet<Account.Id>(pending);
+      if (ids.isEmpty()) {
+        return;
+      }
+      pending.removeAll(ids);
+
+      final Map<Field, List<Match>> added = Snapshot.newFields();
+      try {
+        final ReviewDb db = schema.open();
+        try {
+          for (Account.Id id : ids) {
+            final Account a = db.accounts().get(id);
+            if (a != null) {
+              Snapshot.addKeys(added, a,
+                  db.accountExternalIds().byAccount(id).toList());
+            }
+          }
+        } finally {
+          db.close();
+        }
+      } catch (OrmException e) {
+        log.warn("Cannot update account suggestions", e);
+        pending.addAll(ids);
+        return;
+      }
+      final Snapshot old = cache.get(ListKey.ALL);
+      final Snapshot updated = old.replace(ids, added);
+      if (updated != old) {
+        cache.put(ListKey.ALL, updated);
+      }
+    } finally {
+      updateLock.unlock();
+    }
+  }
+
+  static class ListKey {
+    static final ListKey ALL = new ListKey();
+
+    private ListKey() {
+    }
+  }
+
+  /** Immutable state of the index. */
+  static class Snapshot {
+    static Map<Field, List<Match>> newFields() {
+      final Map<Field, List<Match>> m =
+          new EnumMap<Field, List<Match>>(Field.class);
+      for (Field f : Field.values()) {
+        m.put(f, new ArrayList<Match>());
+      }
+      return m;
+    }
+
+    static void addKeys(Map<Field, List<Match>> fields, Account a,
+        Collection<AccountExternalId> externalIds) {
+      final Account.Id id = a.getId();
+      if (a.getFullName() != null) {
+        fields.get(Field.FULL_NAME).add(new Match(a.getFullName(), id));
+      }
+      if (a.getPreferredEmail() != null) {
+        fields.get(Field.PREFERRED_EMAIL).add(
+            new Match(a.getPreferredEmail(), id));
+      }
+      for (AccountExternalId e : externalIds) {
+        if (e.getEmailAddress() != null) {
+          fields.get(Field.EMAIL_ADDRESS).add(
+              new Match(e.getEmailAddress(), id));
+        }
+        if (e.isScheme(SCHEME_USERNAME) && e.getSchemeRest() != null) {
+          fields.get(Field.USER_NAME).add(new Match(e.getSchemeRest(), id));
+        }
+      }
+    }
+
+    private final Map<Field, Match[]> fields;
+
+    Snapshot(final Map<Field, List<Match>> unsorted) {
+      fields = new EnumMap<Field, Match[]>(Field.class);
+      for (Field f : Field.values()) {
+        final Match[] m = unsorted.get(f).toArray(new Match[0]);
+        Arrays.sort(m, ORDER);
+        fields.put(f, m);
+      }
+    }
+
+    private Snapshot(final EnumMap<Field, Match[]> sorted) {
+      fields = sorted;
+    }
+
+    /**
+     * Copy the index, replacing the keys of some accounts.
+     * <p>
+     * Only the new keys are sorted; they are merged into the existing sorted
+     * keys in one pass, so the cost is linear in the size of the index.
+     *
+     * @param ids accounts whose keys are removed.
+     * @param added new keys of those accounts that still exist.
+     * @return the new index; this index if the keys did not change.
+     */
+    Snapshot replace(Set<Account.Id> ids, Map<Field, List<Match>> added) {
+      final EnumMap<Field, Match[]> merged =
+          new EnumMap<Field, Match[]>(Field.class);
+      boolean changed = false;
+      for (Field f : Field.values()) {
+        final Match[] old = fields.get(f);
+        final Match[] add = added.get(f).toArray(new Match[0]);
+        Arrays.sort(add, ORDER);
+
+        final Match[] r = new Match[old.length + add.length];
+        int n = 0;
+        int next = 0;
+        int removed = 0;
+        for (Match m : old) {
+          if (ids.contains(m.accountId)) {
+            // Removed keys come in order, so they can be compared one by
+            // one against the sorted new keys.
+            if (removed >= add.length
+                || ORDER.compare(m, add[removed]) != 0) {
+              changed = true;
+            }
+            removed++;
+            continue;
+          }
+          while (next < add.length && ORDER.compare(add[next], m) < 0) {
+            r[n++] = add[next++];
+          }
+          r[n++] = m;
+        }
+        while (next < add.length) {
+          r[n++] = add[next++];
+        }
+        if (removed != add.length) {
+          changed = true;
+        }
+        merged.put(f, n < r.length ? Arrays.copyOf(r, n) : r);
+      }
+      return changed ? new Snapshot(merged) : this;
+    }
+
+    List<Match> byPrefix(Field field, String prefix, int limit) {
+      final Match[] m = fields.get(field);
+
+      // Find the first key not less than the prefix.
+      int lo = 0;
+      int hi = m.length;
+      while (lo < hi) {
+        final int mid = (lo + hi) >>> 1;
+        if (m[mid].key.compareTo(prefix) < 0) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+
+      final List<Match> r = new ArrayList<Match>(Math.min(limit, 16));
+      for (int i = lo; i < m.length && r.size() < limit; i++) {
+        if (!m[i].key.startsWith(prefix)) {
+          break;
+        }
+        r.add(m[i]);
+      }
+      return r;
+    }
+  }
+
+  static class Loader extends EntryCreator<ListKey, Snapshot> {
+    private final SchemaFactory<ReviewDb> schema;
+
+    @Inject
+    Loader(final SchemaFactory<ReviewDb> sf) {
+      schema = sf;
+    }
+
+    @Override
+    public Snapshot createEntry(ListKey key) throws Exception {
+      final Map<Field, List<Match>> fields = Snapshot.newFields();
+      final ReviewDb db = schema.open();
+      try {
+        final Map<Account.Id, List<AccountExternalId>> externalIds =
+            new HashMap<Account.Id, List<AccountExternalId>>();
+        for (AccountExternalId e : db.accountExternalIds().all()) {
+          List<AccountExternalId> l = externalIds.get(e.getAccountId());
+          if (l == null) {
+            l = new ArrayList<AccountExternalId>(2);
+            externalIds.put(e.getAccountId(), l);
+          }
+          l.add(e);
+        }
+
+        for (Account a : db.accounts().all()) {
+          final List<AccountExternalId> l = externalIds.get(a.getId());
+          Snapshot.addKeys(fields, a, l != null ? l
+              : Collections.<AccountExternalId> emptyList());
+        }
+      } finally {
+        db.close();
+      }
+      return new Snapshot(fields);
+    }
+
+    @Override
+    public Snapshot missing(ListKey key) {
+      return new Snapshot(Snapshot.newFields());
+    }
+  }
+}
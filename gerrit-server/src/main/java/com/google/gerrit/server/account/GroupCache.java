@@ -39,6 +39,14 @@ public interface GroupCache {
   /** @return sorted iteration of groups. */
   public abstract Iterable<AccountGroup> all();
 
+  /**
+   * Filter the set of group names by common prefix.
+   *
+   * @param prefix common prefix.
+   * @return sorted iteration of group names sharing the same prefix.
+   */
+  public abstract Iterable<AccountGroup.NameKey> byName(String prefix);
+
   /** Notify the cache that a new group was constructed. */
   public void onCreateGroup(AccountGroup.NameKey newGroupName);
 
@@ -19,6 +19,7 @@ import com.google.gerrit.reviewdb.client.AccountGroupName;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.cache.Cache;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.CacheWarmer;
 import com.google.gerrit.server.cache.EntryCreator;
 import com.google.gwtorm.server.SchemaFactory;
 import com.google.inject.Inject;
@@ -30,7 +31,9 @@ import com.google.inject.name.Named;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.locks.Lock;
@@ -82,6 +85,8 @@ public class GroupCacheImpl implements GroupCache {
   private final Cache<AccountGroup.ExternalNameKey, Collection<AccountGroup>> byExternalName;
   private final Cache<ListKey,SortedSet<AccountGroup.NameKey>> list;
   private final Lock listLock;
+  private final CacheWarmer<AccountGroup.Id, AccountGroup> byIdWarmer;
+  private final CacheWarmer<AccountGroup.UUID, AccountGroup> byUUIDWarmer;
 
   @Inject
   GroupCacheImpl(
@@ -96,6 +101,9 @@ public class GroupCacheImpl implements GroupCache {
     this.byExternalName = byExternalName;
     this.list = list;
     this.listLock = new ReentrantLock(true /* fair */);
+    this.byIdWarmer = new CacheWarmer<AccountGroup.Id, AccountGroup>(byId);
+    this.byUUIDWarmer =
+        new CacheWarmer<AccountGroup.UUID, AccountGroup>(byUUID);
   }
 
   public AccountGroup get(final AccountGroup.Id groupId) {
@@ -107,6 +115,23 @@ public class GroupCacheImpl implements GroupCache {
     byName.remove(group.getNameKey());
     byUUID.remove(group.getGroupUUID());
     byExternalName.remove(group.getExternalNameKey());
+    byIdWarmer.evicted(group.getId());
+    byUUIDWarmer.evicted(group.getGroupUUID());
+  }
+
+  void beginWarmUp() {
+    byIdWarmer.begin();
+    byUUIDWarmer.begin();
+  }
+
+  void warm(final AccountGroup group) {
+    byIdWarmer.put(group.getId(), group);
+    byUUIDWarmer.put(group.getGroupUUID(), group);
+  }
+
+  void endWarmUp() {
+    byIdWarmer.end();
+    byUUIDWarmer.end();
   }
 
   public void evictAfterRename(final AccountGroup.NameKey oldName,
@@ -140,6 +165,57 @@ public class GroupCacheImpl implements GroupCache {
     return Collections.unmodifiableList(groups);
   }
 
+  @Override
+  public Iterable<AccountGroup.NameKey> byName(final String pfx) {
+    return new Iterable<AccountGroup.NameKey>() {
+      @Override
+      public Iterator<AccountGroup.NameKey> iterator() {
+        return new Iterator<AccountGroup.NameKey>() {
+          private AccountGroup.NameKey next;
+          private Iterator<AccountGroup.NameKey> itr =
+              list.get(ListKey.ALL).tailSet(new AccountGroup.NameKey(pfx))
+                  .iterator();
+
+          @Override
+          public boolean hasNext() {
+            if (next != null) {
+              return true;
+            }
+
+            if (!itr.hasNext()) {
+              return false;
+            }
+
+            AccountGroup.NameKey r = itr.next();
+            if (r.get().startsWith(pfx)) {
+              next = r;
+              return true;
+            } else {
+              itr = Collections.<AccountGroup.NameKey> emptyList().iterator();
+              return false;
+            }
+          }
+
+          @Override
+          public AccountGroup.NameKey next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+
+            AccountGroup.NameKey r = next;
+            next = null;
+            return r;
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+
   @Override
   public void onCreateGroup(final AccountGroup.NameKey newGroupName) {
     updateGroupList(null, newGroupName);
@@ -17,11 +17,19 @@ package com.google.gerrit.server.account;
 import com.google.gerrit.reviewdb.client.AccountGroup;
 
 import java.util.Collection;
+import java.util.Set;
 
 /** Tracks group inclusions in memory for efficient access. */
 public interface GroupIncludeCache {
+  /** @return groups directly including {@code groupId}. */
   public Collection<AccountGroup.UUID> getByInclude(AccountGroup.UUID groupId);
 
+  /**
+   * @return {@code groupId}, and all groups including it directly or through
+   *         other groups.
+   */
+  public Set<AccountGroup.UUID> getAllByInclude(AccountGroup.UUID groupId);
+
   public void evictInclude(AccountGroup.UUID groupId);
 }
 
@@ -19,6 +19,7 @@ import com.google.gerrit.reviewdb.client.AccountGroupInclude;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.cache.Cache;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.CacheWarmer;
 import com.google.gerrit.server.cache.EntryCreator;
 import com.google.gwtorm.server.SchemaFactory;
 import com.google.inject.Inject;
@@ -30,13 +31,26 @@ import com.google.inject.name.Named;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-
-/** Tracks group inclusions in memory for efficient access. */
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks group inclusions in memory for efficient access.
+ * <p>
+ * Besides the groups directly including a group, the cache keeps the
+ * transitive closure of each group that was asked for, so a membership
+ * check through nested groups is a single set lookup. When an inclusion of
+ * a group changes, the closures of that group and of every group whose
+ * closure contains it are evicted, and computed again on the next request.
+ */
 @Singleton
 public class GroupIncludeCacheImpl implements GroupIncludeCache {
   private static final String BYINCLUDE_NAME = "groups_byinclude";
+  private static final String CLOSURE_NAME = "groups_closure";
 
   public static Module module() {
     return new CacheModule() {
@@ -46,6 +60,10 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
             new TypeLiteral<Cache<AccountGroup.UUID, Collection<AccountGroup.UUID>>>() {};
         core(byInclude, BYINCLUDE_NAME).populateWith(ByIncludeLoader.class);
 
+        final TypeLiteral<Cache<AccountGroup.UUID, Set<AccountGroup.UUID>>> closure =
+            new TypeLiteral<Cache<AccountGroup.UUID, Set<AccountGroup.UUID>>>() {};
+        core(closure, CLOSURE_NAME);
+
         bind(GroupIncludeCacheImpl.class);
         bind(GroupIncludeCache.class).to(GroupIncludeCacheImpl.class);
       }
@@ -53,19 +71,99 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
   }
 
   private final Cache<AccountGroup.UUID, Collection<AccountGroup.UUID>> byInclude;
+  private final Cache<AccountGroup.UUID, Set<AccountGroup.UUID>> closure;
+  private final CacheWarmer<AccountGroup.UUID, Collection<AccountGroup.UUID>> byIncludeWarmer;
+
+  /**
+   * For each group, the groups whose cached closure contains it. Entries
+   * may outlive the closures they describe; evicting those is harmless.
+   */
+  private final ConcurrentMap<AccountGroup.UUID, Set<AccountGroup.UUID>> dependents =
+      new ConcurrentHashMap<AccountGroup.UUID, Set<AccountGroup.UUID>>();
+
+  /** Incremented by every eviction, to detect closures computed across one. */
+  private final AtomicLong evictions = new AtomicLong();
 
   @Inject
   GroupIncludeCacheImpl(
-      @Named(BYINCLUDE_NAME) Cache<AccountGroup.UUID, Collection<AccountGroup.UUID>> byInclude) {
+      @Named(BYINCLUDE_NAME) Cache<AccountGroup.UUID, Collection<AccountGroup.UUID>> byInclude,
+      @Named(CLOSURE_NAME) Cache<AccountGroup.UUID, Set<AccountGroup.UUID>> closure) {
     this.byInclude = byInclude;
+    this.closure = closure;
+    this.byIncludeWarmer =
+        new CacheWarmer<AccountGroup.UUID, Collection<AccountGroup.UUID>>(
+            byInclude);
   }
 
   public Collection<AccountGroup.UUID> getByInclude(AccountGroup.UUID groupId) {
     return byInclude.get(groupId);
   }
 
+  public Set<AccountGroup.UUID> getAllByInclude(AccountGroup.UUID groupId) {
+    Set<AccountGroup.UUID> all = closure.get(groupId);
+    if (all == null) {
+      long before = evictions.get();
+      all = computeClosure(groupId);
+      for (AccountGroup.UUID g : all) {
+        Set<AccountGroup.UUID> d = dependents.get(g);
+        if (d == null) {
+          d = Collections.newSetFromMap(
+              new ConcurrentHashMap<AccountGroup.UUID, Boolean>());
+          Set<AccountGroup.UUID> race = dependents.putIfAbsent(g, d);
+          if (race != null) {
+            d = race;
+          }
+        }
+        d.add(groupId);
+      }
+      closure.put(groupId, all);
+      if (before != evictions.get()) {
+        // An inclusion changed while computing; the result may be stale.
+        closure.remove(groupId);
+      }
+    }
+    return all;
+  }
+
+  private Set<AccountGroup.UUID> computeClosure(AccountGroup.UUID groupId) {
+    Set<AccountGroup.UUID> all = new HashSet<AccountGroup.UUID>();
+    LinkedList<AccountGroup.UUID> queue = new LinkedList<AccountGroup.UUID>();
+    all.add(groupId);
+    queue.add(groupId);
+    while (!queue.isEmpty()) {
+      for (AccountGroup.UUID g : getByInclude(queue.remove())) {
+        if (all.add(g)) {
+          queue.add(g);
+        }
+      }
+    }
+    return Collections.unmodifiableSet(all);
+  }
+
   public void evictInclude(AccountGroup.UUID groupId) {
     byInclude.remove(groupId);
+    byIncludeWarmer.evicted(groupId);
+
+    evictions.incrementAndGet();
+    closure.remove(groupId);
+    Set<AccountGroup.UUID> d = dependents.remove(groupId);
+    if (d != null) {
+      for (AccountGroup.UUID g : d) {
+        closure.remove(g);
+      }
+    }
+  }
+
+  void beginWarmUp() {
+    byIncludeWarmer.begin();
+  }
+
+  void warm(AccountGroup.UUID groupId, Collection<AccountGroup.UUID> groups) {
+    byIncludeWarmer.put(groupId, groups);
+  }
+
+  void endWarmUp() {
+    byIncludeWarmer.end();
   }
 
   static class ByIncludeLoader extends
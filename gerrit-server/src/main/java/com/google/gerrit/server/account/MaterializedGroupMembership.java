@@ -14,18 +14,19 @@
 
 package com.google.gerrit.server.account;
 
-import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.gerrit.reviewdb.client.AccountGroup;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 
-import java.util.Collections;
-import java.util.Queue;
 import java.util.Set;
 
 /**
  * Creates a GroupMembership object from materialized collection of groups.
+ * <p>
+ * The groups including the seed groups, directly or through other groups,
+ * come from the closures kept by {@link GroupIncludeCache}. They are
+ * collected once, on the first check the seed groups alone cannot answer.
  */
 public class MaterializedGroupMembership implements GroupMembership {
   public interface Factory {
@@ -33,16 +34,15 @@ public class MaterializedGroupMembership implements GroupMembership {
   }
 
   private final GroupIncludeCache groupIncludeCache;
-  private final Set<AccountGroup.UUID> includes;
-  private final Queue<AccountGroup.UUID> groupQueue;
+  private final Set<AccountGroup.UUID> seeds;
+  private volatile Set<AccountGroup.UUID> includes;
 
   @Inject
   MaterializedGroupMembership(
       GroupIncludeCache groupIncludeCache,
       @Assisted Iterable<AccountGroup.UUID> seedGroups) {
     this.groupIncludeCache = groupIncludeCache;
-    this.includes = Sets.newHashSet(seedGroups);
-    this.groupQueue = Lists.newLinkedList(seedGroups);
+    this.seeds = Sets.newHashSet(seedGroups);
   }
 
   @Override
@@ -50,44 +50,39 @@ public class MaterializedGroupMembership implements GroupMembership {
     if (id == null) {
       return false;
     }
-    if (includes.contains(id)) {
-      return true;
-    }
-    return findIncludedGroup(Collections.singleton(id));
+    return seeds.contains(id) || getIncludes().contains(id);
   }
 
   @Override
   public boolean containsAnyOf(Iterable<AccountGroup.UUID> ids) {
-    Set<AccountGroup.UUID> query = Sets.newHashSet();
     for (AccountGroup.UUID groupId : ids) {
-      if (includes.contains(groupId)) {
+      if (seeds.contains(groupId)) {
         return true;
       }
-      query.add(groupId);
     }
-
-    return findIncludedGroup(query);
+    Set<AccountGroup.UUID> all = getIncludes();
+    for (AccountGroup.UUID groupId : ids) {
+      if (all.contains(groupId)) {
+        return true;
+      }
+    }
+    return false;
   }
 
-  private boolean findIncludedGroup(Set<AccountGroup.UUID> query) {
-    boolean found = false;
-    while (!found && !groupQueue.isEmpty()) {
-      AccountGroup.UUID id = groupQueue.remove();
-
-      for (final AccountGroup.UUID groupId : groupIncludeCache.getByInclude(id)) {
-        if (includes.add(groupId)) {
-          groupQueue.add(groupId);
-          found |= query.contains(groupId);
-        }
+  private Set<AccountGroup.UUID> getIncludes() {
+    Set<AccountGroup.UUID> all = includes;
+    if (all == null) {
+      all = Sets.newHashSet(seeds);
+      for (AccountGroup.UUID id : seeds) {
+        all.addAll(groupIncludeCache.getAllByInclude(id));
       }
+      includes = all;
     }
-
-    return found;
+    return all;
   }
 
   @Override
   public Set<AccountGroup.UUID> getKnownGroups() {
-    findIncludedGroup(Collections.<AccountGroup.UUID>emptySet()); // find all
-    return Sets.newHashSet(includes);
+    return Sets.newHashSet(getIncludes());
   }
 }
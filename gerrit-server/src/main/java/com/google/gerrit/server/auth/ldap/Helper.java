@@ -15,14 +15,17 @@
 package com.google.gerrit.server.auth.ldap;
 
 import com.google.gerrit.common.data.ParameterizedString;
+import com.google.gerrit.lifecycle.LifecycleListener;
 import com.google.gerrit.reviewdb.client.AccountGroup;
 import com.google.gerrit.server.account.AccountException;
 import com.google.gerrit.server.account.GroupCache;
+import com.google.gerrit.server.cache.Cache;
 import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.util.ssl.BlindSSLSocketFactory;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 
 import org.eclipse.jgit.lib.Config;
 
@@ -30,6 +33,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
@@ -47,7 +51,28 @@ import javax.naming.directory.InitialDirContext;
 import javax.net.ssl.SSLSocketFactory;
 
 @Singleton class Helper {
+  static class Lifecycle implements LifecycleListener {
+    private final Helper helper;
+
+    @Inject
+    Lifecycle(final Helper helper) {
+      this.helper = helper;
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+      if (helper.pool != null) {
+        helper.pool.closeIdle();
+      }
+    }
+  }
+
   private final GroupCache groupCache;
+  private final Cache<String, Set<String>> parentGroups;
   private final Config config;
   private final String server;
   private final String username;
@@ -56,10 +81,13 @@ import javax.net.ssl.SSLSocketFactory;
   private final boolean sslVerify;
   private volatile LdapSchema ldapSchema;
   private final String readTimeOutMillis;
+  private final LdapConnectionPool pool;
 
   @Inject
-  Helper(@GerritServerConfig final Config config, final GroupCache groupCache) {
+  Helper(@GerritServerConfig final Config config, final GroupCache groupCache,
+      @Named(LdapModule.PARENT_GROUP_CACHE) final Cache<String, Set<String>> parentGroups) {
     this.groupCache = groupCache;
+    this.parentGroups = parentGroups;
     this.config = config;
     this.server = LdapRealm.required(config, "server");
     this.username = LdapRealm.optional(config, "username");
@@ -74,6 +102,22 @@ import javax.net.ssl.SSLSocketFactory;
     } else {
       readTimeOutMillis = null;
     }
+
+    final int poolSize = config.getInt("ldap", "poolSize", 8);
+    if (0 < poolSize) {
+      pool = new LdapConnectionPool(new LdapConnectionPool.Factory() {
+        @Override
+        public DirContext open() throws NamingException {
+          return openConnection();
+        }
+      }, poolSize, //
+          ConfigUtil.getTimeUnit(config, "ldap", null, "poolMaxWait",
+              TimeUnit.SECONDS.toMillis(30), TimeUnit.MILLISECONDS), //
+          ConfigUtil.getTimeUnit(config, "ldap", null, "poolIdleTimeout",
+              TimeUnit.MINUTES.toMillis(5), TimeUnit.MILLISECONDS));
+    } else {
+      pool = null;
+    }
   }
 
   private Properties createContextProperties() {
@@ -90,7 +134,41 @@ import javax.net.ssl.SSLSocketFactory;
     return env;
   }
 
+  /**
+   * Obtain a connection bound as {@code ldap.username}.
+   * <p>
+   * The connection comes from the pool unless {@code ldap.poolSize} is 0,
+   * and must be passed to {@link #close(DirContext, boolean)} once done.
+   */
   DirContext open() throws NamingException {
+    return pool != null ? pool.borrow() : openConnection();
+  }
+
+  /** Return a connection to the pool, or close it if it is not pooled. */
+  void close(DirContext ctx) {
+    close(ctx, false);
+  }
+
+  /**
+   * Return a connection to the pool, or close it if it is not pooled.
+   *
+   * @param ctx the connection; may be null.
+   * @param broken true if a query on the connection failed; the connection
+   *        is then closed instead of being pooled for reuse.
+   */
+  void close(DirContext ctx, boolean broken) {
+    if (pool != null) {
+      pool.release(ctx, broken);
+    } else if (ctx != null) {
+      try {
+        ctx.close();
+      } catch (NamingException e) {
+        LdapRealm.log.warn("Cannot close LDAP query handle", e);
+      }
+    }
+  }
+
+  private DirContext openConnection() throws NamingException {
     final Properties env = createContextProperties();
     if (username != null) {
       env.put(Context.SECURITY_AUTHENTICATION, "simple");
@@ -215,24 +293,44 @@ import javax.net.ssl.SSLSocketFactory;
     if (groupDNs.add(groupDN) && schema.accountMemberField != null) {
       // Recursively identify the groups it is a member of.
       //
-      try {
-        final Name compositeGroupName = new CompositeName().add(groupDN);
-        final Attribute in =
-            ctx.getAttributes(compositeGroupName).get(schema.accountMemberField);
-        if (in != null) {
-          final NamingEnumeration<?> groups = in.getAll();
-          try {
-            while (groups.hasMore()) {
-              final String nextDN = (String) groups.next();
-              recursivelyExpandGroups(groupDNs, schema, ctx, nextDN);
-            }
-          } catch (PartialResultException e) {
+      for (String nextDN : getParentGroups(schema, ctx, groupDN)) {
+        recursivelyExpandGroups(groupDNs, schema, ctx, nextDN);
+      }
+    }
+  }
+
+  /** Get the groups a group is a direct member of, reading them if needed. */
+  private Set<String> getParentGroups(final LdapSchema schema,
+      final DirContext ctx, final String groupDN) {
+    Set<String> parents = parentGroups.get(groupDN);
+    if (parents != null) {
+      return parents;
+    }
+
+    parents = new LinkedHashSet<String>();
+    try {
+      final Name compositeGroupName = new CompositeName().add(groupDN);
+      final Attribute in =
+          ctx.getAttributes(compositeGroupName,
+              new String[] {schema.accountMemberField}).get(
+              schema.accountMemberField);
+      if (in != null) {
+        final NamingEnumeration<?> groups = in.getAll();
+        try {
+          while (groups.hasMore()) {
+            parents.add((String) groups.next());
           }
+        } catch (PartialResultException e) {
         }
-      } catch (NamingException e) {
-        LdapRealm.log.warn("Could not find group " + groupDN, e);
       }
+    } catch (NamingException e) {
+      LdapRealm.log.warn("Could not find group " + groupDN, e);
+      return parents;
     }
+
+    parents = Collections.unmodifiableSet(parents);
+    parentGroups.put(groupDN, parents);
+    return parents;
   }
 
   class LdapSchema {
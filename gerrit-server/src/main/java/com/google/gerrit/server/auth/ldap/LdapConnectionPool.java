@@ -0,0 +1,219 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.auth.ldap;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+
+/**
+ * Bounded pool of LDAP connections bound as {@code ldap.username}.
+ * <p>
+ * At most {@code maxSize} connections are open at once; callers beyond that
+ * wait up to {@code maxWait} for one to be released. A connection idle for
+ * longer than {@link #HEALTH_CHECK_AFTER} is checked by reading the root
+ * entry before it is reused, and one idle for longer than
+ * {@code idleTimeout} is closed, as directory servers commonly drop idle
+ * clients.
+ */
+class LdapConnectionPool {
+  /** Idle time after which a connection is checked before reuse. */
+  static final long HEALTH_CHECK_AFTER = TimeUnit.SECONDS.toMillis(30);
+
+  /** Attribute list requesting no attributes, per RFC 4511. */
+  private static final String[] NO_ATTRIBUTES = {"1.1"};
+
+  interface Factory {
+    DirContext open() throws NamingException;
+  }
+
+  private static class Idle {
+    final DirContext ctx;
+    final long since;
+
+    Idle(DirContext ctx, long since) {
+      this.ctx = ctx;
+      this.since = since;
+    }
+  }
+
+  private final Factory factory;
+  private final long maxWait;
+  private final long idleTimeout;
+  private final long healthCheckAfter;
+  private final Semaphore permits;
+
+  /** Idle connections, most recently used last. */
+  private final LinkedList<Idle> idle = new LinkedList<Idle>();
+
+  /** Connections currently lent out by {@link #borrow()}. */
+  private final Set<DirContext> active = new HashSet<DirContext>();
+
+  LdapConnectionPool(Factory factory, int maxSize, long maxWait,
+      long idleTimeout) {
+    this(factory, maxSize, maxWait, idleTimeout, HEALTH_CHECK_AFTER);
+  }
+
+  LdapConnectionPool(Factory factory, int maxSize, long maxWait,
+      long idleTimeout, long healthCheckAfter) {
+    this.factory = factory;
+    this.maxWait = maxWait;
+    this.idleTimeout = idleTimeout;
+    this.healthCheckAfter = healthCheckAfter;
+    this.permits = new Semaphore(maxSize, true);
+  }
+
+  /**
+   * Obtain a connection, opening one if none is idle.
+   *
+   * @return the connection; must be passed to
+   *         {@link #release(DirContext, boolean)}.
+   * @throws NamingException the pool is exhausted or no connection can be
+   *         opened.
+   */
+  DirContext borrow() throws NamingException {
+    try {
+      if (!permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+        throw new NamingException("No LDAP connection available after "
+            + maxWait + " ms");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new NamingException("Interrupted waiting for LDAP connection");
+    }
+
+    boolean ok = false;
+    try {
+      DirContext ctx = takeIdle();
+      if (ctx == null) {
+        ctx = factory.open();
+      }
+      synchronized (this) {
+        active.add(ctx);
+      }
+      ok = true;
+      return ctx;
+    } finally {
+      if (!ok) {
+        permits.release();
+      }
+    }
+  }
+
+  /**
+   * Return a connection to the pool.
+   * <p>
+   * Connections not obtained from {@link #borrow()}, such as those bound as
+   * the user logging in, are closed.
+   *
+   * @param ctx the connection; may be null.
+   * @param broken true if an operation on the connection failed; it is
+   *        closed rather than kept for reuse, as the server may have
+   *        dropped it.
+   */
+  void release(DirContext ctx, boolean broken) {
+    if (ctx == null) {
+      return;
+    }
+    final long now = System.currentTimeMillis();
+    final Set<DirContext> expired = new HashSet<DirContext>();
+    synchronized (this) {
+      if (active.remove(ctx)) {
+        if (broken) {
+          expired.add(ctx);
+        } else {
+          idle.addLast(new Idle(ctx, now));
+        }
+        permits.release();
+      } else {
+        expired.add(ctx);
+      }
+      for (Iterator<Idle> i = idle.iterator(); i.hasNext();) {
+        final Idle e = i.next();
+        if (now - e.since < idleTimeout) {
+          break;
+        }
+        i.remove();
+        expired.add(e.ctx);
+      }
+    }
+    for (DirContext e : expired) {
+      close(e);
+    }
+  }
+
+  /** Close all idle connections. */
+  void closeIdle() {
+    final Set<DirContext> all = new HashSet<DirContext>();
+    synchronized (this) {
+      for (Idle e : idle) {
+        all.add(e.ctx);
+      }
+      idle.clear();
+    }
+    for (DirContext e : all) {
+      close(e);
+    }
+  }
+
+  synchronized int getIdleCount() {
+    return idle.size();
+  }
+
+  private DirContext takeIdle() {
+    for (;;) {
+      final Idle e;
+      synchronized (this) {
+        e = idle.pollLast();
+      }
+      if (e == null) {
+        return null;
+      }
+
+      final long age = System.currentTimeMillis() - e.since;
+      if (age < healthCheckAfter) {
+        return e.ctx;
+      }
+      if (age < idleTimeout && isAlive(e.ctx)) {
+        return e.ctx;
+      }
+      close(e.ctx);
+    }
+  }
+
+  private static boolean isAlive(DirContext ctx) {
+    try {
+      ctx.getAttributes("", NO_ATTRIBUTES);
+      return true;
+    } catch (NamingException e) {
+      LdapRealm.log.debug("Discarding stale LDAP connection", e);
+      return false;
+    }
+  }
+
+  private static void close(DirContext ctx) {
+    try {
+      ctx.close();
+    } catch (NamingException e) {
+      LdapRealm.log.warn("Cannot close LDAP query handle", e);
+    }
+  }
+}
@@ -16,6 +16,7 @@ package com.google.gerrit.server.auth.ldap;
 
 import static java.util.concurrent.TimeUnit.HOURS;
 
+import com.google.gerrit.lifecycle.LifecycleModule;
 import com.google.gerrit.reviewdb.client.Account;
 import com.google.gerrit.reviewdb.client.AccountGroup;
 import com.google.gerrit.server.account.Realm;
@@ -29,6 +30,7 @@ import java.util.Set;
 public class LdapModule extends CacheModule {
   static final String USERNAME_CACHE = "ldap_usernames";
   static final String GROUP_CACHE = "ldap_groups";
+  static final String PARENT_GROUP_CACHE = "ldap_groups_byinclude";
 
   @Override
   protected void configure() {
@@ -37,6 +39,10 @@ public class LdapModule extends CacheModule {
     core(groups, GROUP_CACHE).maxAge(1, HOURS) //
         .populateWith(LdapRealm.MemberLoader.class);
 
+    final TypeLiteral<Cache<String, Set<String>>> parentGroups =
+        new TypeLiteral<Cache<String, Set<String>>>() {};
+    core(parentGroups, PARENT_GROUP_CACHE).maxAge(1, HOURS);
+
     final TypeLiteral<Cache<String, Account.Id>> usernames =
         new TypeLiteral<Cache<String, Account.Id>>() {};
     core(usernames, USERNAME_CACHE) //
@@ -44,5 +50,12 @@ public class LdapModule extends CacheModule {
 
     bind(Realm.class).to(LdapRealm.class).in(Scopes.SINGLETON);
     bind(Helper.class);
+
+    install(new LifecycleModule() {
+      @Override
+      protected void configure() {
+        listener().to(Helper.Lifecycle.class);
+      }
+    });
   }
 }
@@ -203,6 +203,7 @@ class LdapRealm implements Realm {
       } else {
         ctx = helper.open();
       }
+      boolean broken = false;
       try {
         final Helper.LdapSchema schema = helper.getSchema(ctx);
         final LdapQuery.Result m = helper.findAccount(schema, ctx, username);
@@ -211,7 +212,7 @@ class LdapRealm implements Realm {
           // We found the user account, but we need to verify
           // the password matches it before we can continue.
           //
-          helper.authenticate(m.getDN(), who.getPassword());
+          helper.close(helper.authenticate(m.getDN(), who.getPassword()));
         }
 
         who.setDisplayName(apply(schema.accountFullName, m));
@@ -236,12 +237,11 @@ class LdapRealm implements Realm {
         //
         membershipCache.put(username, helper.queryForGroups(ctx, username, m));
         return who;
+      } catch (NamingException e) {
+        broken = true;
+        throw e;
       } finally {
-        try {
-          ctx.close();
-        } catch (NamingException e) {
-          log.warn("Cannot close LDAP query handle", e);
-        }
+        helper.close(ctx, broken);
       }
     } catch (NamingException e) {
       log.error("Cannot query LDAP to autenticate user", e);
@@ -288,6 +288,7 @@ class LdapRealm implements Realm {
     out = new HashSet<AccountGroup.ExternalNameKey>();
     try {
       final DirContext ctx = helper.open();
+      boolean broken = false;
       try {
         final LdapSchema schema = helper.getSchema(ctx);
         final ParameterizedString filter =
@@ -301,12 +302,11 @@ class LdapRealm implements Realm {
             out.add(new AccountGroup.ExternalNameKey(res.getDN()));
           }
         }
+      } catch (NamingException e) {
+        broken = true;
+        throw e;
       } finally {
-        try {
-          ctx.close();
-        } catch (NamingException e) {
-          log.warn("Cannot close LDAP query handle", e);
-        }
+        helper.close(ctx, broken);
       }
     } catch (NamingException e) {
       log.warn("Cannot query LDAP for groups matching requested name", e);
@@ -353,14 +353,14 @@ class LdapRealm implements Realm {
     public Set<AccountGroup.UUID> createEntry(final String username)
         throws Exception {
       final DirContext ctx = helper.open();
+      boolean broken = false;
       try {
         return helper.queryForGroups(ctx, username, null);
+      } catch (NamingException e) {
+        broken = true;
+        throw e;
       } finally {
-        try {
-          ctx.close();
-        } catch (NamingException e) {
-          log.warn("Cannot close LDAP query handle", e);
-        }
+        helper.close(ctx, broken);
       }
     }
 
@@ -0,0 +1,69 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fills a cache with entries loaded in bulk, such as at server startup.
+ * <p>
+ * Entries are read from the database before they are put into the cache, so
+ * an entry evicted in between would be replaced by stale data. The owner of
+ * the cache must report its evictions with {@link #evicted(Object)}; keys
+ * evicted between {@link #begin()} and {@link #end()} are removed again once
+ * warming ends, and are loaded normally on their next use.
+ *
+ * @param <K> type of key used to lookup entries in the cache.
+ * @param <V> type of value stored within each cache entry.
+ */
+public class CacheWarmer<K, V> {
+  private final Cache<K, V> cache;
+  private final Set<K> evicted =
+      Collections.newSetFromMap(new ConcurrentHashMap<K, Boolean>());
+  private volatile boolean warming;
+
+  public CacheWarmer(final Cache<K, V> cache) {
+    this.cache = cache;
+  }
+
+  /** Start warming; must be called before the entries are read. */
+  public void begin() {
+    evicted.clear();
+    warming = true;
+  }
+
+  /** Put one element loaded since {@link #begin()} into the cache. */
+  public void put(final K key, final V value) {
+    cache.put(key, value);
+  }
+
+  /** Record that an element was removed from the cache. */
+  public void evicted(final K key) {
+    if (warming) {
+      evicted.add(key);
+    }
+  }
+
+  /** Stop warming, discarding the elements evicted meanwhile. */
+  public void end() {
+    warming = false;
+    for (K key : evicted) {
+      cache.remove(key);
+    }
+    evicted.clear();
+  }
+}
@@ -15,4 +15,6 @@
 package com.google.gerrit.server.events;
 
 public abstract class ChangeEvent {
+  /** Sequence number assigned by the {@link EventJournal}, if enabled. */
+  public Long seq;
 }
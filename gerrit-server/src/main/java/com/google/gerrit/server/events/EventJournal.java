@@ -0,0 +1,419 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.events;
+
+import com.google.gerrit.lifecycle.LifecycleListener;
+import com.google.gerrit.reviewdb.client.Branch;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.eclipse.jgit.lib.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only, on-disk log of the change events fired by the server.
+ * <p>
+ * Each event is given a sequence number one larger than the event before it,
+ * and written as one line to the current segment file of the journal
+ * directory. Segments are named after the sequence number of their first
+ * event, so a reader resuming from a given event can skip directly to the
+ * segment containing it. Whole segments are deleted once the journal grows
+ * past {@code events.journalMaxSize}, or once they are older than
+ * {@code events.journalMaxAge}.
+ * <p>
+ * The journal is disabled unless {@code events.journalDirectory} is set.
+ */
+@Singleton
+public class EventJournal {
+  private static final Logger log = LoggerFactory.getLogger(EventJournal.class);
+
+  private static final String PREFIX = "events-";
+  private static final String SUFFIX = ".log";
+
+  public static class Lifecycle implements LifecycleListener {
+    private final EventJournal journal;
+
+    @Inject
+    Lifecycle(final EventJournal journal) {
+      this.journal = journal;
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+      journal.close();
+    }
+  }
+
+  /** A journaled event, as read back by a {@link Reader}. */
+  public static class Record {
+    private final Header header;
+    private final String event;
+
+    Record(final Header header, final String event) {
+      this.header = header;
+      this.event = event;
+    }
+
+    public long getSequence() {
+      return header.seq;
+    }
+
+    public Project.NameKey getProject() {
+      return new Project.NameKey(header.project);
+    }
+
+    public Branch.NameKey getBranch() {
+      return new Branch.NameKey(getProject(), header.ref);
+    }
+
+    /** @return the change the event is about; null for ref updates. */
+    public Change.Id getChangeId() {
+      return header.change > 0 ? new Change.Id(header.change) : null;
+    }
+
+    /** @return true if the change was a draft when the event was fired. */
+    public boolean isDraft() {
+      return header.draft;
+    }
+
+    /** @return the event, formatted as a single line of JSON. */
+    public String getEvent() {
+      return event;
+    }
+  }
+
+  /** Data needed to check visibility of an event, written before it. */
+  private static class Header {
+    long seq;
+    String project;
+    String ref;
+    int change;
+    boolean draft;
+  }
+
+  private final Gson gson = new Gson();
+  private final File directory;
+  private final long maxSize;
+  private final long maxAge;
+  private final long segmentSize;
+
+  private long lastSequence;
+  private File segment;
+  private OutputStream out;
+  private long segmentLength;
+
+  @Inject
+  EventJournal(final @GerritServerConfig Config cfg, final SitePaths site) {
+    String dir = cfg.getString("events", null, "journalDirectory");
+    directory = dir != null ? site.resolve(dir) : null;
+    maxSize = cfg.getLong("events", null, "journalMaxSize", 64 << 20);
+    maxAge = ConfigUtil.getTimeUnit(cfg, "events", null, "journalMaxAge",
+        TimeUnit.DAYS.toMillis(7), TimeUnit.MILLISECONDS);
+    segmentSize = Math.max(64 << 10, Math.min(4 << 20, maxSize / 4));
+
+    if (directory != null) {
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        log.error("Cannot create event journal " + directory);
+      } else {
+        lastSequence = readLastSequence();
+      }
+    }
+  }
+
+  /** @return true if events are being written to the journal. */
+  public boolean isEnabled() {
+    return directory != null;
+  }
+
+  /** @return sequence number of the most recent event in the journal. */
+  public synchronized long getLastSequence() {
+    return lastSequence;
+  }
+
+  /**
+   * Append an event to the journal, assigning its sequence number.
+   *
+   * @param project project the event belongs to.
+   * @param branch branch whose visibility controls who may see the event.
+   * @param change change the event is about; null for ref updates.
+   * @param draft true if the change is a draft.
+   * @param event the event; its {@code seq} field is set by this method.
+   * @throws IOException the journal could not be written. The event has
+   *         not been journaled, but its sequence number is consumed.
+   */
+  public synchronized void append(Project.NameKey project,
+      Branch.NameKey branch, Change.Id change, boolean draft,
+      ChangeEvent event) throws IOException {
+    final Header h = new Header();
+    h.seq = ++lastSequence;
+    h.project = project.get();
+    h.ref = branch.get();
+    if (change != null) {
+      h.change = change.get();
+      h.draft = draft;
+    }
+    event.seq = h.seq;
+
+    // JSON never contains a raw tab or newline, so one tab separates the
+    // header from the event and one newline terminates the record.
+    final byte[] line = (gson.toJson(h) + "\t" + gson.toJson(event) + "\n")
+        .getBytes("UTF-8");
+
+    if (out == null || segmentSize <= segmentLength) {
+      roll(h.seq);
+    }
+    out.write(line);
+    out.flush();
+    segmentLength += line.length;
+  }
+
+  /**
+   * Open a reader over events in the journal.
+   *
+   * @param after sequence number of the last event the caller has seen; the
+   *        reader starts with the event following it.
+   * @return reader returning the journaled events after {@code after}, up to
+   *         and including the most recent one at the time of this call.
+   */
+  public Reader read(final long after) {
+    final long last = getLastSequence();
+    final List<File> files = new ArrayList<File>();
+    if (isEnabled()) {
+      final File[] all = listSegments();
+      for (int i = 0; i < all.length; i++) {
+        final boolean hasLater = i + 1 < all.length;
+        if (hasLater && firstSequence(all[i + 1]) <= after + 1) {
+          continue; // Everything in this segment precedes the request.
+        }
+        files.add(all[i]);
+      }
+    }
+    return new Reader(files.iterator(), after, last);
+  }
+
+  /** Reads events back from the journal, oldest first. */
+  public class Reader {
+    private final Iterator<File> files;
+    private final long after;
+    private final long last;
+    private BufferedReader in;
+
+    Reader(final Iterator<File> files, final long after, final long last) {
+      this.files = files;
+      this.after = after;
+      this.last = last;
+    }
+
+    /**
+     * @return the next event; null once all events have been read.
+     * @throws IOException a segment of the journal could not be read.
+     */
+    public Record next() throws IOException {
+      for (;;) {
+        if (in == null) {
+          if (!files.hasNext()) {
+            return null;
+          }
+          final File f = files.next();
+          try {
+            in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(f), "UTF-8"));
+          } catch (IOException e) {
+            // Removed by retention since the reader was opened.
+            continue;
+          }
+        }
+
+        final String line = in.readLine();
+        if (line == null) {
+          close();
+          continue;
+        }
+
+        final int tab = line.indexOf('\t');
+        if (tab < 0) {
+          continue;
+        }
+        final Header h;
+        try {
+          h = gson.fromJson(line.substring(0, tab), Header.class);
+        } catch (JsonParseException e) {
+          continue;
+        }
+        if (h == null || h.seq <= after) {
+          continue;
+        }
+        if (last < h.seq) {
+          close();
+          return null;
+        }
+        return new Record(h, line.substring(tab + 1));
+      }
+    }
+
+    public void close() {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          // Nothing was written, ignore the failure.
+        }
+        in = null;
+      }
+    }
+  }
+
+  synchronized void close() {
+    if (out != null) {
+      try {
+        out.close();
+      } catch (IOException e) {
+        log.warn("Cannot close event journal " + segment, e);
+      }
+      out = null;
+    }
+  }
+
+  /** Start a new segment whose first event is {@code seq}. */
+  private void roll(final long seq) throws IOException {
+    close();
+    segment = new File(directory, PREFIX + String.format("%020d", seq) + SUFFIX);
+    out = new FileOutputStream(segment, true);
+    segmentLength = segment.length();
+    prune();
+  }
+
+  /** Delete the oldest segments to stay within size and age limits. */
+  private void prune() {
+    final File[] all = listSegments();
+    long total = 0;
+    for (File f : all) {
+      total += f.length();
+    }
+
+    final long expires = System.currentTimeMillis() - maxAge;
+    for (File f : all) {
+      if (f.equals(segment)) {
+        break;
+      }
+      if (total <= maxSize && expires <= f.lastModified()) {
+        break;
+      }
+      final long len = f.length();
+      if (f.delete()) {
+        total -= len;
+      } else {
+        log.warn("Cannot delete expired event journal segment " + f);
+        break;
+      }
+    }
+  }
+
+  private long readLastSequence() {
+    final File[] all = listSegments();
+    for (int i = all.length - 1; 0 <= i; i--) {
+      long last = 0;
+      try {
+        final BufferedReader in = new BufferedReader(new InputStreamReader(
+            new FileInputStream(all[i]), "UTF-8"));
+        try {
+          String line;
+          while ((line = in.readLine()) != null) {
+            final int tab = line.indexOf('\t');
+            if (0 < tab) {
+              try {
+                Header h = gson.fromJson(line.substring(0, tab), Header.class);
+                if (h != null) {
+                  last = Math.max(last, h.seq);
+                }
+              } catch (JsonParseException e) {
+                // Partial record from a crash; skip it.
+              }
+            }
+          }
+        } finally {
+          in.close();
+        }
+      } catch (IOException e) {
+        log.error("Cannot read event journal segment " + all[i], e);
+      }
+      if (0 < last) {
+        return last;
+      }
+      final long first = firstSequence(all[i]);
+      if (0 < first) {
+        // Segment is empty; the events before it are in older segments, but
+        // the next event must still sort after this segment's name.
+        return first - 1;
+      }
+    }
+    return 0;
+  }
+
+  private File[] listSegments() {
+    final File[] all = directory.listFiles();
+    if (all == null) {
+      return new File[0];
+    }
+    final List<File> r = new ArrayList<File>(all.length);
+    for (File f : all) {
+      if (0 < firstSequence(f)) {
+        r.add(f);
+      }
+    }
+    final File[] sorted = r.toArray(new File[r.size()]);
+    // Names are zero padded, so lexical order is sequence order.
+    Arrays.sort(sorted);
+    return sorted;
+  }
+
+  private static long firstSequence(final File f) {
+    final String n = f.getName();
+    if (n.startsWith(PREFIX) && n.endsWith(SUFFIX)) {
+      try {
+        return Long.parseLong(n.substring(PREFIX.length(),
+            n.length() - SUFFIX.length()));
+      } catch (NumberFormatException e) {
+        return 0;
+      }
+    }
+    return 0;
+  }
+}
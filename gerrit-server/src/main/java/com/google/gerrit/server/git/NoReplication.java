@@ -16,6 +16,9 @@ package com.google.gerrit.server.git;
 
 import com.google.gerrit.reviewdb.client.Project;
 
+import java.util.Collections;
+import java.util.List;
+
 /** A disabled {@link ReplicationQueue}. */
 public final class NoReplication implements ReplicationQueue {
   @Override
@@ -34,4 +37,9 @@ public final class NoReplication implements ReplicationQueue {
   @Override
   public void replicateNewProject(Project.NameKey project, String head) {
   }
+
+  @Override
+  public List<ReplicationStatistics> getStatistics() {
+    return Collections.emptyList();
+  }
 }
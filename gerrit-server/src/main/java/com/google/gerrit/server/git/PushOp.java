@@ -86,6 +86,15 @@ class PushOp implements ProjectRunnable {
    */
   private boolean retrying;
 
+  /** Number of times this push has been rescheduled after a failure. */
+  private int retryCount;
+
+  /** True if scheduled on the bulk pool, behind interactive updates. */
+  private boolean bulk;
+
+  /** When the oldest ref update carried by this operation was queued. */
+  private long queuedAt = System.currentTimeMillis();
+
   private boolean canceled;
 
   @Inject
@@ -110,6 +119,23 @@ class PushOp implements ProjectRunnable {
 
   public void setToRetry() {
     retrying = true;
+    retryCount++;
+  }
+
+  int getRetryCount() {
+    return retryCount;
+  }
+
+  boolean isBulk() {
+    return bulk;
+  }
+
+  void setBulk(final boolean b) {
+    bulk = b;
+  }
+
+  long getQueuedAt() {
+    return queuedAt;
   }
 
   public void cancel() {
@@ -154,6 +180,12 @@ class PushOp implements ProjectRunnable {
     }
   }
 
+  /** Take over the refs and queue age of another operation to the same URI. */
+  void addRefs(final PushOp other) {
+    addRefs(other.getRefs());
+    queuedAt = Math.min(queuedAt, other.queuedAt);
+  }
+
   public void run() {
     PerThreadRequestScope ctx = new PerThreadRequestScope();
     PerThreadRequestScope old = PerThreadRequestScope.set(ctx);
@@ -174,9 +206,14 @@ class PushOp implements ProjectRunnable {
     // It should only verify if it was canceled after calling notifyStarting,
     // since the canceled flag would be set locking the queue.
     if (!canceled) {
+      final long startedAt = System.currentTimeMillis();
+      boolean ok = false;
       try {
         db = repoManager.openRepository(projectName);
-        runImpl();
+        final int refs = runImpl();
+        pool.getStatistics().recordPush(refs,
+            System.currentTimeMillis() - startedAt);
+        ok = true;
       } catch (RepositoryNotFoundException e) {
         log.error("Cannot replicate " + projectName + "; " + e.getMessage());
 
@@ -207,6 +244,10 @@ class PushOp implements ProjectRunnable {
         log.error("Unexpected error during replication to " + uri, e);
 
       } finally {
+        if (!ok) {
+          pool.getStatistics().recordFailure(
+              System.currentTimeMillis() - startedAt);
+        }
         if (db != null) {
           db.close();
         }
@@ -219,7 +260,7 @@ class PushOp implements ProjectRunnable {
     return "push " + uri;
   }
 
-  private void runImpl() throws IOException {
+  private int runImpl() throws IOException {
     final Transport tn = Transport.open(db, uri);
     final PushResult res;
     try {
@@ -232,9 +273,13 @@ class PushOp implements ProjectRunnable {
       }
     }
 
+    int replicated = 0;
     for (final RemoteRefUpdate u : res.getRemoteUpdates()) {
       switch (u.getStatus()) {
         case OK:
+          replicated++;
+          break;
+
         case UP_TO_DATE:
         case NON_EXISTING:
           break;
@@ -261,6 +306,7 @@ class PushOp implements ProjectRunnable {
           break;
       }
     }
+    return replicated;
   }
 
   private PushResult pushVia(final Transport tn) throws IOException,
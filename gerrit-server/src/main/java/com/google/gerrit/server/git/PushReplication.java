@@ -14,6 +14,8 @@
 
 package com.google.gerrit.server.git;
 
+import com.google.gerrit.lifecycle.LifecycleListener;
+import com.google.gerrit.lifecycle.LifecycleModule;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.CurrentUser;
@@ -67,6 +69,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /** Manages automatic replication to remote repositories. */
@@ -74,23 +78,71 @@ import java.util.concurrent.TimeUnit;
 public class PushReplication implements ReplicationQueue {
   static final Logger log = LoggerFactory.getLogger(PushReplication.class);
 
-  public static class Module extends AbstractModule {
+  /** Minutes an unused SSH session to a remote is kept open for reuse. */
+  private static final int SSH_SESSION_IDLE_MINUTES = 5;
+
+  /** Most pushes sharing one SSH session; OpenSSH allows 10 by default. */
+  private static final int SSH_CHANNELS_PER_SESSION = 10;
+
+  public static class Module extends LifecycleModule {
     @Override
     protected void configure() {
       bind(ReplicationQueue.class).to(PushReplication.class);
+      listener().to(SessionReaper.class);
     }
   }
 
-  static {
-    // Install our own factory which always runs in batch mode, as we
-    // have no UI available for interactive prompting.
-    //
-    SshSessionFactory.setInstance(new JschConfigSessionFactory() {
-      @Override
-      protected void configure(OpenSshConfig.Host hc, Session session) {
-        // Default configuration is batch mode.
+  /** Disconnects pooled SSH sessions that are no longer being used. */
+  static class SessionReaper implements LifecycleListener {
+    private final WorkQueue workQueue;
+    private ScheduledFuture<?> task;
+
+    @Inject
+    SessionReaper(final WorkQueue wq) {
+      workQueue = wq;
+    }
+
+    @Override
+    public void start() {
+      task = workQueue.getDefaultQueue().scheduleWithFixedDelay(
+          new Runnable() {
+            @Override
+            public void run() {
+              sessionPool.closeIdle();
+            }
+
+            @Override
+            public String toString() {
+              return "close idle replication SSH sessions";
+            }
+          }, 1, 1, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void stop() {
+      if (task != null) {
+        task.cancel(false);
+        task = null;
       }
-    });
+    }
+  }
+
+  /**
+   * Our own factory, which always runs in batch mode, as we have no UI
+   * available for interactive prompting. Sessions are pooled so that
+   * pushes of many projects to the same mirror reuse an authenticated
+   * connection instead of opening one per push.
+   */
+  private static final SshSessionPool sessionPool = new SshSessionPool(
+      new JschConfigSessionFactory() {
+        @Override
+        protected void configure(OpenSshConfig.Host hc, Session session) {
+          // Default configuration is batch mode.
+        }
+      }, SSH_CHANNELS_PER_SESSION, SSH_SESSION_IDLE_MINUTES, TimeUnit.MINUTES);
+
+  static {
+    SshSessionFactory.setInstance(sessionPool);
   }
 
   private final Injector injector;
@@ -118,6 +170,16 @@ public class PushReplication implements ReplicationQueue {
     return configs.size() > 0;
   }
 
+  @Override
+  public List<ReplicationStatistics> getStatistics() {
+    final List<ReplicationStatistics> r =
+        new ArrayList<ReplicationStatistics>(configs.size());
+    for (final ReplicationConfig cfg : configs) {
+      r.add(cfg.getStatistics());
+    }
+    return r;
+  }
+
   @Override
   public void scheduleFullSync(final Project.NameKey project,
       final String urlMatch) {
@@ -382,12 +444,16 @@ public class PushReplication implements ReplicationQueue {
     private final String[] adminUrls;
     private final int delay;
     private final int retryDelay;
+    private final int maxRetryDelay;
+    private final Random random = new Random();
     private final WorkQueue.Executor pool;
+    private final WorkQueue.Executor bulkPool;
     private final Map<URIish, PushOp> pending = new HashMap<URIish, PushOp>();
     private final PushOp.Factory opFactory;
     private final ProjectControl.Factory projectControlFactory;
     private final GitRepositoryManager mgr;
     private final boolean replicatePermissions;
+    private final ReplicationStatistics stats;
 
     ReplicationConfig(final Injector injector, final WorkQueue workQueue,
         final RemoteConfig rc, final Config cfg, SchemaFactory<ReviewDb> db,
@@ -397,11 +463,19 @@ public class PushReplication implements ReplicationQueue {
       remote = rc;
       delay = Math.max(0, getInt(rc, cfg, "replicationdelay", 15));
       retryDelay = Math.max(0, getInt(rc, cfg, "replicationretry", 1));
+      maxRetryDelay =
+          Math.max(retryDelay, getInt(rc, cfg, "maxreplicationretry", 60));
 
+      // Full syncs run on their own pool so that a large batch of them
+      // cannot delay the replication of refs users just updated.
+      //
       final int poolSize = Math.max(0, getInt(rc, cfg, "threads", 1));
       final String poolName = "ReplicateTo-" + rc.getName();
       pool = workQueue.createQueue(poolSize, poolName);
 
+      final int bulkSize = Math.max(1, getInt(rc, cfg, "bulkthreads", 1));
+      bulkPool = workQueue.createQueue(bulkSize, poolName + "-bulk");
+
       String[] authGroupNames =
           cfg.getStringList("remote", rc.getName(), "authGroup");
       final GroupMembership authGroups;
@@ -416,6 +490,7 @@ public class PushReplication implements ReplicationQueue {
       replicatePermissions = cfg.getBoolean("remote", rc.getName(),
               "replicatePermissions", true);
       mgr = gitRepositoryManager;
+      stats = new ReplicationStatistics(rc.getName());
 
       final ReplicationUser remoteUser =
           replicationUserFactory.create(authGroups);
@@ -494,35 +569,77 @@ public class PushReplication implements ReplicationQueue {
         }
       }
 
+      final boolean bulk = PushOp.ALL_REFS.equals(ref);
       synchronized (pending) {
         PushOp e = pending.get(uri);
-        if (e == null) {
+        if (e != null && e.isBulk() && !bulk && !e.isRetrying()) {
+          // A user is waiting on this ref. Move the project out of the
+          // bulk lane instead of queuing the update behind a full sync.
+          //
+          e.cancel();
+          pending.remove(uri);
+
+          final PushOp bulkOp = e;
           e = opFactory.create(project, uri);
+          e.addRefs(bulkOp);
           pool.schedule(e, delay, TimeUnit.SECONDS);
           pending.put(uri, e);
         }
+        if (e == null) {
+          e = opFactory.create(project, uri);
+          e.setBulk(bulk);
+          executorFor(e).schedule(e, delay, TimeUnit.SECONDS);
+          pending.put(uri, e);
+        }
         e.addRef(ref);
       }
     }
 
+    private WorkQueue.Executor executorFor(final PushOp op) {
+      return op.isBulk() ? bulkPool : pool;
+    }
+
+    /**
+     * Compute the delay before the next attempt of a failed push.
+     * <p>
+     * The delay starts at {@code replicationRetry} minutes and doubles on
+     * each consecutive failure, up to {@code maxReplicationRetry} minutes.
+     * Up to a quarter of the delay is added at random, so that pushes which
+     * failed together because a remote went offline do not all retry at
+     * the same instant.
+     *
+     * @param retryCount number of times the push has failed, at least 1.
+     * @return delay in seconds.
+     */
+    long retryDelaySeconds(final int retryCount) {
+      return backoff(retryCount, retryDelay, maxRetryDelay, random);
+    }
+
+    static long backoff(final int retryCount, final int retryMinutes,
+        final int maxMinutes, final Random random) {
+      final long max = TimeUnit.MINUTES.toSeconds(maxMinutes);
+      long d = TimeUnit.MINUTES.toSeconds(retryMinutes);
+      for (int i = 1; i < retryCount && d < max; i++) {
+        d <<= 1;
+      }
+      d = Math.min(d, max);
+      if (d >= 4) {
+        d += random.nextInt((int) (d / 4) + 1);
+      }
+      return d;
+    }
+
     /**
      * It schedules again a PushOp instance.
      * <p>
      * It is assumed to be previously scheduled and found a
      * transport exception. It will schedule it as a push
-     * operation to be retried after the minutes count
-     * determined by class attribute retryDelay.
-     * <p>
-     * In case the PushOp instance to be scheduled has same
-     * URI than one also pending for retry, it adds to the one
-     * pending the refs list of the parameter instance.
-     * <p>
-     * In case the PushOp instance to be scheduled has same
-     * URI than one pending, but not pending for retry, it
-     * indicates the one pending should be canceled when it
-     * starts executing, removes it from pending list, and
-     * adds its refs to the parameter instance. The parameter
-     * instance is scheduled for retry.
+     * operation to be retried after a delay that grows
+     * with each consecutive failure, see
+     * {@link #retryDelaySeconds(int)}. When another PushOp
+     * is pending for the same URI, see
+     * {@link #mergeFailed(PushOp, PushOp)} for which of the
+     * two carries the refs of both.
      * <p>
      * Notice all operations to indicate a PushOp should be
      * canceled, or it is retrying, or remove/add it from/to
@@ -534,58 +651,61 @@ public class PushReplication implements ReplicationQueue {
     void reschedule(final PushOp pushOp) {
       // It locks access to pending variable.
       synchronized (pending) {
-        URIish uri = pushOp.getURI();
-        PushOp pendingPushOp = pending.get(uri);
-
-        if (pendingPushOp != null) {
-          // There is one PushOp instance already pending to same URI.
-
-          if (pendingPushOp.isRetrying()) {
-            // The one pending is one already retrying, so it should
-            // maintain it and add to it the refs of the one passed
-            // as parameter to the method.
-
-            // This scenario would happen if a PushOp has started running
-            // and then before it failed due transport exception, another
-            // one to same URI started. The first one would fail and would
-            // be rescheduled, being present in pending list. When the
-            // second one fails, it will also be rescheduled and then,
-            // here, find out replication to its URI is already pending
-            // for retry (blocking).
-            pendingPushOp.addRefs(pushOp.getRefs());
-
-          } else {
-            // The one pending is one that is NOT retrying, it was just
-            // scheduled believing no problem would happen. The one pending
-            // should be canceled, and this is done by setting its canceled
-            // flag, removing it from pending list, and adding its refs to
-            // the pushOp instance that should then, later, in this method,
-            // be scheduled for retry.
-
-            // Notice that the PushOp found pending will start running and,
-            // when notifying it is starting (with pending lock protection),
-            // it will see it was canceled and then it will do nothing with
-            // pending list and it will not execute its run implementation.
-
-            pendingPushOp.cancel();
-            pending.remove(uri);
-
-            pushOp.addRefs(pendingPushOp.getRefs());
-          }
-        }
-
-        if (pendingPushOp == null || !pendingPushOp.isRetrying()) {
-          // The PushOp method param instance should be scheduled for retry.
+        final URIish uri = pushOp.getURI();
+        final PushOp retry = mergeFailed(pushOp, pending.get(uri));
+        if (retry != null) {
           // Remember when retrying it should be used different delay.
+          retry.setToRetry();
 
-          pushOp.setToRetry();
-
-          pending.put(uri, pushOp);
-          pool.schedule(pushOp, retryDelay, TimeUnit.MINUTES);
+          pending.put(uri, retry);
+          executorFor(retry).schedule(retry,
+              retryDelaySeconds(retry.getRetryCount()), TimeUnit.SECONDS);
         }
       }
     }
 
+    /**
+     * Combine a failed PushOp with the one pending to the same URI.
+     * <p>
+     * If the one pending is already retrying, it keeps its schedule and
+     * takes over the refs of the failed one.
+     * <p>
+     * This scenario would happen if a PushOp has started running and
+     * then, before it failed due transport exception, another one to
+     * same URI started. The first one would fail and would be
+     * rescheduled. When the second one fails, it finds replication to
+     * its URI already pending for retry.
+     * <p>
+     * If the failed one is a bulk push and the one pending is not, a
+     * user is waiting on the refs of the one pending. It also keeps its
+     * place in the interactive pool and takes over the failed refs,
+     * rather than being pushed into the bulk pool behind the retry
+     * delay, for the same reason {@link #schedule} moves such refs out
+     * of the bulk pool.
+     * <p>
+     * Otherwise the one pending is canceled, and the failed one takes
+     * over its refs and should be scheduled for retry. The canceled one
+     * will see the flag when it starts running, and will do nothing.
+     *
+     * @param failed the PushOp that failed.
+     * @param pendingOp the PushOp pending to the same URI; may be null.
+     * @return the PushOp to schedule for retry; null if
+     *         {@code pendingOp} took over the refs and stays scheduled.
+     */
+    static PushOp mergeFailed(final PushOp failed, final PushOp pendingOp) {
+      if (pendingOp == null) {
+        return failed;
+      }
+      if (pendingOp.isRetrying()
+          || (failed.isBulk() && !pendingOp.isBulk())) {
+        pendingOp.addRefs(failed);
+        return null;
+      }
+      pendingOp.cancel();
+      failed.addRefs(pendingOp);
+      return failed;
+    }
+
     ProjectControl controlFor(final Project.NameKey project)
         throws NoSuchProjectException {
       return projectControlFactory.controlFor(project);
@@ -611,6 +731,21 @@ public class PushReplication implements ReplicationQueue {
       return false;
     }
 
+    ReplicationStatistics getStatistics() {
+      long oldest = 0;
+      int n;
+      synchronized (pending) {
+        n = pending.size();
+        for (final PushOp op : pending.values()) {
+          if (oldest == 0 || op.getQueuedAt() < oldest) {
+            oldest = op.getQueuedAt();
+          }
+        }
+      }
+      stats.setQueue(n, oldest);
+      return stats;
+    }
+
     boolean isReplicatePermissions() {
       return replicatePermissions;
     }
@@ -16,6 +16,8 @@ package com.google.gerrit.server.git;
 
 import com.google.gerrit.reviewdb.client.Project;
 
+import java.util.List;
+
 /** Manages replication to other nodes. */
 public interface ReplicationQueue {
   /** Is replication to one or more other destinations configured? */
@@ -56,4 +58,7 @@ public interface ReplicationQueue {
    * @param head name HEAD should point at (must be {@code refs/heads/...}).
    */
   void replicateNewProject(Project.NameKey project, String head);
+
+  /** @return push statistics for each configured remote. */
+  List<ReplicationStatistics> getStatistics();
 }
@@ -0,0 +1,93 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Running totals of the pushes made to a single replication remote. */
+public class ReplicationStatistics {
+  private final String remoteName;
+  private final AtomicLong pushes = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong refs = new AtomicLong();
+  private final AtomicLong elapsed = new AtomicLong();
+  private volatile int pending;
+  private volatile long oldestQueuedAt;
+
+  ReplicationStatistics(final String remoteName) {
+    this.remoteName = remoteName;
+  }
+
+  void setQueue(final int pendingOps, final long oldest) {
+    pending = pendingOps;
+    oldestQueuedAt = oldest;
+  }
+
+  void recordPush(final int refCount, final long elapsedMillis) {
+    pushes.incrementAndGet();
+    refs.addAndGet(refCount);
+    elapsed.addAndGet(elapsedMillis);
+  }
+
+  void recordFailure(final long elapsedMillis) {
+    failures.incrementAndGet();
+    elapsed.addAndGet(elapsedMillis);
+  }
+
+  /** @return name of the remote block in {@code replication.config}. */
+  public String getRemoteName() {
+    return remoteName;
+  }
+
+  /** @return number of push operations that completed. */
+  public long getPushes() {
+    return pushes.get();
+  }
+
+  /** @return number of push attempts that failed. */
+  public long getFailures() {
+    return failures.get();
+  }
+
+  /** @return number of ref updates sent to the remote. */
+  public long getRefs() {
+    return refs.get();
+  }
+
+  /** @return total wall clock time spent talking to the remote. */
+  public long getElapsedMillis() {
+    return elapsed.get();
+  }
+
+  /** @return number of pushes waiting to start, as of the last snapshot. */
+  public int getPending() {
+    return pending;
+  }
+
+  /**
+   * @return milliseconds the oldest waiting push has been queued for, as of
+   *         the last snapshot; 0 if nothing was waiting.
+   */
+  public long getOldestPendingAge() {
+    final long t = oldestQueuedAt;
+    return t > 0 ? Math.max(0, System.currentTimeMillis() - t) : 0;
+  }
+
+  /** @return average wall clock time per push attempt, in milliseconds. */
+  public long getAverageMillis() {
+    final long n = getPushes() + getFailures();
+    return n > 0 ? getElapsedMillis() / n : 0;
+  }
+}
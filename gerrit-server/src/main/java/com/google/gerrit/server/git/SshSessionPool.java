@@ -0,0 +1,258 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.RemoteSession;
+import org.eclipse.jgit.transport.SshSessionFactory;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.util.FS;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares authenticated SSH sessions between replication pushes.
+ * <p>
+ * JGit opens a new SSH session for every {@code Transport}, so pushing each
+ * project to a mirror costs a full TCP connect, key exchange and user
+ * authentication. A single SSH session can multiplex several exec channels,
+ * so this factory keeps sessions per {@code user@host:port} and hands out
+ * leases on them. A session carries at most {@code maxChannels} leases at
+ * once, as servers limit the channels per session (OpenSSH's
+ * {@code MaxSessions} defaults to 10); further leases open another
+ * session. Releasing a lease only closes the channel; the session itself
+ * is disconnected by {@link #closeIdle()} once it has been idle for longer
+ * than the idle timeout, or when a command fails to start on it.
+ */
+class SshSessionPool extends SshSessionFactory {
+  private static final Logger log = PushReplication.log;
+
+  private final SshSessionFactory delegate;
+  private final int maxChannels;
+  private final long idleTimeout;
+  private final Map<String, List<Entry>> sessions =
+      new HashMap<String, List<Entry>>();
+
+  SshSessionPool(final SshSessionFactory delegate, final int maxChannels,
+      final long idleTimeout, final TimeUnit unit) {
+    this.delegate = delegate;
+    this.maxChannels = Math.max(1, maxChannels);
+    this.idleTimeout = unit.toMillis(idleTimeout);
+  }
+
+  @Override
+  public RemoteSession getSession(URIish uri,
+      CredentialsProvider credentialsProvider, FS fs, int tms)
+      throws TransportException {
+    return new Lease(acquire(uri, credentialsProvider, fs, tms), //
+        uri, credentialsProvider, fs, tms);
+  }
+
+  @Override
+  public void releaseSession(RemoteSession session) {
+    session.disconnect();
+  }
+
+  private Entry acquire(URIish uri, CredentialsProvider credentialsProvider,
+      FS fs, int tms) throws TransportException {
+    final String key = key(uri);
+    synchronized (sessions) {
+      final Entry e = available(key);
+      if (e != null) {
+        e.leases++;
+        e.reused = true;
+        return e;
+      }
+    }
+
+    final RemoteSession session =
+        delegate.getSession(uri, credentialsProvider, fs, tms);
+    Entry e;
+    synchronized (sessions) {
+      e = available(key);
+      if (e == null) {
+        e = new Entry(key, session);
+        List<Entry> l = sessions.get(key);
+        if (l == null) {
+          l = new ArrayList<Entry>(1);
+          sessions.put(key, l);
+        }
+        l.add(e);
+        e.leases++;
+        return e;
+      }
+
+      // Another thread connected concurrently, or released a channel;
+      // use that session instead of keeping a second one.
+      e.leases++;
+      e.reused = true;
+    }
+    delegate.releaseSession(session);
+    return e;
+  }
+
+  /** @return a session to {@code key} with a free channel, or null. */
+  private Entry available(final String key) {
+    final List<Entry> l = sessions.get(key);
+    if (l != null) {
+      for (Entry e : l) {
+        if (e.leases < maxChannels) {
+          return e;
+        }
+      }
+    }
+    return null;
+  }
+
+  /** Disconnect all sessions that have been idle past the timeout. */
+  void closeIdle() {
+    final long now = System.currentTimeMillis();
+    final List<Entry> idle = new ArrayList<Entry>();
+    synchronized (sessions) {
+      for (Iterator<List<Entry>> s = sessions.values().iterator();
+          s.hasNext();) {
+        final List<Entry> l = s.next();
+        for (Iterator<Entry> i = l.iterator(); i.hasNext();) {
+          final Entry e = i.next();
+          if (e.leases == 0 && idleTimeout <= now - e.lastUsed) {
+            i.remove();
+            idle.add(e);
+          }
+        }
+        if (l.isEmpty()) {
+          s.remove();
+        }
+      }
+    }
+    for (Entry e : idle) {
+      close(e);
+    }
+  }
+
+  private void evict(final Entry e) {
+    synchronized (sessions) {
+      final List<Entry> l = sessions.get(e.key);
+      if (l != null && l.remove(e) && l.isEmpty()) {
+        sessions.remove(e.key);
+      }
+      e.evicted = true;
+      if (0 < e.leases) {
+        return;
+      }
+    }
+    close(e);
+  }
+
+  private void release(final Entry e) {
+    boolean close;
+    synchronized (sessions) {
+      e.leases--;
+      e.lastUsed = System.currentTimeMillis();
+      close = e.evicted && e.leases == 0;
+    }
+    if (close) {
+      close(e);
+    }
+  }
+
+  private void close(final Entry e) {
+    try {
+      delegate.releaseSession(e.session);
+    } catch (RuntimeException err) {
+      log.warn("Cannot disconnect SSH session " + e.key, err);
+    }
+  }
+
+  private static String key(final URIish uri) {
+    final StringBuilder r = new StringBuilder();
+    if (uri.getUser() != null) {
+      r.append(uri.getUser()).append('@');
+    }
+    r.append(uri.getHost()).append(':').append(uri.getPort());
+    return r.toString();
+  }
+
+  private static class Entry {
+    final String key;
+    final RemoteSession session;
+    int leases;
+    long lastUsed;
+    boolean evicted;
+    boolean reused;
+
+    Entry(final String key, final RemoteSession session) {
+      this.key = key;
+      this.session = session;
+      this.lastUsed = System.currentTimeMillis();
+    }
+  }
+
+  private class Lease implements RemoteSession {
+    private final URIish uri;
+    private final CredentialsProvider credentialsProvider;
+    private final FS fs;
+    private final int tms;
+    private Entry entry;
+
+    Lease(final Entry e, URIish uri, CredentialsProvider credentialsProvider,
+        FS fs, int tms) {
+      this.entry = e;
+      this.uri = uri;
+      this.credentialsProvider = credentialsProvider;
+      this.fs = fs;
+      this.tms = tms;
+    }
+
+    @Override
+    public Process exec(String commandName, int timeout) throws IOException {
+      if (entry == null) {
+        throw new IOException("SSH session to " + uri + " already released");
+      }
+      try {
+        return entry.session.exec(commandName, timeout);
+      } catch (IOException err) {
+        final Entry e = entry;
+        entry = null;
+        evict(e);
+        release(e);
+        if (!e.reused) {
+          throw err;
+        }
+
+        // The remote side may have dropped a session that sat idle in
+        // the pool. Retry once on a freshly authenticated session.
+        entry = acquire(uri, credentialsProvider, fs, tms);
+        return entry.session.exec(commandName, timeout);
+      }
+    }
+
+    @Override
+    public void disconnect() {
+      final Entry e = entry;
+      if (e != null) {
+        entry = null;
+        release(e);
+      }
+    }
+  }
+}
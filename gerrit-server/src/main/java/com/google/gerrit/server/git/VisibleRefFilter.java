@@ -41,6 +41,13 @@ public class VisibleRefFilter extends AbstractAdvertiseRefsHook {
   private static final Logger log =
       LoggerFactory.getLogger(VisibleRefFilter.class);
 
+  /**
+   * Largest number of changes loaded by primary key. If more changes are
+   * referenced by the refs being filtered, scanning the project's changes
+   * is cheaper than looking up each one.
+   */
+  private static final int MAX_CHANGE_LOOKUPS = 256;
+
   private final TagCache tagCache;
   private final Repository db;
   private final Project.NameKey projectName;
@@ -60,7 +67,7 @@ public class VisibleRefFilter extends AbstractAdvertiseRefsHook {
   }
 
   public Map<String, Ref> filter(Map<String, Ref> refs, boolean filterTagsSeperately) {
-    final Set<Change.Id> visibleChanges = visibleChanges();
+    final Set<Change.Id> visibleChanges = visibleChanges(refs);
     final Map<String, Ref> result = new HashMap<String, Ref>();
     final List<Ref> deferredTags = new ArrayList<Ref>();
 
@@ -114,16 +121,39 @@ public class VisibleRefFilter extends AbstractAdvertiseRefsHook {
     return filter(refs, false);
   }
 
-  private Set<Change.Id> visibleChanges() {
+  private Set<Change.Id> visibleChanges(Map<String, Ref> refs) {
     if (!showChanges) {
       return Collections.emptySet();
     }
 
+    // Only the changes named by the refs being filtered matter. A push
+    // replicating a handful of refs should not scan every change of the
+    // project to decide which of them are visible.
+    //
+    final Set<Change.Id> wanted = new HashSet<Change.Id>();
+    for (String name : refs.keySet()) {
+      if (PatchSet.isRef(name)) {
+        wanted.add(Change.Id.fromRef(name));
+      }
+    }
+    if (wanted.isEmpty()) {
+      return Collections.emptySet();
+    }
+
     final Project project = projectCtl.getProject();
     try {
+      final Iterable<Change> changes;
+      if (wanted.size() <= MAX_CHANGE_LOOKUPS) {
+        changes = reviewDb.changes().get(wanted);
+      } else {
+        changes = reviewDb.changes().byProject(project.getNameKey());
+      }
+
       final Set<Change.Id> visibleChanges = new HashSet<Change.Id>();
-      for (Change change : reviewDb.changes().byProject(project.getNameKey())) {
-        if (projectCtl.controlFor(change).isVisible(reviewDb)) {
+      for (Change change : changes) {
+        if (wanted.contains(change.getId())
+            && project.getNameKey().equals(change.getProject())
+            && projectCtl.controlFor(change).isVisible(reviewDb)) {
           visibleChanges.add(change.getId());
         }
       }
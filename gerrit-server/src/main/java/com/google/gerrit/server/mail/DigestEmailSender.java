@@ -0,0 +1,265 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.mail;
+
+import com.google.gerrit.lifecycle.LifecycleListener;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import org.eclipse.jgit.lib.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Combines the change notifications sent to a recipient during a burst into
+ * a single digest.
+ * <p>
+ * Change emails are held for {@code sendemail.digestWindow} after the first
+ * one of a burst. At the end of the window, a recipient of several held
+ * emails is sent one digest containing all of them, in the order they were
+ * sent. Emails to the other recipients are sent unchanged, once for all of
+ * their recipients. Other email, such as address verification, is passed to
+ * the {@link #DELIVERY} sender immediately.
+ */
+@Singleton
+public class DigestEmailSender implements EmailSender {
+  private static final Logger log =
+      LoggerFactory.getLogger(DigestEmailSender.class);
+
+  /** Name of the {@link EmailSender} binding that delivers the messages. */
+  static final String DELIVERY = "delivery";
+
+  /** Header identifying the emails about a change. */
+  private static final String CHANGE_HEADER = "X-Gerrit-Change-Id";
+
+  /** Most emails combined into one digest; longer bursts send several. */
+  static final int MAX_DIGEST_SIZE = 100;
+
+  private static final String SEPARATOR =
+      "----------------------------------------------------------------------\n";
+
+  static class Lifecycle implements LifecycleListener {
+    private final DigestEmailSender sender;
+
+    @Inject
+    Lifecycle(final DigestEmailSender sender) {
+      this.sender = sender;
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+      sender.flush();
+    }
+  }
+
+  /** An email waiting for the end of the window. */
+  private static class Held {
+    final Address from;
+    final Collection<Address> rcpt;
+    final Map<String, EmailHeader> headers;
+    final String body;
+
+    Held(Address from, Collection<Address> rcpt,
+        Map<String, EmailHeader> headers, String body) {
+      this.from = from;
+      this.rcpt = rcpt;
+      this.headers = headers;
+      this.body = body;
+    }
+
+    String getSubject() {
+      final EmailHeader h = headers.get("Subject");
+      if (h instanceof EmailHeader.String) {
+        return ((EmailHeader.String) h).getString();
+      }
+      return "";
+    }
+  }
+
+  private final EmailSender smtp;
+  private final FromAddressGenerator fromAddressGenerator;
+  private final ScheduledExecutorService queue;
+  private final long window;
+
+  private List<Held> held = new ArrayList<Held>();
+  private boolean scheduled;
+
+  @Inject
+  DigestEmailSender(@GerritServerConfig final Config cfg,
+      @Named(DELIVERY) final EmailSender smtp,
+      final FromAddressGenerator fromAddressGenerator,
+      final WorkQueue workQueue) {
+    this(ConfigUtil.getTimeUnit(cfg, "sendemail", null, "digestWindow", 0,
+        TimeUnit.MILLISECONDS), smtp, fromAddressGenerator,
+        workQueue.getDefaultQueue());
+  }
+
+  DigestEmailSender(final long window, final EmailSender smtp,
+      final FromAddressGenerator fromAddressGenerator,
+      final ScheduledExecutorService queue) {
+    this.window = window;
+    this.smtp = smtp;
+    this.fromAddressGenerator = fromAddressGenerator;
+    this.queue = queue;
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return smtp.isEnabled();
+  }
+
+  @Override
+  public boolean canEmail(String address) {
+    return smtp.canEmail(address);
+  }
+
+  @Override
+  public void send(Address from, Collection<Address> rcpt,
+      Map<String, EmailHeader> headers, String body) throws EmailException {
+    if (window <= 0 || !headers.containsKey(CHANGE_HEADER)) {
+      smtp.send(from, rcpt, headers, body);
+      return;
+    }
+    if (!isEnabled()) {
+      throw new EmailException("Sending email is disabled");
+    }
+
+    final Held h = new Held(from, new ArrayList<Address>(rcpt),
+        new LinkedHashMap<String, EmailHeader>(headers), body);
+    synchronized (this) {
+      held.add(h);
+      if (scheduled) {
+        return;
+      }
+      scheduled = true;
+    }
+    queue.schedule(new Runnable() {
+      @Override
+      public void run() {
+        flush();
+      }
+
+      @Override
+      public String toString() {
+        return "send email digests";
+      }
+    }, window, TimeUnit.MILLISECONDS);
+  }
+
+  /** Send the emails held so far. */
+  void flush() {
+    final List<Held> batch;
+    synchronized (this) {
+      batch = held;
+      held = new ArrayList<Held>();
+      scheduled = false;
+    }
+    if (batch.isEmpty()) {
+      return;
+    }
+
+    final Map<String, Address> addresses = new LinkedHashMap<String, Address>();
+    final Map<String, List<Held>> byRecipient =
+        new LinkedHashMap<String, List<Held>>();
+    for (Held h : batch) {
+      for (Address a : h.rcpt) {
+        List<Held> l = byRecipient.get(a.email);
+        if (l == null) {
+          l = new ArrayList<Held>();
+          byRecipient.put(a.email, l);
+          addresses.put(a.email, a);
+        }
+        l.add(h);
+      }
+    }
+
+    // Held does not override equals, so this is keyed by identity.
+    final Map<Held, List<Address>> unchanged =
+        new LinkedHashMap<Held, List<Address>>();
+    for (Map.Entry<String, List<Held>> e : byRecipient.entrySet()) {
+      final Address to = addresses.get(e.getKey());
+      final List<Held> l = e.getValue();
+      if (l.size() == 1) {
+        List<Address> rcpt = unchanged.get(l.get(0));
+        if (rcpt == null) {
+          rcpt = new ArrayList<Address>();
+          unchanged.put(l.get(0), rcpt);
+        }
+        rcpt.add(to);
+      } else {
+        for (int i = 0; i < l.size(); i += MAX_DIGEST_SIZE) {
+          sendDigest(to, l.subList(i, Math.min(i + MAX_DIGEST_SIZE, l.size())));
+        }
+      }
+    }
+
+    for (Map.Entry<Held, List<Address>> e : unchanged.entrySet()) {
+      final Held h = e.getKey();
+      try {
+        smtp.send(h.from, e.getValue(), h.headers, h.body);
+      } catch (Exception err) {
+        log.error("Cannot send email \"" + h.getSubject() + "\"", err);
+      }
+    }
+  }
+
+  private void sendDigest(Address to, List<Held> emails) {
+    final StringBuilder body = new StringBuilder();
+    for (Held h : emails) {
+      body.append(SEPARATOR);
+      body.append("Subject: ").append(h.getSubject()).append("\n\n");
+      body.append(h.body);
+      if (!h.body.endsWith("\n")) {
+        body.append('\n');
+      }
+      body.append('\n');
+    }
+
+    final Address from = fromAddressGenerator.from(null);
+    final Map<String, EmailHeader> headers =
+        new LinkedHashMap<String, EmailHeader>();
+    headers.put("Date", new EmailHeader.Date(new Date()));
+    headers.put("From", new EmailHeader.AddressList(from));
+    headers.put("To", new EmailHeader.AddressList(to));
+    headers.put("Subject", new EmailHeader.String(
+        "Digest of " + emails.size() + " change notifications"));
+    headers.put("X-Gerrit-MessageType", new EmailHeader.String("digest"));
+
+    final List<Address> rcpt = new ArrayList<Address>(1);
+    rcpt.add(to);
+    try {
+      smtp.send(from, rcpt, headers, body.toString());
+    } catch (Exception err) {
+      log.error("Cannot send email digest to " + to.email, err);
+    }
+  }
+}
@@ -51,6 +51,7 @@ class EmailArguments {
   final Provider<ChangeQueryRewriter> queryRewriter;
   final Provider<ReviewDb> db;
   final RuntimeInstance velocityRuntime;
+  final VelocityTemplateCache velocityTemplates;
 
   @Inject
   EmailArguments(GitRepositoryManager server, ProjectCache projectCache,
@@ -62,7 +63,8 @@ class EmailArguments {
       AllProjectsName allProjectsName,
       ChangeQueryBuilder.Factory queryBuilder,
       Provider<ChangeQueryRewriter> queryRewriter, Provider<ReviewDb> db,
-      RuntimeInstance velocityRuntime) {
+      RuntimeInstance velocityRuntime,
+      VelocityTemplateCache velocityTemplates) {
     this.server = server;
     this.projectCache = projectCache;
     this.groupCache = groupCache;
@@ -78,5 +80,6 @@ class EmailArguments {
     this.queryRewriter = queryRewriter;
     this.db = db;
     this.velocityRuntime = velocityRuntime;
+    this.velocityTemplates = velocityTemplates;
   }
 }
@@ -0,0 +1,260 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.mail;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Directory of email waiting to be delivered to the SMTP server.
+ * <p>
+ * Each message is written to its own file before {@link #add(SmtpMessage)}
+ * returns, and deleted once the server accepted it or rejected it
+ * permanently. Temporary failures, including an unreachable server, are
+ * retried after a delay doubling from {@code sendemail.retryDelay} up to
+ * one hour, until the message is older than {@code sendemail.maxRetryAge}.
+ * If the server deferred only some recipients, the file is rewritten to
+ * list just those before the retry.
+ * Messages left in the directory by a previous run are sent at startup, so
+ * a message may be delivered twice if the server stopped while sending it.
+ */
+class MailSpool {
+  private static final Logger log = LoggerFactory.getLogger(MailSpool.class);
+
+  private static final String SUFFIX = ".msg";
+  private static final long MAX_RETRY_DELAY = TimeUnit.HOURS.toMillis(1);
+
+  private final SmtpEmailSender sender;
+  private final File directory;
+  private final ScheduledExecutorService pool;
+  private final long retryDelay;
+  private final long maxRetryAge;
+  private final MailStatistics stats;
+  private final AtomicLong lastName = new AtomicLong();
+
+  MailSpool(SmtpEmailSender sender, File directory,
+      ScheduledExecutorService pool, long retryDelay, long maxRetryAge,
+      MailStatistics stats) {
+    this.sender = sender;
+    this.directory = directory;
+    this.pool = pool;
+    this.retryDelay = retryDelay;
+    this.maxRetryAge = maxRetryAge;
+    this.stats = stats;
+  }
+
+  /** Schedule delivery of the messages left by a previous run. */
+  void start() {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      log.error("Cannot create mail spool " + directory);
+      return;
+    }
+
+    final File[] files = directory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(SUFFIX);
+      }
+    });
+    if (files == null) {
+      return;
+    }
+    // Names start with the time the message was spooled.
+    Arrays.sort(files);
+    for (File f : files) {
+      try {
+        schedule(new Delivery(f, SmtpMessage.read(f)), 0);
+      } catch (IOException e) {
+        log.error("Cannot read spooled email " + f, e);
+      }
+    }
+  }
+
+  /**
+   * Store a message and schedule its delivery.
+   *
+   * @param msg the message.
+   * @throws EmailException the message cannot be stored.
+   */
+  void add(SmtpMessage msg) throws EmailException {
+    final File file = new File(directory, newName() + SUFFIX);
+    try {
+      store(msg, file);
+    } catch (IOException e) {
+      throw new EmailException("Cannot spool outgoing email", e);
+    }
+    schedule(new Delivery(file, msg), 0);
+  }
+
+  /** Write a message to its spool file, replacing the file atomically. */
+  private void store(SmtpMessage msg, File file) throws IOException {
+    final File tmp = new File(directory, "." + file.getName() + ".tmp");
+    try {
+      msg.write(tmp);
+      if (!tmp.renameTo(file)) {
+        if (!file.delete() || !tmp.renameTo(file)) {
+          throw new IOException("Cannot rename " + tmp + " to " + file);
+        }
+      }
+    } catch (IOException e) {
+      tmp.delete();
+      throw e;
+    }
+    syncDirectory(directory);
+  }
+
+  /**
+   * Force the directory's entries to disk, so a file renamed into it
+   * survives a crash.
+   * <p>
+   * Java 6 offers no way to do this. On Java 7 and later the directory is
+   * opened through {@code FileChannel.open(Path, OpenOption...)} and forced;
+   * on older runtimes, or platforms that cannot open a directory, this does
+   * nothing.
+   */
+  private static void syncDirectory(File dir) throws IOException {
+    final FileChannel fc;
+    try {
+      final Class<?> pathType = Class.forName("java.nio.file.Path");
+      final Class<?> optionType = Class.forName("java.nio.file.OpenOption");
+      final Object options = Array.newInstance(optionType, 1);
+      Array.set(options, 0, Class.forName("java.nio.file.StandardOpenOption")
+          .getField("READ").get(null));
+      final Method open =
+          FileChannel.class.getMethod("open", pathType, options.getClass());
+      final Object path = File.class.getMethod("toPath").invoke(dir);
+      fc = (FileChannel) open.invoke(null, path, options);
+    } catch (InvocationTargetException e) {
+      // The platform cannot open directories, such as Windows.
+      return;
+    } catch (Exception e) {
+      // Java 6.
+      return;
+    }
+    try {
+      fc.force(true);
+    } finally {
+      fc.close();
+    }
+  }
+
+  private String newName() {
+    // Unique and increasing, even if the clock steps back.
+    long now = System.currentTimeMillis();
+    for (;;) {
+      final long last = lastName.get();
+      final long n = Math.max(now, last + 1);
+      if (lastName.compareAndSet(last, n)) {
+        return String.format("%013d", n);
+      }
+    }
+  }
+
+  private void schedule(Delivery d, long delay) {
+    if (delay == 0) {
+      stats.addPending(1);
+    }
+    pool.schedule(d, delay, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @param retryDelay delay before the first retry.
+   * @param attempts number of failed attempts so far.
+   * @return delay before the next attempt, doubling with each attempt up
+   *         to one hour.
+   */
+  static long retryDelay(long retryDelay, int attempts) {
+    final long delay = retryDelay << Math.min(attempts - 1, 20);
+    return Math.min(delay, MAX_RETRY_DELAY);
+  }
+
+  /** @return when a spool file was first written, from its name. */
+  private static long spooledAt(File file) {
+    final String name = file.getName();
+    try {
+      return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return file.lastModified();
+    }
+  }
+
+  private class Delivery implements Runnable {
+    private final File file;
+    private SmtpMessage msg;
+    private int attempts;
+
+    Delivery(File file, SmtpMessage msg) {
+      this.file = file;
+      this.msg = msg;
+    }
+
+    @Override
+    public void run() {
+      attempts++;
+      try {
+        sender.deliver(msg);
+        stats.recordSent();
+      } catch (SmtpEmailSender.TemporaryFailure e) {
+        final List<String> deferred = e.getDeferredRecipients();
+        if (deferred != null) {
+          // Already delivered to the others; retry only these.
+          msg = new SmtpMessage(msg.getSender(), deferred, msg.getData());
+          try {
+            store(msg, file);
+          } catch (IOException err) {
+            log.error("Cannot update spooled email " + file, err);
+          }
+        }
+
+        final long age = System.currentTimeMillis() - spooledAt(file);
+        if (age < maxRetryAge) {
+          log.warn("Cannot send " + msg + ", retrying: " + e.getMessage());
+          stats.recordRetry();
+          pool.schedule(this, retryDelay(retryDelay, attempts),
+              TimeUnit.MILLISECONDS);
+          return;
+        }
+        stats.recordFailure();
+        log.error("Giving up on " + msg + " in " + file, e);
+      } catch (EmailException e) {
+        stats.recordFailure();
+        log.error("Cannot send " + msg + " in " + file, e);
+      }
+
+      stats.addPending(-1);
+      if (!file.delete()) {
+        log.error("Cannot delete spooled email " + file);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "send " + msg;
+    }
+  }
+}
@@ -0,0 +1,72 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.mail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Running totals of the email delivered to the SMTP server. */
+public class MailStatistics {
+  private final AtomicLong sent = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong retries = new AtomicLong();
+  private final AtomicLong connections = new AtomicLong();
+  private final AtomicInteger pending = new AtomicInteger();
+
+  void recordSent() {
+    sent.incrementAndGet();
+  }
+
+  void recordFailure() {
+    failures.incrementAndGet();
+  }
+
+  void recordRetry() {
+    retries.incrementAndGet();
+  }
+
+  void recordConnection() {
+    connections.incrementAndGet();
+  }
+
+  void addPending(final int delta) {
+    pending.addAndGet(delta);
+  }
+
+  /** @return number of messages accepted by the SMTP server. */
+  public long getSent() {
+    return sent.get();
+  }
+
+  /** @return number of messages that could not be delivered. */
+  public long getFailures() {
+    return failures.get();
+  }
+
+  /** @return number of delivery attempts rescheduled after an error. */
+  public long getRetries() {
+    return retries.get();
+  }
+
+  /** @return number of connections opened to the SMTP server. */
+  public long getConnections() {
+    return connections.get();
+  }
+
+  /** @return number of spooled messages waiting to be delivered. */
+  public int getPending() {
+    return pending.get();
+  }
+}
@@ -15,11 +15,15 @@
 package com.google.gerrit.server.mail;
 
 import com.google.gerrit.common.Version;
+import com.google.gerrit.lifecycle.LifecycleListener;
+import com.google.gerrit.lifecycle.LifecycleModule;
 import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.GerritServerConfig;
-import com.google.inject.AbstractModule;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.inject.name.Names;
 
 import org.apache.commons.net.smtp.AuthSMTPClient;
 import org.apache.commons.net.smtp.SMTPClient;
@@ -28,23 +32,102 @@ import org.eclipse.jgit.lib.Config;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
-/** Sends email via a nearby SMTP server. */
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends email via a nearby SMTP server.
+ * <p>
+ * Connections to the server are kept open after a message was sent, and
+ * reused for later messages, so that most messages do not pay for a new
+ * connection, TLS handshake and authentication. If
+ * {@code sendemail.spoolDirectory} is set, messages are written to a
+ * {@link MailSpool} and delivered in the background, with retries, instead
+ * of being sent by the caller.
+ */
 @Singleton
 public class SmtpEmailSender implements EmailSender {
-  public static class Module extends AbstractModule {
+  public static class Module extends LifecycleModule {
     @Override
     protected void configure() {
-      bind(EmailSender.class).to(SmtpEmailSender.class);
+      bind(EmailSender.class).to(DigestEmailSender.class);
+      bind(EmailSender.class)
+          .annotatedWith(Names.named(DigestEmailSender.DELIVERY))
+          .to(SmtpEmailSender.class);
+      listener().to(Lifecycle.class);
+      listener().to(DigestEmailSender.Lifecycle.class);
+    }
+  }
+
+  static class Lifecycle implements LifecycleListener {
+    private final SmtpEmailSender sender;
+
+    @Inject
+    Lifecycle(final SmtpEmailSender sender) {
+      this.sender = sender;
+    }
+
+    @Override
+    public void start() {
+      if (sender.spool != null) {
+        sender.spool.start();
+      }
+    }
+
+    @Override
+    public void stop() {
+      sender.closeIdleSessions();
+    }
+  }
+
+  /** The server refused a message for now, or could not be reached. */
+  static class TemporaryFailure extends EmailException {
+    private static final long serialVersionUID = 1L;
+
+    private transient List<String> deferred;
+
+    TemporaryFailure(String msg) {
+      super(msg);
+    }
+
+    TemporaryFailure(String msg, Throwable why) {
+      super(msg, why);
+    }
+
+    TemporaryFailure(String msg, List<String> deferred) {
+      super(msg);
+      this.deferred = Collections.unmodifiableList(deferred);
+    }
+
+    /**
+     * @return recipients the message must still be sent to, if the server
+     *         refused only some of them; null if it must be sent to all.
+     */
+    List<String> getDeferredRecipients() {
+      return deferred;
+    }
+  }
+
+  /** An open connection to the server, and how much it has been used. */
+  private static class Session {
+    final SMTPClient client;
+    long lastUsed;
+    int messages;
+
+    Session(SMTPClient client) {
+      this.client = client;
     }
   }
 
@@ -64,8 +147,16 @@ public class SmtpEmailSender implements EmailSender {
   private String importance;
   private int expiryDays;
 
+  private final int poolSize;
+  private final long idleTimeout;
+  private final int maxMessagesPerSession;
+  private final LinkedList<Session> idle = new LinkedList<Session>();
+  private final MailStatistics stats = new MailStatistics();
+  private final MailSpool spool;
+
   @Inject
-  SmtpEmailSender(@GerritServerConfig final Config cfg) {
+  SmtpEmailSender(@GerritServerConfig final Config cfg, final SitePaths site,
+      final WorkQueue workQueue) {
     enabled = cfg.getBoolean("sendemail", null, "enable", true);
 
     smtpHost = cfg.getString("sendemail", null, "smtpserver");
@@ -102,6 +193,33 @@ public class SmtpEmailSender implements EmailSender {
     allowrcpt = Collections.unmodifiableSet(rcpt);
     importance = cfg.getString("sendemail", null, "importance");
     expiryDays = cfg.getInt("sendemail", null, "expiryDays", 0);
+
+    poolSize = cfg.getInt("sendemail", null, "connectionPoolSize", 2);
+    idleTimeout = ConfigUtil.getTimeUnit(cfg, "sendemail", null,
+        "connectionIdleTimeout", TimeUnit.MINUTES.toMillis(1),
+        TimeUnit.MILLISECONDS);
+    maxMessagesPerSession =
+        cfg.getInt("sendemail", null, "maxMessagesPerConnection", 100);
+
+    final String dir = cfg.getString("sendemail", null, "spoolDirectory");
+    if (enabled && dir != null) {
+      final int threads =
+          Math.max(1, cfg.getInt("sendemail", null, "threads", 1));
+      spool = new MailSpool(this, site.resolve(dir),
+          workQueue.createQueue(threads, "SendEmail"),
+          ConfigUtil.getTimeUnit(cfg, "sendemail", null, "retryDelay",
+              TimeUnit.MINUTES.toMillis(1), TimeUnit.MILLISECONDS),
+          ConfigUtil.getTimeUnit(cfg, "sendemail", null, "maxRetryAge",
+              TimeUnit.DAYS.toMillis(1), TimeUnit.MILLISECONDS),
+          stats);
+    } else {
+      spool = null;
+    }
+  }
+
+  /** @return totals of the email sent since the server started. */
+  public MailStatistics getStatistics() {
+    return stats;
   }
 
   @Override
@@ -156,63 +274,196 @@ public class SmtpEmailSender implements EmailSender {
         new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z").format(expiry));
     }
 
-    StringBuffer rejected = new StringBuffer();
+    final StringWriter text = new StringWriter();
     try {
-      final SMTPClient client = open();
-      try {
-        if (!client.setSender(from.email)) {
-          throw new EmailException("Server " + smtpHost
-              + " rejected from address " + from.email);
+      final Writer w = new BufferedWriter(text);
+      for (Map.Entry<String, EmailHeader> h : hdrs.entrySet()) {
+        if (!h.getValue().isEmpty()) {
+          w.write(h.getKey());
+          w.write(": ");
+          h.getValue().write(w);
+          w.write("\r\n");
         }
+      }
+      w.write("\r\n");
+      w.write(body);
+      w.flush();
+    } catch (IOException e) {
+      throw new EmailException("Cannot format outgoing email", e);
+    }
 
-        /* Do not prevent the email from being sent to "good" users simply
-         * because some users get rejected.  If not, a single rejected
-         * project watcher could prevent email for most actions on a project
-         * from being sent to any user!  Instead, queue up the errors, and
-         * throw an exception after sending the email to get the rejected
-         * error(s) logged.
-         */
-        for (Address addr : rcpt) {
-          if (!client.addRecipient(addr.email)) {
-            String error = client.getReplyString();
-            rejected.append("Server " + smtpHost + " rejected recipient "
-                + addr + ": " + error);
-          }
-        }
+    final List<String> to = new ArrayList<String>(rcpt.size());
+    for (Address addr : rcpt) {
+      to.add(addr.email);
+    }
+    final SmtpMessage msg = new SmtpMessage(from.email, to, text.toString());
+    if (spool != null) {
+      spool.add(msg);
+    } else {
+      try {
+        deliver(msg);
+      } catch (EmailException e) {
+        stats.recordFailure();
+        throw e;
+      }
+      stats.recordSent();
+    }
+  }
 
-        Writer w = client.sendMessageData();
-        if (w == null) {
-          throw new EmailException("Server " + smtpHost + " rejected body");
-        }
-        w = new BufferedWriter(w);
-
-        for (Map.Entry<String, EmailHeader> h : hdrs.entrySet()) {
-          if (!h.getValue().isEmpty()) {
-            w.write(h.getKey());
-            w.write(": ");
-            h.getValue().write(w);
-            w.write("\r\n");
-          }
+  /**
+   * Send a message over a pooled connection, opening one if none is idle.
+   *
+   * @param msg the message.
+   * @throws TemporaryFailure the server could not be reached, or refused
+   *         the message or some of its recipients with a transient error.
+   *         In the latter case the message was delivered to the recipients
+   *         not listed by {@link TemporaryFailure#getDeferredRecipients()}.
+   * @throws EmailException the server refused the message, or some of its
+   *         recipients. The message was delivered to the other recipients.
+   */
+  void deliver(final SmtpMessage msg) throws EmailException {
+    Session s = borrow();
+    try {
+      transmit(s.client, msg);
+    } catch (IOException e) {
+      close(s);
+      s = null;
+      throw new TemporaryFailure("Cannot send outgoing email", e);
+    } finally {
+      if (s != null) {
+        release(s);
+      }
+    }
+  }
+
+  private void transmit(final SMTPClient client, final SmtpMessage msg)
+      throws EmailException, IOException {
+    if (!client.setSender(msg.getSender())) {
+      throw rejected(client, "Server " + smtpHost
+          + " rejected from address " + msg.getSender());
+    }
+
+    /* Do not prevent the email from being sent to "good" users simply
+     * because some users get rejected.  If not, a single rejected
+     * project watcher could prevent email for most actions on a project
+     * from being sent to any user!  Instead, queue up the errors, and
+     * throw an exception after sending the email to get the rejected
+     * error(s) logged.
+     */
+    final StringBuilder rejected = new StringBuilder();
+    final List<String> deferred = new ArrayList<String>();
+    int accepted = 0;
+    for (String addr : msg.getRecipients()) {
+      if (client.addRecipient(addr)) {
+        accepted++;
+      } else {
+        if (SMTPReply.isNegativeTransient(client.getReplyCode())) {
+          deferred.add(addr);
         }
+        rejected.append("Server " + smtpHost + " rejected recipient "
+            + addr + ": " + client.getReplyString());
+      }
+    }
+    if (accepted == 0 && !msg.getRecipients().isEmpty()) {
+      if (!deferred.isEmpty()) {
+        throw new TemporaryFailure(rejected.toString(), deferred);
+      }
+      throw new EmailException(rejected.toString());
+    }
 
-        w.write("\r\n");
-        w.write(body);
-        w.flush();
-        w.close();
+    Writer w = client.sendMessageData();
+    if (w == null) {
+      throw rejected(client, "Server " + smtpHost + " rejected body");
+    }
+    w = new BufferedWriter(w);
+    w.write(msg.getData());
+    w.flush();
+    w.close();
+
+    if (!client.completePendingCommand()) {
+      throw rejected(client, "Server " + smtpHost + " rejected body");
+    }
+
+    if (!deferred.isEmpty()) {
+      throw new TemporaryFailure(rejected.toString(), deferred);
+    }
+    if (rejected.length() > 0) {
+      throw new EmailException(rejected.toString());
+    }
+  }
 
-        if (!client.completePendingCommand()) {
-          throw new EmailException("Server " + smtpHost + " rejected body");
+  private static EmailException rejected(final SMTPClient client,
+      final String msg) {
+    if (SMTPReply.isNegativeTransient(client.getReplyCode())) {
+      return new TemporaryFailure(msg);
+    }
+    return new EmailException(msg);
+  }
+
+  private Session borrow() throws EmailException {
+    for (;;) {
+      final Session s;
+      synchronized (idle) {
+        s = idle.pollLast();
+      }
+      if (s == null) {
+        stats.recordConnection();
+        return new Session(open());
+      }
+
+      if (System.currentTimeMillis() - s.lastUsed < idleTimeout) {
+        try {
+          // Clears the last transaction, and checks the server is still
+          // there; far cheaper than opening a new connection.
+          if (s.client.reset()) {
+            return s;
+          }
+        } catch (IOException e) {
+          // The server closed the connection; open another one.
         }
+      }
+      close(s);
+    }
+  }
 
-        client.logout();
-        if (rejected.length() > 0) {
-          throw new EmailException(rejected.toString());
+  private void release(final Session s) {
+    s.lastUsed = System.currentTimeMillis();
+    if (++s.messages < maxMessagesPerSession) {
+      synchronized (idle) {
+        if (idle.size() < poolSize) {
+          idle.addLast(s);
+          return;
         }
-      } finally {
-        client.disconnect();
+      }
+    }
+    close(s);
+  }
+
+  private void closeIdleSessions() {
+    for (;;) {
+      final Session s;
+      synchronized (idle) {
+        s = idle.poll();
+      }
+      if (s == null) {
+        break;
+      }
+      close(s);
+    }
+  }
+
+  private static void close(final Session s) {
+    try {
+      if (s.client.isConnected()) {
+        s.client.logout();
       }
     } catch (IOException e) {
-      throw new EmailException("Cannot send outgoing email", e);
+      // The connection is closed anyway.
+    } finally {
+      try {
+        s.client.disconnect();
+      } catch (IOException e) {
+      }
     }
   }
 
@@ -223,6 +474,13 @@ public class SmtpEmailSender implements EmailSender {
     }
   }
 
+  /**
+   * Connect and log in to the server.
+   *
+   * @throws TemporaryFailure the server cannot be reached, or refused the
+   *         connection with a transient error.
+   * @throws EmailException the server refused the connection permanently.
+   */
   private SMTPClient open() throws EmailException {
     final AuthSMTPClient client = new AuthSMTPClient("UTF-8");
 
@@ -233,44 +491,45 @@ public class SmtpEmailSender implements EmailSender {
     try {
       client.connect(smtpHost, smtpPort);
       if (!SMTPReply.isPositiveCompletion(client.getReplyCode())) {
-        throw new EmailException("SMTP server rejected connection");
+        throw rejected(client, "SMTP server rejected connection: "
+            + client.getReplyString());
       }
       if (!client.login()) {
         String e = client.getReplyString();
-        throw new EmailException("SMTP server rejected login: " + e);
+        throw rejected(client, "SMTP server rejected login: " + e);
       }
 
       if (smtpEncryption == Encryption.TLS) {
         if (!client.startTLS(smtpHost, smtpPort, sslVerify)) {
-          throw new EmailException("SMTP server does not support TLS");
+          throw rejected(client, "SMTP server does not support TLS");
         }
         if (!client.login()) {
           String e = client.getReplyString();
-          throw new EmailException("SMTP server rejected login: " + e);
+          throw rejected(client, "SMTP server rejected login: " + e);
         }
       }
 
       if (smtpUser != null && !client.auth(smtpUser, smtpPass)) {
         String e = client.getReplyString();
-        throw new EmailException("SMTP server rejected auth: " + e);
+        throw rejected(client, "SMTP server rejected auth: " + e);
       }
     } catch (IOException e) {
-      if (client.isConnected()) {
-        try {
-          client.disconnect();
-        } catch (IOException e2) {
-        }
-      }
-      throw new EmailException(e.getMessage(), e);
+      disconnect(client);
+      throw new TemporaryFailure("Cannot connect to SMTP server " + smtpHost
+          + ":" + smtpPort + ": " + e.getMessage(), e);
     } catch (EmailException e) {
-      if (client.isConnected()) {
-        try {
-          client.disconnect();
-        } catch (IOException e2) {
-        }
-      }
+      disconnect(client);
       throw e;
     }
     return client;
   }
+
+  private static void disconnect(final SMTPClient client) {
+    if (client.isConnected()) {
+      try {
+        client.disconnect();
+      } catch (IOException e) {
+      }
+    }
+  }
 }
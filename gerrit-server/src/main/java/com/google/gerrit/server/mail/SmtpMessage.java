@@ -0,0 +1,134 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.mail;
+
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.RawParseUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A formatted email ready for delivery: its envelope and its complete text.
+ * <p>
+ * In a spool file the envelope is written first, as the {@code MAIL FROM}
+ * and {@code RCPT TO} commands that will be sent for it, followed by an
+ * empty line and the message text, headers included, exactly as it will be
+ * sent after {@code DATA}.
+ */
+class SmtpMessage {
+  private static final String MAIL_FROM = "MAIL FROM:<";
+  private static final String RCPT_TO = "RCPT TO:<";
+
+  /**
+   * Read a message from a spool file.
+   *
+   * @param file the file to read.
+   * @return the message.
+   * @throws IOException the file cannot be read, or is not a message.
+   */
+  static SmtpMessage read(File file) throws IOException {
+    final String text = RawParseUtils.decode(IO.readFully(file));
+    String sender = null;
+    final List<String> recipients = new ArrayList<String>();
+    int pos = 0;
+    for (;;) {
+      final int eol = text.indexOf('\n', pos);
+      if (eol < 0) {
+        throw new IOException("Truncated message " + file);
+      }
+      final String line = text.substring(pos, eol);
+      pos = eol + 1;
+      if (line.length() == 0) {
+        break;
+      } else if (line.startsWith(MAIL_FROM) && line.endsWith(">")) {
+        sender = line.substring(MAIL_FROM.length(), line.length() - 1);
+      } else if (line.startsWith(RCPT_TO) && line.endsWith(">")) {
+        recipients.add(line.substring(RCPT_TO.length(), line.length() - 1));
+      } else {
+        throw new IOException("Invalid envelope in " + file + ": " + line);
+      }
+    }
+    if (sender == null) {
+      throw new IOException("Missing sender in " + file);
+    }
+    return new SmtpMessage(sender, recipients, text.substring(pos));
+  }
+
+  private final String sender;
+  private final List<String> recipients;
+  private final String data;
+
+  /**
+   * @param sender address of the envelope sender.
+   * @param recipients addresses the message is delivered to.
+   * @param data message text, headers included.
+   */
+  SmtpMessage(String sender, List<String> recipients, String data) {
+    this.sender = sender;
+    this.recipients = Collections.unmodifiableList(recipients);
+    this.data = data;
+  }
+
+  String getSender() {
+    return sender;
+  }
+
+  List<String> getRecipients() {
+    return recipients;
+  }
+
+  String getData() {
+    return data;
+  }
+
+  /**
+   * Write the message to a spool file.
+   *
+   * @param file the file to create; it must not be read before this method
+   *        returns.
+   * @throws IOException the file cannot be written.
+   */
+  void write(File file) throws IOException {
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(encode());
+      out.getFD().sync();
+    } finally {
+      out.close();
+    }
+  }
+
+  private byte[] encode() throws UnsupportedEncodingException {
+    final StringBuilder b = new StringBuilder();
+    b.append(MAIL_FROM).append(sender).append(">\n");
+    for (String r : recipients) {
+      b.append(RCPT_TO).append(r).append(">\n");
+    }
+    b.append('\n');
+    b.append(data);
+    return b.toString().getBytes("UTF-8");
+  }
+
+  @Override
+  public String toString() {
+    return "email to " + recipients.size() + " recipients";
+  }
+}
@@ -47,15 +47,21 @@ public class VelocityRuntimeProvider implements Provider<RuntimeInstance> {
         Slf4jLogChute.class.getName());
     p.setProperty("runtime.log.logsystem.log4j.category", "velocity");
 
+    // Keep parsed templates, rather than parsing them for every email.
+    // Site templates are checked for changes every few seconds, while
+    // the built-in templates cannot change.
     if (site.mail_dir.isDirectory()) {
       p.setProperty(rl, "file, class");
       p.setProperty("file." + rl + ".class", pkg + ".FileResourceLoader");
       p.setProperty("file." + rl + ".path", site.mail_dir.getAbsolutePath());
-      p.setProperty("class." + rl + ".class", pkg + ".ClasspathResourceLoader");
+      p.setProperty("file." + rl + ".cache", "true");
+      p.setProperty("file." + rl + ".modificationCheckInterval", "5");
     } else {
       p.setProperty(rl, "class");
-      p.setProperty("class." + rl + ".class", pkg + ".ClasspathResourceLoader");
     }
+    p.setProperty("class." + rl + ".class", pkg + ".ClasspathResourceLoader");
+    p.setProperty("class." + rl + ".cache", "true");
+    p.setProperty("class." + rl + ".modificationCheckInterval", "0");
 
     RuntimeInstance ri = new RuntimeInstance();
     try {
@@ -0,0 +1,105 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.mail;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.context.Context;
+import org.apache.velocity.context.InternalContextAdapterImpl;
+import org.apache.velocity.runtime.RuntimeInstance;
+import org.apache.velocity.runtime.parser.ParseException;
+import org.apache.velocity.runtime.parser.node.SimpleNode;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Parsed forms of the Velocity templates given to
+ * {@link OutgoingEmail#velocify(String)}.
+ * <p>
+ * Each distinct template text is parsed and initialized once, and the tree
+ * is then rendered for every email using it. This is how Velocity itself
+ * shares a cached {@link org.apache.velocity.Template} between threads:
+ * rendering reads the tree and writes only to the context of the email.
+ */
+@Singleton
+class VelocityTemplateCache {
+  private static final String TEMPLATE_NAME = "OutgoingEmail";
+
+  /** The templates are constants in code; this only guards against leaks. */
+  private static final int MAX_TEMPLATES = 256;
+
+  private final RuntimeInstance runtime;
+  private final ConcurrentMap<String, SimpleNode> trees =
+      new ConcurrentHashMap<String, SimpleNode>();
+
+  @Inject
+  VelocityTemplateCache(final RuntimeInstance runtime) {
+    this.runtime = runtime;
+  }
+
+  /**
+   * Render a template.
+   *
+   * @param template text of the template.
+   * @param context values the template may refer to.
+   * @return the rendered text.
+   * @throws Exception the template is invalid or cannot be rendered.
+   */
+  String render(final String template, final Context context)
+      throws Exception {
+    final SimpleNode tree = get(template);
+    final InternalContextAdapterImpl ica =
+        new InternalContextAdapterImpl(context);
+    ica.pushCurrentTemplateName(TEMPLATE_NAME);
+    try {
+      final StringWriter w = new StringWriter();
+      tree.render(ica, w);
+      return w.toString();
+    } finally {
+      ica.popCurrentTemplateName();
+    }
+  }
+
+  private SimpleNode get(final String template) throws Exception {
+    SimpleNode tree = trees.get(template);
+    if (tree == null) {
+      tree = parse(template);
+      if (MAX_TEMPLATES <= trees.size()) {
+        trees.clear();
+      }
+      trees.put(template, tree);
+    }
+    return tree;
+  }
+
+  private SimpleNode parse(final String template) throws ParseException {
+    final SimpleNode tree =
+        runtime.parse(new StringReader(template), TEMPLATE_NAME);
+    final InternalContextAdapterImpl ica =
+        new InternalContextAdapterImpl(new VelocityContext());
+    ica.pushCurrentTemplateName(TEMPLATE_NAME);
+    try {
+      tree.init(ica, runtime);
+    } finally {
+      ica.popCurrentTemplateName();
+    }
+    return tree;
+  }
+}
@@ -0,0 +1,198 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.mail;
+
+import com.google.gerrit.reviewdb.client.AccountGroup;
+import com.google.gerrit.reviewdb.client.AccountProjectWatch;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.project.ChangeControl;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.gerrit.server.query.OperatorPredicate;
+import com.google.gerrit.server.query.Predicate;
+import com.google.gerrit.server.query.QueryParseException;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.query.change.ChangeQueryBuilder;
+import com.google.gwtorm.server.OrmException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Selects the project watches that match a change.
+ * <p>
+ * Watches are grouped by their filter, so each distinct filter is parsed,
+ * rewritten and matched against the change once, instead of once for every
+ * watcher. Only filters using an operator whose result depends on the
+ * watcher, such as {@code is:starred}, are still evaluated per watcher.
+ * <p>
+ * Whether the change is visible is computed once for each distinct set of
+ * groups the watchers belong to, unless the answer depends on the account
+ * itself: draft changes, and branches with {@code ${username}} permissions.
+ */
+class WatchMatcher {
+  /** Operators of predicates bound to the user the filter was parsed for. */
+  private static final Set<String> USER_OPERATORS =
+      new HashSet<String>(Arrays.asList(
+          ChangeQueryBuilder.FIELD_DRAFTBY,
+          ChangeQueryBuilder.FIELD_STARREDBY,
+          ChangeQueryBuilder.FIELD_VISIBLETO,
+          ChangeQueryBuilder.FIELD_WATCHEDBY));
+
+  private final EmailArguments args;
+  private final Change change;
+  private final ChangeData changeData;
+  private final ProjectState projectState;
+  private final Map<Set<AccountGroup.UUID>, Boolean> visibleByGroups =
+      new HashMap<Set<AccountGroup.UUID>, Boolean>();
+
+  WatchMatcher(EmailArguments args, Change change, ChangeData changeData,
+      ProjectState projectState) {
+    this.args = args;
+    this.change = change;
+    this.changeData = changeData;
+    this.projectState = projectState;
+  }
+
+  /**
+   * @param watches candidate watches.
+   * @return the watches whose filter matches the change, and whose account
+   *         can see the change.
+   */
+  List<AccountProjectWatch> match(List<AccountProjectWatch> watches)
+      throws OrmException {
+    final Map<String, List<AccountProjectWatch>> byFilter =
+        new LinkedHashMap<String, List<AccountProjectWatch>>();
+    for (AccountProjectWatch w : watches) {
+      List<AccountProjectWatch> l = byFilter.get(w.getFilter());
+      if (l == null) {
+        l = new ArrayList<AccountProjectWatch>();
+        byFilter.put(w.getFilter(), l);
+      }
+      l.add(w);
+    }
+
+    final List<AccountProjectWatch> matching =
+        new ArrayList<AccountProjectWatch>();
+    for (Map.Entry<String, List<AccountProjectWatch>> e : byFilter.entrySet()) {
+      final String filter = e.getKey();
+      final List<AccountProjectWatch> group = e.getValue();
+
+      if (filter == null) {
+        addVisible(matching, group);
+        continue;
+      }
+
+      final IdentifiedUser first = user(group.get(0));
+      final Predicate<ChangeData> p;
+      try {
+        p = parse(first, filter);
+      } catch (QueryParseException err) {
+        // Ignore broken filter expressions.
+        continue;
+      }
+
+      if (!isUserSpecific(p)) {
+        if (rewrite(p).match(changeData)) {
+          addVisible(matching, group);
+        }
+        continue;
+      }
+
+      for (int i = 0; i < group.size(); i++) {
+        final AccountProjectWatch w = group.get(i);
+        final IdentifiedUser user = i == 0 ? first : user(w);
+        try {
+          final Predicate<ChangeData> up = i == 0 ? p : parse(user, filter);
+          if (rewrite(up).match(changeData) && isVisible(user)) {
+            matching.add(w);
+          }
+        } catch (QueryParseException err) {
+          // Ignore broken filter expressions.
+        }
+      }
+    }
+    return Collections.unmodifiableList(matching);
+  }
+
+  private void addVisible(List<AccountProjectWatch> matching,
+      List<AccountProjectWatch> group) throws OrmException {
+    for (AccountProjectWatch w : group) {
+      if (isVisible(user(w))) {
+        matching.add(w);
+      }
+    }
+  }
+
+  private IdentifiedUser user(AccountProjectWatch w) {
+    return args.identifiedUserFactory.create(args.db, w.getAccountId());
+  }
+
+  private Predicate<ChangeData> parse(IdentifiedUser user, String filter)
+      throws QueryParseException {
+    final ChangeQueryBuilder qb = args.queryBuilder.create(user);
+    qb.setAllowFile(true);
+    return qb.parse(filter);
+  }
+
+  private Predicate<ChangeData> rewrite(Predicate<ChangeData> p) {
+    return args.queryRewriter.get().rewrite(p);
+  }
+
+  private boolean isVisible(IdentifiedUser user) throws OrmException {
+    if (projectState == null) {
+      return args.queryBuilder.create(user).is_visible().match(changeData);
+    }
+
+    final ChangeControl ctl = projectState.controlFor(user).controlFor(change);
+    if (change.getStatus() == Change.Status.DRAFT
+        || ctl.getRefControl().isUserSpecific()) {
+      return ctl.isVisible(args.db.get());
+    }
+
+    // Group membership follows from the groups an account is a direct
+    // member of, so accounts with the same known groups see the same refs.
+    final Set<AccountGroup.UUID> groups =
+        user.getEffectiveGroups().getKnownGroups();
+    Boolean visible = visibleByGroups.get(groups);
+    if (visible == null) {
+      visible = ctl.isVisible(args.db.get());
+      visibleByGroups.put(groups, visible);
+    }
+    return visible;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static boolean isUserSpecific(Predicate<ChangeData> p) {
+    if (p instanceof OperatorPredicate
+        && USER_OPERATORS.contains(((OperatorPredicate<ChangeData>) p)
+            .getOperator())) {
+      return true;
+    }
+    for (Predicate<ChangeData> c : p.getChildren()) {
+      if (isUserSpecific(c)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
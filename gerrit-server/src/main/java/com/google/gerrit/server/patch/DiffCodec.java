@@ -0,0 +1,488 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.reviewdb.client.CodedEnum;
+import com.google.gerrit.reviewdb.client.Patch.ChangeType;
+import com.google.gerrit.reviewdb.client.Patch.PatchType;
+
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.ReplaceEdit;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary encoding of {@link PatchList} and {@link IntraLineDiff}, as stored
+ * in the {@code diff} and {@code diff_intraline} disk caches.
+ * <p>
+ * An encoding starts with a version byte and a flags byte. Integers are
+ * unsigned varints. Each edit is stored as its distance from the end of the
+ * previous edit plus its length, so most edits take one byte per field. File
+ * names are stored once in a path table, each sharing a prefix with the name
+ * before it, and entries refer to them by index. Payloads of at least
+ * {@link #COMPRESS_THRESHOLD} bytes are deflated; smaller payloads are stored
+ * as is, because inflating them would cost more than it saves.
+ */
+final class DiffCodec {
+  static final int VERSION = 1;
+  static final int COMPRESS_THRESHOLD = 4096;
+
+  private static final int FLAG_DEFLATED = 1;
+
+  /**
+   * Most bytes a deflated byte can inflate to. zlib cannot do better than
+   * about 1032:1, so a larger stored size means the entry is corrupt.
+   */
+  private static final int MAX_INFLATE_RATIO = 1032;
+
+  private static final int LIST_HAS_OLD_ID = 1;
+  private static final int LIST_AGAINST_PARENT = 2;
+
+  static byte[] encode(PatchList list) {
+    final Out out = new Out(256);
+    int flags = 0;
+    if (list.getOldId() != null) {
+      flags |= LIST_HAS_OLD_ID;
+    }
+    if (list.isAgainstParent()) {
+      flags |= LIST_AGAINST_PARENT;
+    }
+    out.write(flags);
+    if (list.getOldId() != null) {
+      out.writeId(list.getOldId());
+    }
+    out.writeId(list.getNewId());
+    out.writeVarInt(list.getInsertions());
+    out.writeVarInt(list.getDeletions());
+
+    final List<PatchListEntry> patches = list.getPatches();
+    final Map<String, Integer> paths = new HashMap<String, Integer>();
+    final List<String> table = new ArrayList<String>();
+    for (PatchListEntry e : patches) {
+      intern(paths, table, e.getNewName());
+      intern(paths, table, e.getOldName());
+    }
+    out.writeVarInt(table.size());
+    String prior = "";
+    for (String p : table) {
+      final int common = commonPrefix(prior, p);
+      out.writeVarInt(common);
+      out.writeBytes(encodeUTF8(p.substring(common)));
+      prior = p;
+    }
+
+    out.writeVarInt(patches.size());
+    for (PatchListEntry e : patches) {
+      out.write(e.getChangeType().getCode());
+      out.write(e.getPatchType().getCode());
+      out.writeVarInt(indexOf(paths, e.getOldName()));
+      out.writeVarInt(indexOf(paths, e.getNewName()));
+      out.writeBytes(e.getRawHeader());
+      out.writeVarInt(e.getInsertions());
+      out.writeVarInt(e.getDeletions());
+      writeEdits(out, e.getEdits());
+    }
+    return out.finish();
+  }
+
+  static PatchList decodePatchList(byte[] buf) throws IOException {
+    final In in = In.open(buf);
+    final int flags = in.read();
+    final ObjectId oldId =
+        (flags & LIST_HAS_OLD_ID) != 0 ? in.readId() : null;
+    final ObjectId newId = in.readId();
+    final int insertions = in.readVarInt();
+    final int deletions = in.readVarInt();
+
+    final String[] table = new String[in.readCount()];
+    String prior = "";
+    for (int i = 0; i < table.length; i++) {
+      final int common = in.readVarInt();
+      if (prior.length() < common) {
+        throw new IOException("Invalid path prefix " + common);
+      }
+      table[i] = prior.substring(0, common) + in.readString();
+      prior = table[i];
+    }
+
+    final PatchListEntry[] patches = new PatchListEntry[in.readCount()];
+    for (int i = 0; i < patches.length; i++) {
+      final ChangeType changeType = decodeEnum(in.read(), ChangeType.values());
+      final PatchType patchType = decodeEnum(in.read(), PatchType.values());
+      final String oldName = path(table, in.readVarInt());
+      final String newName = path(table, in.readVarInt());
+      final byte[] header = in.readBytes();
+      final int ins = in.readVarInt();
+      final int del = in.readVarInt();
+      final List<Edit> edits = readEdits(in);
+      patches[i] = new PatchListEntry(changeType, patchType, oldName, newName,
+          header, edits, ins, del);
+    }
+    return new PatchList(oldId, newId, (flags & LIST_AGAINST_PARENT) != 0,
+        insertions, deletions, patches);
+  }
+
+  static byte[] encode(IntraLineDiff diff) {
+    final Out out = new Out(64);
+    out.write(diff.getStatus().getCode());
+    final List<Edit> edits = diff.getEdits();
+    writeEdits(out, edits);
+
+    // Word edits are character offsets into the whole file, so one cursor
+    // runs over the word edits of all lines.
+    final Cursor cursor = new Cursor();
+    for (Edit e : edits) {
+      if (e instanceof ReplaceEdit) {
+        final List<Edit> inner = ((ReplaceEdit) e).getInternalEdits();
+        out.writeVarInt(inner.size());
+        for (Edit i : inner) {
+          cursor.write(out, i);
+        }
+      } else {
+        out.writeVarInt(0);
+      }
+    }
+    return out.finish();
+  }
+
+  static IntraLineDiff decodeIntraLineDiff(byte[] buf) throws IOException {
+    final In in = In.open(buf);
+    final IntraLineDiff.Status status =
+        decodeEnum(in.read(), IntraLineDiff.Status.values());
+    final List<Edit> outer = readEdits(in);
+    if (status != IntraLineDiff.Status.EDIT_LIST) {
+      return new IntraLineDiff(status);
+    }
+
+    final Edit[] edits = outer.toArray(new Edit[outer.size()]);
+    final Cursor cursor = new Cursor();
+    for (int i = 0; i < edits.length; i++) {
+      final int cnt = in.readCount();
+      if (0 < cnt) {
+        final Edit[] inner = new Edit[cnt];
+        for (int j = 0; j < cnt; j++) {
+          inner[j] = cursor.read(in);
+        }
+        edits[i] = new ReplaceEdit(edits[i], toList(inner));
+      }
+    }
+    return new IntraLineDiff(Arrays.asList(edits));
+  }
+
+  private static void writeEdits(Out out, List<Edit> edits) {
+    out.writeVarInt(edits.size());
+    final Cursor cursor = new Cursor();
+    for (Edit e : edits) {
+      cursor.write(out, e);
+    }
+  }
+
+  private static List<Edit> readEdits(In in) throws IOException {
+    final int cnt = in.readCount();
+    if (cnt == 0) {
+      return Collections.emptyList();
+    }
+    final Edit[] edits = new Edit[cnt];
+    final Cursor cursor = new Cursor();
+    for (int i = 0; i < cnt; i++) {
+      edits[i] = cursor.read(in);
+    }
+    return toList(edits);
+  }
+
+  /** Tracks the end of the previous edit, to store the next one relative. */
+  private static class Cursor {
+    private int endA;
+    private int endB;
+
+    void write(Out out, Edit e) {
+      out.writeVarInt(zigzag(e.getBeginA() - endA));
+      out.writeVarInt(e.getEndA() - e.getBeginA());
+      out.writeVarInt(zigzag(e.getBeginB() - endB));
+      out.writeVarInt(e.getEndB() - e.getBeginB());
+      endA = e.getEndA();
+      endB = e.getEndB();
+    }
+
+    Edit read(In in) throws IOException {
+      final int beginA = endA + unzigzag(in.readVarInt());
+      endA = beginA + in.readVarInt();
+      final int beginB = endB + unzigzag(in.readVarInt());
+      endB = beginB + in.readVarInt();
+      return new Edit(beginA, endA, beginB, endB);
+    }
+
+    private static int zigzag(int n) {
+      return (n << 1) ^ (n >> 31);
+    }
+
+    private static int unzigzag(int n) {
+      return (n >>> 1) ^ -(n & 1);
+    }
+  }
+
+  private static void intern(Map<String, Integer> paths, List<String> table,
+      String path) {
+    if (path != null && !paths.containsKey(path)) {
+      paths.put(path, table.size());
+      table.add(path);
+    }
+  }
+
+  /** @return 1 + index of the path in the table; 0 for null. */
+  private static int indexOf(Map<String, Integer> paths, String path) {
+    return path != null ? 1 + paths.get(path) : 0;
+  }
+
+  private static String path(String[] table, int index) throws IOException {
+    if (index == 0) {
+      return null;
+    } else if (index <= table.length) {
+      return table[index - 1];
+    }
+    throw new IOException("Invalid path index " + index);
+  }
+
+  private static int commonPrefix(String a, String b) {
+    final int max = Math.min(a.length(), b.length());
+    int i = 0;
+    while (i < max && a.charAt(i) == b.charAt(i)) {
+      i++;
+    }
+    if (0 < i && Character.isHighSurrogate(a.charAt(i - 1))) {
+      i--; // Never split a surrogate pair across prefix and suffix.
+    }
+    return i;
+  }
+
+  private static <T extends CodedEnum> T decodeEnum(int code, T[] all)
+      throws IOException {
+    for (T t : all) {
+      if (t.getCode() == code) {
+        return t;
+      }
+    }
+    throw new IOException("Invalid enum " + code + " for " + all[0].getClass());
+  }
+
+  private static List<Edit> toList(Edit[] l) {
+    return Collections.unmodifiableList(Arrays.asList(l));
+  }
+
+  private static byte[] encodeUTF8(String s) {
+    try {
+      return s.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException("JVM lacks UTF-8 encoding", e);
+    }
+  }
+
+  /** Growable output buffer; the first two bytes hold version and flags. */
+  private static class Out {
+    private static final int HEADER = 2;
+
+    private byte[] buf;
+    private int len;
+
+    Out(int size) {
+      buf = new byte[HEADER + size];
+      len = HEADER;
+    }
+
+    void write(int b) {
+      ensure(1);
+      buf[len++] = (byte) b;
+    }
+
+    void writeVarInt(int value) {
+      ensure(5);
+      while ((value & ~0x7F) != 0) {
+        buf[len++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      buf[len++] = (byte) value;
+    }
+
+    void writeBytes(byte[] b) {
+      writeVarInt(b.length);
+      ensure(b.length);
+      System.arraycopy(b, 0, buf, len, b.length);
+      len += b.length;
+    }
+
+    void writeId(AnyObjectId id) {
+      ensure(Constants.OBJECT_ID_LENGTH);
+      id.copyRawTo(buf, len);
+      len += Constants.OBJECT_ID_LENGTH;
+    }
+
+    private void ensure(int n) {
+      if (buf.length < len + n) {
+        buf = Arrays.copyOf(buf, Math.max(2 * buf.length, len + n));
+      }
+    }
+
+    byte[] finish() {
+      final int size = len - HEADER;
+      if (size < COMPRESS_THRESHOLD) {
+        buf[0] = VERSION;
+        buf[1] = 0;
+        return Arrays.copyOf(buf, len);
+      }
+
+      final Out z = new Out(size / 2);
+      z.writeVarInt(size);
+      final Deflater def = new Deflater();
+      try {
+        def.setInput(buf, HEADER, size);
+        def.finish();
+        while (!def.finished()) {
+          z.ensure(1024);
+          z.len += def.deflate(z.buf, z.len, z.buf.length - z.len);
+        }
+      } finally {
+        def.end();
+      }
+      z.buf[0] = VERSION;
+      z.buf[1] = FLAG_DEFLATED;
+      return Arrays.copyOf(z.buf, z.len);
+    }
+  }
+
+  /** Reads a payload produced by {@link Out}. */
+  private static class In {
+    static In open(byte[] buf) throws IOException {
+      if (buf.length < 2) {
+        throw new EOFException();
+      }
+      if (buf[0] != VERSION) {
+        throw new IOException("Unsupported diff encoding " + buf[0]);
+      }
+      if ((buf[1] & FLAG_DEFLATED) == 0) {
+        return new In(buf, 2);
+      }
+
+      final In hdr = new In(buf, 2);
+      final int size = hdr.readVarInt();
+      final long max = (long) MAX_INFLATE_RATIO * (buf.length - hdr.pos);
+      if (size < 0 || max < size) {
+        throw new IOException("Invalid diff encoding size " + size);
+      }
+      final byte[] raw = new byte[size];
+      final Inflater inf = new Inflater();
+      try {
+        inf.setInput(buf, hdr.pos, buf.length - hdr.pos);
+        int n = 0;
+        while (n < raw.length) {
+          final int r = inf.inflate(raw, n, raw.length - n);
+          if (r == 0 && (inf.finished() || inf.needsInput())) {
+            throw new EOFException();
+          }
+          n += r;
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("Corrupt diff encoding", e);
+      } finally {
+        inf.end();
+      }
+      return new In(raw, 0);
+    }
+
+    private final byte[] buf;
+    private int pos;
+
+    private In(byte[] buf, int pos) {
+      this.buf = buf;
+      this.pos = pos;
+    }
+
+    int read() throws IOException {
+      if (buf.length <= pos) {
+        throw new EOFException();
+      }
+      return buf[pos++] & 0xFF;
+    }
+
+    int readVarInt() throws IOException {
+      int result = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+        final int b = read();
+        result |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return result;
+        }
+      }
+      throw new IOException("Invalid varint");
+    }
+
+    /**
+     * Read the length of a list. Every element takes at least one byte, so a
+     * length beyond the remaining input is rejected before it is allocated.
+     */
+    int readCount() throws IOException {
+      final int n = readVarInt();
+      if (n < 0 || buf.length - pos < n) {
+        throw new IOException("Invalid diff encoding count " + n);
+      }
+      return n;
+    }
+
+    byte[] readBytes() throws IOException {
+      final int n = readVarInt();
+      if (n < 0 || buf.length - pos < n) {
+        throw new EOFException();
+      }
+      final byte[] r = Arrays.copyOfRange(buf, pos, pos + n);
+      pos += n;
+      return r;
+    }
+
+    String readString() throws IOException {
+      final int n = readVarInt();
+      if (n < 0 || buf.length - pos < n) {
+        throw new EOFException();
+      }
+      final String s = new String(buf, pos, n, "UTF-8");
+      pos += n;
+      return s;
+    }
+
+    ObjectId readId() throws IOException {
+      if (buf.length - pos < Constants.OBJECT_ID_LENGTH) {
+        throw new EOFException();
+      }
+      final ObjectId id = ObjectId.fromRaw(buf, pos);
+      pos += Constants.OBJECT_ID_LENGTH;
+      return id;
+    }
+  }
+
+  private DiffCodec() {
+  }
+}
@@ -18,6 +18,7 @@ package com.google.gerrit.server.patch;
 import com.google.gerrit.server.cache.EntryCreator;
 import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.inject.Inject;
 
 import org.eclipse.jgit.diff.Edit;
@@ -29,10 +30,12 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Pattern;
 
 class IntraLineLoader extends EntryCreator<IntraLineDiffKey, IntraLineDiff> {
@@ -45,188 +48,171 @@ class IntraLineLoader extends EntryCreator<IntraLineDiffKey, IntraLineDiff> {
   private static final Pattern CONTROL_BLOCK_START_RE = Pattern
       .compile("[{:][ \\t]*$");
 
-  private final BlockingQueue<Worker> workerPool;
+  private final Executor workerPool;
   private final long timeoutMillis;
+  private final IntraLineStatistics stats;
 
   @Inject
-  IntraLineLoader(final @GerritServerConfig Config cfg) {
+  IntraLineLoader(final @GerritServerConfig Config cfg,
+      final WorkQueue workQueue, final IntraLineStatistics stats) {
     final int workers =
-        cfg.getInt("cache", PatchListCacheImpl.INTRA_NAME, "maxIdleWorkers",
-            Runtime.getRuntime().availableProcessors() * 3 / 2);
-    workerPool = new ArrayBlockingQueue<Worker>(workers, true /* fair */);
+        cfg.getInt("cache", PatchListCacheImpl.INTRA_NAME, "workers",
+            cfg.getInt("cache", PatchListCacheImpl.INTRA_NAME,
+                "maxIdleWorkers",
+                Runtime.getRuntime().availableProcessors() * 3 / 2));
+    workerPool = workQueue.createQueue(Math.max(1, workers), "IntraLineDiff");
 
     timeoutMillis =
         ConfigUtil.getTimeUnit(cfg, "cache", PatchListCacheImpl.INTRA_NAME,
             "timeout", TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS),
             TimeUnit.MILLISECONDS);
+    this.stats = stats;
   }
 
   @Override
-  public IntraLineDiff createEntry(IntraLineDiffKey key) throws Exception {
-    Worker w = workerPool.poll();
-    if (w == null) {
-      w = new Worker();
-    }
-
-    Worker.Result r = w.computeWithTimeout(key, timeoutMillis);
-
-    if (r == Worker.Result.TIMEOUT) {
-      // Don't keep this thread. We have to murder it unsafely, which
-      // means its unable to be reused in the future. Return back a
-      // null result, indicating the cache cannot load this key.
-      //
-      return new IntraLineDiff(IntraLineDiff.Status.TIMEOUT);
-    }
-
-    if (!workerPool.offer(w)) {
-      // If the idle worker pool is full, terminate this thread.
-      //
-      w.end();
-    }
+  public IntraLineDiff createEntry(final IntraLineDiffKey key)
+      throws Exception {
+    // The deadline starts now, so time spent waiting for a worker counts
+    // against the timeout. A computation that starts too late gives up
+    // at its first check.
+    //
+    final Deadline deadline =
+        new Deadline(System.currentTimeMillis() + timeoutMillis);
+    final FutureTask<IntraLineDiff> task = new FutureTask<IntraLineDiff>(
+        new Callable<IntraLineDiff>() {
+          @Override
+          public IntraLineDiff call() throws Exception {
+            return compute(key, deadline);
+          }
+        }) {
+      @Override
+      public String toString() {
+        return "intraline " + key.getProject().get() + " " + key.getPath();
+      }
+    };
+    workerPool.execute(task);
+
+    try {
+      IntraLineDiff d = task.get(timeoutMillis, TimeUnit.MILLISECONDS);
+      stats.recordComputed();
+      return d;
+
+    } catch (TimeoutException e) {
+      task.cancel(true);
+      return timeout(key);
+
+    } catch (InterruptedException e) {
+      task.cancel(true);
+      Thread.currentThread().interrupt();
+      throw e;
+
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof DeadlineExceededException) {
+        return timeout(key);
+      }
 
-    if (r.error != null) {
       // If there was an error computing the result, carry it
       // up to the caller so the cache knows this key is invalid.
       //
-      throw r.error;
+      stats.recordFailed();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw e;
     }
-
-    return r.diff;
   }
 
-  private static class Worker {
-    private static final AtomicInteger count = new AtomicInteger(1);
-
-    private final ArrayBlockingQueue<Input> input;
-    private final ArrayBlockingQueue<Result> result;
-    private final Thread thread;
-
-    Worker() {
-      input = new ArrayBlockingQueue<Input>(1);
-      result = new ArrayBlockingQueue<Result>(1);
+  private IntraLineDiff timeout(IntraLineDiffKey key) {
+    stats.recordTimeout();
+    log.warn(timeoutMillis + " ms timeout reached for IntraLineDiff"
+        + " in project " + key.getProject().get() //
+        + " on commit " + key.getCommit().name() //
+        + " for path " + key.getPath() //
+        + " comparing " + key.getBlobA().name() //
+        + ".." + key.getBlobB().name());
+    return new IntraLineDiff(IntraLineDiff.Status.TIMEOUT);
+  }
 
-      thread = new Thread(new Runnable() {
-        public void run() {
-          workerLoop();
-        }
-      });
-      thread.setName("IntraLineDiff-" + count.getAndIncrement());
-      thread.setDaemon(true);
-      thread.start();
-    }
+  /** Time limit checked cooperatively by a running computation. */
+  static class Deadline {
+    /** Number of checks between reads of the clock. */
+    private static final int CLOCK_INTERVAL = 1 << 12;
 
-    Result computeWithTimeout(IntraLineDiffKey key, long timeoutMillis)
-        throws Exception {
-      if (!input.offer(new Input(key))) {
-        log.error("Cannot enqueue task to thread " + thread.getName());
-        return null;
-      }
+    private final long endMillis;
+    private int checks;
 
-      Result r = result.poll(timeoutMillis, TimeUnit.MILLISECONDS);
-      if (r != null) {
-        return r;
-      } else {
-        log.warn(timeoutMillis + " ms timeout reached for IntraLineDiff"
-            + " in project " + key.getProject().get() //
-            + " on commit " + key.getCommit().name() //
-            + " for path " + key.getPath() //
-            + " comparing " + key.getBlobA().name() //
-            + ".." + key.getBlobB().name() //
-            + ".  Killing " + thread.getName());
-        forcefullyKillThreadInAnUglyWay();
-        return Result.TIMEOUT;
-      }
+    Deadline(long endMillis) {
+      this.endMillis = endMillis;
     }
 
-    @SuppressWarnings("deprecation")
-    private void forcefullyKillThreadInAnUglyWay() {
-      try {
-        thread.stop();
-      } catch (Throwable error) {
-        // Ignore any reason the thread won't stop.
-        log.error("Cannot stop runaway thread " + thread.getName(), error);
+    /** @throws DeadlineExceededException the computation must stop now. */
+    void check() {
+      if (++checks % CLOCK_INTERVAL == 0) {
+        checkNow();
       }
     }
 
-    void end() {
-      if (!input.offer(Input.END_THREAD)) {
-        log.error("Cannot gracefully stop thread " + thread.getName());
+    void checkNow() {
+      if (endMillis < System.currentTimeMillis()
+          || Thread.currentThread().isInterrupted()) {
+        throw new DeadlineExceededException();
       }
     }
+  }
 
-    private void workerLoop() {
-      try {
-        for (;;) {
-          Input in;
-          try {
-            in = input.take();
-          } catch (InterruptedException e) {
-            log.error("Unexpected interrupt on " + thread.getName());
-            continue;
-          }
-
-          if (in == Input.END_THREAD) {
-            return;
-          }
-
-          Result r;
-          try {
-            r = new Result(IntraLineLoader.compute(in.key));
-          } catch (Exception error) {
-            r = new Result(error);
-          }
+  /** Thrown inside a computation to unwind it once its time is up. */
+  static class DeadlineExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
 
-          if (!result.offer(r)) {
-            log.error("Cannot return result from " + thread.getName());
-          }
-        }
-      } catch (ThreadDeath iHaveBeenShot) {
-        // Handle thread death by gracefully returning to the caller,
-        // allowing the thread to be destroyed.
-      }
+    DeadlineExceededException() {
+      super("intraline difference timed out");
     }
 
-    private static class Input {
-      static final Input END_THREAD = new Input(null);
-
-      final IntraLineDiffKey key;
-
-      Input(IntraLineDiffKey key) {
-        this.key = key;
-      }
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
     }
+  }
 
-    static class Result {
-      static final Result TIMEOUT = new Result((IntraLineDiff) null);
-
-      final IntraLineDiff diff;
-      final Exception error;
-
-      Result(IntraLineDiff diff) {
-        this.diff = diff;
-        this.error = null;
-      }
+  /**
+   * Comparator checking the deadline on every comparison.
+   * <p>
+   * {@link MyersDiff} compares characters in its innermost loop, so this
+   * bounds how long a single diff can run past the deadline.
+   */
+  private static class DeadlineComparator extends CharTextComparator {
+    private final Deadline deadline;
+
+    DeadlineComparator(Deadline deadline) {
+      this.deadline = deadline;
+    }
 
-      Result(Exception error) {
-        this.diff = null;
-        this.error = error;
-      }
+    @Override
+    public boolean equals(CharText a, int ai, CharText b, int bi) {
+      deadline.check();
+      return super.equals(a, ai, b, bi);
     }
   }
 
-  private static IntraLineDiff compute(IntraLineDiffKey key) throws Exception {
+  static IntraLineDiff compute(IntraLineDiffKey key, Deadline deadline)
+      throws Exception {
+    deadline.checkNow();
     List<Edit> edits = new ArrayList<Edit>(key.getEdits());
     Text aContent = key.getTextA();
     Text bContent = key.getTextB();
-    combineLineEdits(edits, aContent, bContent);
+    combineLineEdits(edits, aContent, bContent, deadline);
 
     for (int i = 0; i < edits.size(); i++) {
       Edit e = edits.get(i);
+      deadline.checkNow();
 
       if (e.getType() == Edit.Type.REPLACE) {
         CharText a = new CharText(aContent, e.getBeginA(), e.getEndA());
         CharText b = new CharText(bContent, e.getBeginB(), e.getEndB());
-        CharTextComparator cmp = new CharTextComparator();
+        CharTextComparator cmp = new DeadlineComparator(deadline);
 
         List<Edit> wordEdits = MyersDiff.INSTANCE.diff(cmp, a, b);
 
@@ -404,8 +390,10 @@ class IntraLineLoader extends EntryCreator<IntraLineDiffKey, IntraLineDiff> {
     return new IntraLineDiff(edits);
   }
 
-  private static void combineLineEdits(List<Edit> edits, Text a, Text b) {
+  private static void combineLineEdits(List<Edit> edits, Text a, Text b,
+      Deadline deadline) {
     for (int j = 0; j < edits.size() - 1;) {
+      deadline.check();
       Edit c = edits.get(j);
       Edit n = edits.get(j + 1);
 
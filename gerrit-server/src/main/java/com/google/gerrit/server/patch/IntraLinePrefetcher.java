@@ -0,0 +1,207 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.reviewdb.client.Patch;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes the intraline differences of all files of a patch set in the
+ * background.
+ * <p>
+ * The web UI asks for the intraline difference of one file at a time, as the
+ * user moves through the files of a change. When a change is opened, the
+ * differences of all its files are loaded into the {@code diff_intraline}
+ * cache ahead of time, so each file opens without waiting for the
+ * computation.
+ */
+@Singleton
+public class IntraLinePrefetcher {
+  private static final Logger log =
+      LoggerFactory.getLogger(IntraLinePrefetcher.class);
+
+  /** Number of recently prefetched patch lists to remember. */
+  private static final int MAX_RECENT = 256;
+
+  /** Number of patch lists allowed to wait for a prefetch thread. */
+  private static final int MAX_PENDING = 64;
+
+  private final GitRepositoryManager repoManager;
+  private final PatchListCache patchListCache;
+  private final Executor executor;
+  private final AtomicInteger pending = new AtomicInteger();
+
+  private final Map<String, Boolean> recent =
+      new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> e) {
+          return MAX_RECENT < size();
+        }
+      };
+
+  @Inject
+  IntraLinePrefetcher(@GerritServerConfig Config cfg,
+      GitRepositoryManager repoManager, PatchListCache patchListCache,
+      WorkQueue workQueue) {
+    this.repoManager = repoManager;
+    this.patchListCache = patchListCache;
+
+    final String name = PatchListCacheImpl.INTRA_NAME;
+    final boolean enabled = cfg.getBoolean("cache", name, "enabled",
+        cfg.getBoolean("cache", "diff", "intraline", true));
+    final int threads = cfg.getInt("cache", name, "prefetchThreads", 1);
+    if (enabled && 0 < threads) {
+      executor = workQueue.createQueue(threads, "IntraLinePrefetch");
+    } else {
+      executor = null;
+    }
+  }
+
+  /**
+   * Schedule computation of the intraline differences of a patch list.
+   * <p>
+   * Lists already prefetched recently are skipped, as are all requests while
+   * the prefetch threads are too far behind.
+   *
+   * @param project project the commits of the list belong to.
+   * @param list files whose differences should be computed.
+   */
+  public void prefetch(final Project.NameKey project, final PatchList list) {
+    if (executor == null || list.getOldId() == null) {
+      return;
+    }
+
+    final String id = list.getOldId().name() + ".." + list.getNewId().name();
+    synchronized (recent) {
+      if (recent.put(id, Boolean.TRUE) != null) {
+        return;
+      }
+    }
+    if (MAX_PENDING <= pending.get()) {
+      synchronized (recent) {
+        recent.remove(id);
+      }
+      return;
+    }
+
+    pending.incrementAndGet();
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        pending.decrementAndGet();
+        try {
+          load(project, list);
+        } catch (IOException e) {
+          log.warn("Cannot prefetch intraline difference for " + project, e);
+        }
+      }
+
+      @Override
+      public String toString() {
+        return "prefetch intraline " + project.get() + " " + id;
+      }
+    });
+  }
+
+  private void load(Project.NameKey project, PatchList list)
+      throws IOException {
+    final Repository git = repoManager.openRepository(project);
+    try {
+      final ObjectReader reader = git.newObjectReader();
+      try {
+        final RevWalk rw = new RevWalk(reader);
+        final RevTree aTree = rw.parseTree(list.getOldId());
+        final RevTree bTree = rw.parseTree(list.getNewId());
+
+        for (PatchListEntry e : list.getPatches()) {
+          if (!isTextModify(e)) {
+            continue;
+          }
+          final String aPath =
+              e.getOldName() != null ? e.getOldName() : e.getNewName();
+          final ObjectId a = find(reader, aTree, aPath);
+          final ObjectId b = find(reader, bTree, e.getNewName());
+          if (a == null || b == null || a.equals(b)) {
+            continue;
+          }
+
+          try {
+            patchListCache.getIntraLineDiff(new IntraLineDiffKey( //
+                a, new Text(reader.open(a, Constants.OBJ_BLOB)), //
+                b, new Text(reader.open(b, Constants.OBJ_BLOB)), //
+                e.getEdits(), project, list.getNewId(), e.getNewName()));
+          } catch (LargeObjectException tooBig) {
+            // The UI cannot show this file either; skip it.
+          }
+        }
+      } finally {
+        reader.release();
+      }
+    } finally {
+      git.close();
+    }
+  }
+
+  private static boolean isTextModify(PatchListEntry e) {
+    if (Patch.COMMIT_MSG.equals(e.getNewName())
+        || e.getPatchType() != Patch.PatchType.UNIFIED
+        || e.getEdits().isEmpty()) {
+      return false;
+    }
+    switch (e.getChangeType()) {
+      case MODIFIED:
+      case COPIED:
+      case RENAMED:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static ObjectId find(ObjectReader reader, RevTree tree, String path)
+      throws IOException {
+    final TreeWalk tw = TreeWalk.forPath(reader, path, tree);
+    if (tw == null
+        || tw.getFileMode(0).getObjectType() != Constants.OBJ_BLOB) {
+      return null;
+    }
+    return tw.getObjectId(0);
+  }
+}
@@ -0,0 +1,54 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.inject.Singleton;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Running totals of intraline difference computations. */
+@Singleton
+public class IntraLineStatistics {
+  private final AtomicLong computed = new AtomicLong();
+  private final AtomicLong timeouts = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+  void recordComputed() {
+    computed.incrementAndGet();
+  }
+
+  void recordTimeout() {
+    timeouts.incrementAndGet();
+  }
+
+  void recordFailed() {
+    failed.incrementAndGet();
+  }
+
+  /** @return number of differences computed within the timeout. */
+  public long getComputed() {
+    return computed.get();
+  }
+
+  /** @return number of computations abandoned at the timeout. */
+  public long getTimeouts() {
+    return timeouts.get();
+  }
+
+  /** @return number of computations that failed with an error. */
+  public long getFailed() {
+    return failed.get();
+  }
+}
@@ -16,13 +16,7 @@ package com.google.gerrit.server.patch;
 
 
 import static com.google.gerrit.server.ioutil.BasicSerialization.readBytes;
-import static com.google.gerrit.server.ioutil.BasicSerialization.readVarInt32;
 import static com.google.gerrit.server.ioutil.BasicSerialization.writeBytes;
-import static com.google.gerrit.server.ioutil.BasicSerialization.writeVarInt32;
-import static org.eclipse.jgit.lib.ObjectIdSerialization.readCanBeNull;
-import static org.eclipse.jgit.lib.ObjectIdSerialization.readNotNull;
-import static org.eclipse.jgit.lib.ObjectIdSerialization.writeCanBeNull;
-import static org.eclipse.jgit.lib.ObjectIdSerialization.writeNotNull;
 
 import com.google.gerrit.reviewdb.client.Patch;
 import com.google.gerrit.reviewdb.client.PatchSet;
@@ -30,8 +24,6 @@ import com.google.gerrit.reviewdb.client.PatchSet;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.ObjectId;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -41,8 +33,6 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.InflaterInputStream;
 
 import javax.annotation.Nullable;
 
@@ -82,6 +72,18 @@ public class PatchList implements Serializable {
     this.patches = patches;
   }
 
+  /** Restore a list read by {@link DiffCodec}; patches are already sorted. */
+  PatchList(@Nullable final ObjectId oldId, final ObjectId newId,
+      final boolean againstParent, final int insertions, final int deletions,
+      final PatchListEntry[] patches) {
+    this.oldId = oldId;
+    this.newId = newId;
+    this.againstParent = againstParent;
+    this.insertions = insertions;
+    this.deletions = deletions;
+    this.patches = patches;
+  }
+
   /** Old side tree or commit; null only if this is a combined diff. */
   @Nullable
   public ObjectId getOldId() {
@@ -162,41 +164,16 @@ public class PatchList implements Serializable {
   }
 
   private void writeObject(final ObjectOutputStream output) throws IOException {
-    final ByteArrayOutputStream buf = new ByteArrayOutputStream();
-    final DeflaterOutputStream out = new DeflaterOutputStream(buf);
-    try {
-      writeCanBeNull(out, oldId);
-      writeNotNull(out, newId);
-      writeVarInt32(out, againstParent ? 1 : 0);
-      writeVarInt32(out, insertions);
-      writeVarInt32(out, deletions);
-      writeVarInt32(out, patches.length);
-      for (PatchListEntry p : patches) {
-        p.writeTo(out);
-      }
-    } finally {
-      out.close();
-    }
-    writeBytes(output, buf.toByteArray());
+    writeBytes(output, DiffCodec.encode(this));
   }
 
   private void readObject(final ObjectInputStream input) throws IOException {
-    final ByteArrayInputStream buf = new ByteArrayInputStream(readBytes(input));
-    final InflaterInputStream in = new InflaterInputStream(buf);
-    try {
-      oldId = readCanBeNull(in);
-      newId = readNotNull(in);
-      againstParent = readVarInt32(in) != 0;
-      insertions = readVarInt32(in);
-      deletions = readVarInt32(in);
-      final int cnt = readVarInt32(in);
-      final PatchListEntry[] all = new PatchListEntry[cnt];
-      for (int i = 0; i < all.length; i++) {
-        all[i] = PatchListEntry.readFrom(in);
-      }
-      patches = all;
-    } finally {
-      in.close();
-    }
+    final PatchList r = DiffCodec.decodePatchList(readBytes(input));
+    oldId = r.oldId;
+    newId = r.newId;
+    againstParent = r.againstParent;
+    insertions = r.insertions;
+    deletions = r.deletions;
+    patches = r.patches;
   }
 }
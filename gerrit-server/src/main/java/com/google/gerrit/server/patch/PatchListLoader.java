@@ -18,7 +18,9 @@ package com.google.gerrit.server.patch;
 import com.google.gerrit.reviewdb.client.Patch;
 import com.google.gerrit.reviewdb.client.AccountDiffPreference.Whitespace;
 import com.google.gerrit.server.cache.EntryCreator;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.inject.Inject;
 
 import org.eclipse.jgit.diff.DiffEntry;
@@ -32,6 +34,7 @@ import org.eclipse.jgit.diff.Sequence;
 import org.eclipse.jgit.dircache.DirCache;
 import org.eclipse.jgit.dircache.DirCacheBuilder;
 import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
@@ -61,13 +64,31 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class PatchListLoader extends EntryCreator<PatchListKey, PatchList> {
+  /** Fewer modified files than this are always diffed by the caller alone. */
+  private static final int PARALLEL_THRESHOLD = 64;
+
   private final GitRepositoryManager repoManager;
+  private final Executor diffExecutor;
+  private final int diffThreads;
+  private final int renameLimit;
 
   @Inject
-  PatchListLoader(GitRepositoryManager mgr) {
+  PatchListLoader(GitRepositoryManager mgr, @GerritServerConfig Config cfg,
+      WorkQueue workQueue) {
     repoManager = mgr;
+    renameLimit = cfg.getInt("cache", "diff", "renameLimit", -1);
+
+    final int cpus = Runtime.getRuntime().availableProcessors();
+    diffThreads = cfg.getInt("cache", "diff", "threads", cpus);
+    if (1 < diffThreads) {
+      diffExecutor = workQueue.createQueue(diffThreads - 1, "PatchListDiff");
+    } else {
+      diffExecutor = null;
+    }
   }
 
   @Override
@@ -140,25 +161,179 @@ class PatchListLoader extends EntryCreator<PatchListKey, PatchList> {
       walk.setFilter(TreeFilter.ANY_DIFF);
 
       DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE);
-      df.setRepository(repo);
-      df.setDiffComparator(cmp);
-      df.setDetectRenames(true);
-      List<DiffEntry> diffEntries = df.scan(aTree, bTree);
-
-      final int cnt = diffEntries.size();
-      final PatchListEntry[] entries = new PatchListEntry[1 + cnt];
-      entries[0] = newCommitMessage(cmp, repo, reader, //
-          againstParent ? null : aCommit, b);
-      for (int i = 0; i < cnt; i++) {
-        FileHeader fh = df.toFileHeader(diffEntries.get(i));
-        entries[1 + i] = newEntry(aTree, fh);
+      try {
+        df.setRepository(repo);
+        df.setDiffComparator(cmp);
+        df.setDetectRenames(true);
+        if (0 <= renameLimit) {
+          df.getRenameDetector().setRenameLimit(renameLimit);
+        }
+        List<DiffEntry> diffEntries = df.scan(aTree, bTree);
+
+        final int cnt = diffEntries.size();
+        final PatchListEntry[] entries = new PatchListEntry[1 + cnt];
+        entries[0] = newCommitMessage(cmp, repo, reader, //
+            againstParent ? null : aCommit, b);
+        if (diffExecutor != null && PARALLEL_THRESHOLD <= cnt) {
+          new ParallelDiff(key, repo, cmp, aTree, diffEntries, entries)
+              .run(df);
+        } else {
+          for (int i = 0; i < cnt; i++) {
+            FileHeader fh = df.toFileHeader(diffEntries.get(i));
+            entries[1 + i] = newEntry(aTree, fh);
+          }
+        }
+        return new PatchList(a, b, againstParent, entries);
+      } finally {
+        df.release();
       }
-      return new PatchList(a, b, againstParent, entries);
     } finally {
       reader.release();
     }
   }
 
+  /**
+   * Computes the file differences of one patch list on several threads.
+   * <p>
+   * Rename detection has already been done by the caller, so each file can be
+   * diffed on its own. The calling thread takes part in the work, and helpers
+   * are queued on {@code PatchListDiff}; a helper that only starts once all
+   * files have been claimed exits at once. The caller never waits for a
+   * helper that has not claimed a file, so a busy pool cannot stall it.
+   * <p>
+   * Helpers share the caller's repository, which is closed once the caller
+   * returns. Before returning, even when interrupted, the caller therefore
+   * stops helpers from claiming more files or starting at all, and waits for
+   * those still working to finish their current file.
+   */
+  private class ParallelDiff {
+    private final PatchListKey key;
+    private final Repository repo;
+    private final RawTextComparator cmp;
+    private final RevTree aTree;
+    private final List<DiffEntry> diffEntries;
+    private final PatchListEntry[] entries;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile boolean stopped;
+    private int active;
+    private int completed;
+    private IOException error;
+
+    ParallelDiff(PatchListKey key, Repository repo, RawTextComparator cmp,
+        RevTree aTree, List<DiffEntry> diffEntries, PatchListEntry[] entries) {
+      this.key = key;
+      this.repo = repo;
+      this.cmp = cmp;
+      this.aTree = aTree;
+      this.diffEntries = diffEntries;
+      this.entries = entries;
+    }
+
+    void run(DiffFormatter df) throws IOException {
+      final int cnt = diffEntries.size();
+      final int helpers = Math.min(diffThreads - 1, cnt / PARALLEL_THRESHOLD);
+      for (int i = 0; i < helpers; i++) {
+        diffExecutor.execute(new Runnable() {
+          @Override
+          public void run() {
+            synchronized (ParallelDiff.this) {
+              if (stopped || cnt <= next.get()) {
+                return;
+              }
+              active++;
+            }
+            try {
+              final DiffFormatter own =
+                  new DiffFormatter(DisabledOutputStream.INSTANCE);
+              try {
+                own.setRepository(repo);
+                own.setDiffComparator(cmp);
+                diff(own);
+              } finally {
+                own.release();
+              }
+            } finally {
+              synchronized (ParallelDiff.this) {
+                if (--active == 0) {
+                  ParallelDiff.this.notifyAll();
+                }
+              }
+            }
+          }
+
+          @Override
+          public String toString() {
+            return "diff " + key.projectKey.get() //
+                + " " + key.getNewId().name();
+          }
+        });
+      }
+      try {
+        diff(df);
+
+        synchronized (this) {
+          while (completed < cnt) {
+            try {
+              wait();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              throw new IOException("Interrupted computing differences", e);
+            }
+          }
+          if (error != null) {
+            throw error;
+          }
+        }
+      } finally {
+        stopHelpers();
+      }
+    }
+
+    /** Keep helpers off the repository, once the caller no longer waits. */
+    private synchronized void stopHelpers() {
+      stopped = true;
+      boolean interrupted = Thread.interrupted();
+      while (0 < active) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private void diff(DiffFormatter df) {
+      final int cnt = diffEntries.size();
+      int i;
+      while (!stopped && (i = next.getAndIncrement()) < cnt) {
+        IOException failed = null;
+        try {
+          FileHeader fh = df.toFileHeader(diffEntries.get(i));
+          entries[1 + i] = newEntry(aTree, fh);
+        } catch (IOException e) {
+          failed = e;
+        } catch (RuntimeException e) {
+          failed = new IOException("Cannot diff " + diffEntries.get(i), e);
+        } finally {
+          if (failed == null && entries[1 + i] == null) {
+            failed = new IOException("Cannot diff " + diffEntries.get(i));
+          }
+          synchronized (this) {
+            if (failed != null && error == null) {
+              error = failed;
+            }
+            if (++completed == cnt) {
+              notifyAll();
+            }
+          }
+        }
+      }
+    }
+  }
+
   private PatchListEntry newCommitMessage(final RawTextComparator cmp,
       final Repository db, final ObjectReader reader,
       final RevCommit aCommit, final RevCommit bCommit) throws IOException {
@@ -67,6 +67,18 @@ public class PatchSetInfoFactory {
     return info;
   }
 
+  /**
+   * Describe a patch set whose commit was parsed by the caller.
+   *
+   * @param rw walk that parsed {@code src}, used to describe its parents.
+   */
+  public PatchSetInfo get(RevWalk rw, RevCommit src, PatchSet.Id psi)
+      throws IOException {
+    PatchSetInfo info = get(src, psi);
+    info.setParents(toParentInfos(src.getParents(), rw));
+    return info;
+  }
+
   public PatchSetInfo get(ReviewDb db, PatchSet.Id patchSetId)
     throws PatchSetInfoNotAvailableException {
     Repository repo = null;
@@ -79,9 +91,7 @@ public class PatchSetInfoFactory {
       try {
         final RevCommit src =
             rw.parseCommit(ObjectId.fromString(patchSet.getRevision().get()));
-        PatchSetInfo info = get(src, patchSetId);
-        info.setParents(toParentInfos(src.getParents(), rw));
-        return info;
+        return get(rw, src, patchSetId);
       } finally {
         rw.release();
       }
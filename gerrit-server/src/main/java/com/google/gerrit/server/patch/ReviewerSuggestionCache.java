@@ -0,0 +1,340 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.HOURS;
+
+import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.client.AccountGroup;
+import com.google.gerrit.reviewdb.client.AccountGroupInclude;
+import com.google.gerrit.reviewdb.client.AccountGroupMember;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.PatchSetApproval;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.account.GroupCache;
+import com.google.gerrit.server.account.GroupIncludeCache;
+import com.google.gerrit.server.cache.Cache;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.EntryCreator;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.SchemaFactory;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Precomputed data used to suggest reviewers for a change.
+ * <p>
+ * For each project, the accounts that most often reviewed its recently
+ * merged changes, so they can be suggested first. For each group, the
+ * accounts it contains directly or through included groups, so a group can
+ * be suggested as reviewer without expanding it on every keystroke.
+ * <p>
+ * Ranking a project reads the approvals of each of its recent changes, so
+ * it is computed in the background; until it is ready, suggestions are
+ * not ranked.
+ */
+@Singleton
+public class ReviewerSuggestionCache {
+  private static final Logger log =
+      LoggerFactory.getLogger(ReviewerSuggestionCache.class);
+
+  private static final String RANKING_NAME = "reviewers_byproject";
+  private static final String MEMBERS_NAME = "groups_members";
+
+  /** Most recently merged changes of a project whose reviewers are counted. */
+  static final int RECENT_CHANGES = 250;
+
+  /** Most reviewers ranked for a project. */
+  static final int MAX_RANKED = 100;
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        final TypeLiteral<Cache<Project.NameKey, List<Account.Id>>> rankingType =
+            new TypeLiteral<Cache<Project.NameKey, List<Account.Id>>>() {};
+        core(rankingType, RANKING_NAME).maxAge(1, DAYS);
+
+        final TypeLiteral<Cache<AccountGroup.UUID, Set<Account.Id>>> membersType =
+            new TypeLiteral<Cache<AccountGroup.UUID, Set<Account.Id>>>() {};
+        core(membersType, MEMBERS_NAME).maxAge(1, HOURS) //
+            .populateWith(MembersLoader.class);
+
+        bind(ReviewerSuggestionCache.class);
+      }
+    };
+  }
+
+  private final ProjectCache projectCache;
+  private final GroupIncludeCache groupIncludeCache;
+  private final Cache<Project.NameKey, List<Account.Id>> ranking;
+  private final Cache<AccountGroup.UUID, Set<Account.Id>> members;
+  private final RankingLoader rankingLoader;
+  private final Executor executor;
+  private final Set<Project.NameKey> loading = Collections.newSetFromMap(
+      new ConcurrentHashMap<Project.NameKey, Boolean>());
+
+  @Inject
+  ReviewerSuggestionCache(final ProjectCache projectCache,
+      final GroupIncludeCache groupIncludeCache,
+      @Named(RANKING_NAME)
+      final Cache<Project.NameKey, List<Account.Id>> ranking,
+      @Named(MEMBERS_NAME)
+      final Cache<AccountGroup.UUID, Set<Account.Id>> members,
+      final RankingLoader rankingLoader, final WorkQueue workQueue) {
+    this(projectCache, groupIncludeCache, ranking, members, rankingLoader,
+        workQueue.getDefaultQueue());
+  }
+
+  ReviewerSuggestionCache(final ProjectCache projectCache,
+      final GroupIncludeCache groupIncludeCache,
+      final Cache<Project.NameKey, List<Account.Id>> ranking,
+      final Cache<AccountGroup.UUID, Set<Account.Id>> members,
+      final RankingLoader rankingLoader, final Executor executor) {
+    this.projectCache = projectCache;
+    this.groupIncludeCache = groupIncludeCache;
+    this.ranking = ranking;
+    this.members = members;
+    this.rankingLoader = rankingLoader;
+    this.executor = executor;
+  }
+
+  /**
+   * Get the reviewers to suggest first for a project.
+   * <p>
+   * If the project was not ranked recently, its ranking is started in the
+   * background and an empty list is returned meanwhile.
+   *
+   * @return accounts that reviewed recently merged changes of the project,
+   *         most frequent reviewer first.
+   */
+  public List<Account.Id> getFrequentReviewers(final Project.NameKey project) {
+    final List<Account.Id> r = ranking.get(project);
+    if (r != null) {
+      return r;
+    }
+    if (loading.add(project)) {
+      executor.execute(new LoadRanking(project));
+    }
+    return Collections.emptyList();
+  }
+
+  /**
+   * Forget the members of a group, and of all groups including it.
+   *
+   * @param group group whose members or included groups changed.
+   */
+  public void evictMembers(final AccountGroup.UUID group) {
+    for (AccountGroup.UUID uuid : groupIncludeCache.getAllByInclude(group)) {
+      members.remove(uuid);
+    }
+  }
+
+  /**
+   * Count the accounts added as reviewers if the group is added.
+   * <p>
+   * Unlike {@link com.google.gerrit.server.account.GroupMembers} the count
+   * does not depend on which members the current user can see, and it may be
+   * up to an hour old.
+   *
+   * @param group the group.
+   * @param project project the change belongs to, used to expand the
+   *        Project Owners group.
+   * @return number of distinct accounts in the group.
+   */
+  public int getMemberCount(final AccountGroup.UUID group,
+      final Project.NameKey project) {
+    if (!AccountGroup.PROJECT_OWNERS.equals(group)) {
+      return members.get(group).size();
+    }
+
+    final ProjectState state = projectCache.get(project);
+    if (state == null) {
+      return 0;
+    }
+    final Set<Account.Id> owners = new HashSet<Account.Id>();
+    for (AccountGroup.UUID owner : state.getOwners()) {
+      if (!AccountGroup.PROJECT_OWNERS.equals(owner)) {
+        owners.addAll(members.get(owner));
+      }
+    }
+    return owners.size();
+  }
+
+  /**
+   * Order reviewers by the number of changes they reviewed.
+   *
+   * @param counts number of changes reviewed by each account.
+   * @param max most accounts returned.
+   * @return the most frequent reviewers, ties broken by account id.
+   */
+  static List<Account.Id> rank(final Map<Account.Id, Integer> counts,
+      final int max) {
+    final List<Map.Entry<Account.Id, Integer>> entries =
+        new ArrayList<Map.Entry<Account.Id, Integer>>(counts.entrySet());
+    Collections.sort(entries,
+        new Comparator<Map.Entry<Account.Id, Integer>>() {
+      @Override
+      public int compare(Map.Entry<Account.Id, Integer> a,
+          Map.Entry<Account.Id, Integer> b) {
+        final int cmp = b.getValue().compareTo(a.getValue());
+        if (cmp != 0) {
+          return cmp;
+        }
+        return a.getKey().get() - b.getKey().get();
+      }
+    });
+
+    final int n = Math.min(max, entries.size());
+    final List<Account.Id> r = new ArrayList<Account.Id>(n);
+    for (int i = 0; i < n; i++) {
+      r.add(entries.get(i).getKey());
+    }
+    return Collections.unmodifiableList(r);
+  }
+
+  private class LoadRanking implements Runnable {
+    private final Project.NameKey project;
+
+    LoadRanking(final Project.NameKey project) {
+      this.project = project;
+    }
+
+    @Override
+    public void run() {
+      try {
+        ranking.put(project, rankingLoader.load(project));
+      } catch (OrmException e) {
+        log.warn("Cannot rank reviewers of " + project, e);
+      } finally {
+        loading.remove(project);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "rank reviewers of " + project;
+    }
+  }
+
+  static class RankingLoader {
+    private final SchemaFactory<ReviewDb> schema;
+
+    @Inject
+    RankingLoader(final SchemaFactory<ReviewDb> sf) {
+      schema = sf;
+    }
+
+    List<Account.Id> load(final Project.NameKey project)
+        throws OrmException {
+      final Map<Account.Id, Integer> counts =
+          new HashMap<Account.Id, Integer>();
+      final ReviewDb db = schema.open();
+      try {
+        for (Change c : db.changes().byProjectClosedNext(
+            Change.Status.MERGED.getCode(), project, "z", RECENT_CHANGES)) {
+          final Set<Account.Id> reviewers = new HashSet<Account.Id>();
+          for (PatchSetApproval a : db.patchSetApprovals().byChange(
+              c.getId())) {
+            reviewers.add(a.getAccountId());
+          }
+          reviewers.remove(c.getOwner());
+
+          for (Account.Id id : reviewers) {
+            final Integer n = counts.get(id);
+            counts.put(id, n != null ? n + 1 : 1);
+          }
+        }
+      } finally {
+        db.close();
+      }
+      return rank(counts, MAX_RANKED);
+    }
+  }
+
+  static class MembersLoader extends
+      EntryCreator<AccountGroup.UUID, Set<Account.Id>> {
+    private final SchemaFactory<ReviewDb> schema;
+    private final GroupCache groupCache;
+
+    @Inject
+    MembersLoader(final SchemaFactory<ReviewDb> sf,
+        final GroupCache groupCache) {
+      this.schema = sf;
+      this.groupCache = groupCache;
+    }
+
+    @Override
+    public Set<Account.Id> createEntry(final AccountGroup.UUID uuid)
+        throws Exception {
+      final AccountGroup group = groupCache.get(uuid);
+      if (group == null || group.getType() != AccountGroup.Type.INTERNAL) {
+        return Collections.emptySet();
+      }
+
+      final Set<Account.Id> r = new HashSet<Account.Id>();
+      final Set<AccountGroup.Id> seen = new HashSet<AccountGroup.Id>();
+      final LinkedList<AccountGroup.Id> todo =
+          new LinkedList<AccountGroup.Id>();
+      todo.add(group.getId());
+      final ReviewDb db = schema.open();
+      try {
+        while (!todo.isEmpty()) {
+          final AccountGroup.Id id = todo.removeFirst();
+          if (!seen.add(id)) {
+            continue;
+          }
+          for (AccountGroupMember m : db.accountGroupMembers().byGroup(id)) {
+            r.add(m.getAccountId());
+          }
+          for (AccountGroupInclude i : db.accountGroupIncludes().byGroup(id)) {
+            todo.add(i.getIncludeId());
+          }
+        }
+      } finally {
+        db.close();
+      }
+      return Collections.unmodifiableSet(r);
+    }
+
+    @Override
+    public Set<Account.Id> missing(final AccountGroup.UUID uuid) {
+      return Collections.emptySet();
+    }
+  }
+}
@@ -0,0 +1,164 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.util.RawParseUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Selected lines of a file too large to be held in memory as a {@link Text}.
+ * <p>
+ * The file is read once as a stream. Only the lines inside the requested
+ * ranges are kept, so memory use depends on the number of lines displayed
+ * rather than on the size of the file. The character set is detected from
+ * the start of the file, and kept lines longer than {@link #MAX_LINE_LENGTH}
+ * bytes are truncated.
+ */
+public class StreamedText {
+  /** Number of leading bytes kept to detect the content type and charset. */
+  public static final int HEAD_LENGTH = 8192;
+
+  /** Maximum number of bytes kept of any single line. */
+  public static final int MAX_LINE_LENGTH = 64 << 10;
+
+  /**
+   * Read selected lines of a file.
+   *
+   * @param ldr the file.
+   * @param ranges pairs of first line (inclusive) and last line (exclusive),
+   *        0 based, sorted by first line and not overlapping.
+   * @return the lines of {@code ldr} inside {@code ranges}.
+   * @throws IOException the file cannot be read.
+   */
+  public static StreamedText read(ObjectLoader ldr, int[] ranges)
+      throws IOException {
+    final StreamedText t = new StreamedText();
+    final Map<Integer, byte[]> raw = new HashMap<Integer, byte[]>();
+    final ByteArrayOutputStream head = new ByteArrayOutputStream();
+    final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    final byte[] buf = new byte[8192];
+
+    int lineNo = 0;
+    int range = 0;
+    int last = -1;
+    final InputStream in = ldr.openStream();
+    try {
+      while (range < ranges.length && ranges[range + 1] <= 0) {
+        range += 2;
+      }
+      boolean want = range < ranges.length && ranges[range] <= 0;
+      int n;
+      while ((n = in.read(buf)) > 0) {
+        if (head.size() < HEAD_LENGTH) {
+          head.write(buf, 0, Math.min(n, HEAD_LENGTH - head.size()));
+        }
+
+        int start = 0;
+        for (int i = 0; i < n; i++) {
+          if (buf[i] == '\n') {
+            if (want) {
+              append(line, buf, start, i - start);
+              raw.put(lineNo, line.toByteArray());
+              line.reset();
+            }
+            start = i + 1;
+            lineNo++;
+            while (range < ranges.length && ranges[range + 1] <= lineNo) {
+              range += 2;
+            }
+            want = range < ranges.length && ranges[range] <= lineNo;
+          }
+        }
+        if (want && start < n) {
+          append(line, buf, start, n - start);
+        }
+        last = buf[n - 1] & 0xff;
+      }
+
+      if (last != -1 && last != '\n') {
+        if (want) {
+          raw.put(lineNo, line.toByteArray());
+        }
+        lineNo++;
+        t.missingNewlineAtEnd = true;
+      }
+    } finally {
+      in.close();
+    }
+
+    t.head = head.toByteArray();
+    t.size = lineNo;
+    final Charset cs = Text.charset(t.head, null);
+    for (Map.Entry<Integer, byte[]> e : raw.entrySet()) {
+      final byte[] b = e.getValue();
+      t.lines.put(e.getKey(), RawParseUtils.decode(cs, b, 0, b.length));
+    }
+    return t;
+  }
+
+  private static void append(ByteArrayOutputStream line, byte[] buf,
+      int start, int len) {
+    final int room = MAX_LINE_LENGTH - line.size();
+    if (0 < room) {
+      line.write(buf, start, Math.min(len, room));
+    }
+  }
+
+  private final Map<Integer, String> lines = new HashMap<Integer, String>();
+  private byte[] head;
+  private int size;
+  private boolean missingNewlineAtEnd;
+
+  private StreamedText() {
+  }
+
+  /** @return the first bytes of the file, at most {@link #HEAD_LENGTH}. */
+  public byte[] getHead() {
+    return Arrays.copyOf(head, head.length);
+  }
+
+  /** @return total number of lines in the file. */
+  public int size() {
+    return size;
+  }
+
+  /** @return true if the last line of the file has no line terminator. */
+  public boolean isMissingNewlineAtEnd() {
+    return missingNewlineAtEnd;
+  }
+
+  /** @return true if {@code line} was inside the requested ranges. */
+  public boolean contains(int line) {
+    return lines.containsKey(line);
+  }
+
+  /**
+   * @param line 0 based line number.
+   * @return the line without its terminator; the empty string if the line
+   *         was not inside the requested ranges.
+   */
+  public String getString(int line) {
+    final String s = lines.get(line);
+    return s != null ? s : "";
+  }
+}
@@ -326,6 +326,41 @@ public class ChangeControl {
       return logRuleError("Cannot read patch set " + patchSetId, err);
     }
 
+    SubmitRecordCache cache =
+        getProjectControl().getProjectState().getSubmitRecordCache();
+    SubmitRecordCache.Key key = null;
+    if (cache != null) {
+      try {
+        key = cache.key(db, this, patchSetId);
+      } catch (OrmException err) {
+        return logRuleError("Cannot read approvals of " + patchSetId, err);
+      }
+      if (key != null) {
+        List<SubmitRecord> cached = cache.get(key);
+        if (cached != null) {
+          return cached;
+        }
+      }
+    }
+
+    List<SubmitRecord> out = evaluateSubmitRules(db, patchSetId);
+    if (key != null && !hasRuleError(out)) {
+      cache.put(key, out);
+    }
+    return out;
+  }
+
+  private static boolean hasRuleError(List<SubmitRecord> records) {
+    for (SubmitRecord r : records) {
+      if (r.status == SubmitRecord.Status.RULE_ERROR) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private List<SubmitRecord> evaluateSubmitRules(ReviewDb db,
+      PatchSet.Id patchSetId) {
     List<Term> results = new ArrayList<Term>();
     Term submitRule;
     ProjectState projectState = getProjectControl().getProjectState();
@@ -59,6 +59,7 @@ public class ProjectState {
   private final PrologEnvironment.Factory envFactory;
   private final GitRepositoryManager gitMgr;
   private final RulesCache rulesCache;
+  private final SubmitRecordCache submitRecordCache;
 
   private final ProjectConfig config;
   private final Set<AccountGroup.UUID> localOwners;
@@ -83,6 +84,7 @@ public class ProjectState {
       final PrologEnvironment.Factory envFactory,
       final GitRepositoryManager gitMgr,
       final RulesCache rulesCache,
+      final SubmitRecordCache submitRecordCache,
       @Assisted final ProjectConfig config) {
     this.projectCache = projectCache;
     this.isAllProjects = config.getProject().getNameKey().equals(allProjectsName);
@@ -91,6 +93,7 @@ public class ProjectState {
     this.envFactory = envFactory;
     this.gitMgr = gitMgr;
     this.rulesCache = rulesCache;
+    this.submitRecordCache = submitRecordCache;
     this.config = config;
     this.capabilities = isAllProjects
       ? new CapabilityCollection(config.getAccessSection(AccessSection.GLOBAL_CAPABILITIES))
@@ -161,6 +164,10 @@ public class ProjectState {
     return envFactory.create(pmc);
   }
 
+  SubmitRecordCache getSubmitRecordCache() {
+    return submitRecordCache;
+  }
+
   public Project getProject() {
     return config.getProject();
   }
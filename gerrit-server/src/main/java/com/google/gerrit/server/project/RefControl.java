@@ -77,6 +77,14 @@ public class RefControl {
     return projectControl.getCurrentUser();
   }
 
+  /**
+   * @return true if the permissions of this reference depend on the user's
+   *         name, and not only on the groups the user is a member of.
+   */
+  public boolean isUserSpecific() {
+    return relevant.isUserSpecific();
+  }
+
   public RefControl forUser(CurrentUser who) {
     ProjectControl newCtl = projectControl.forUser(who);
     if (relevant.isUserSpecific()) {
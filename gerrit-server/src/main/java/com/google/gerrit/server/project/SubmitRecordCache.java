@@ -0,0 +1,219 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import com.google.gerrit.common.data.SubmitRecord;
+import com.google.gerrit.reviewdb.client.PatchSet;
+import com.google.gerrit.reviewdb.client.PatchSetApproval;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.AnonymousUser;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.cache.Cache;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gwtorm.server.OrmException;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Named;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Caches the submit records computed by {@link ChangeControl#canSubmit}.
+ * <p>
+ * Evaluating the Prolog submit rules of a project and its parents is much
+ * more expensive than reading a change's approvals, so the result is cached
+ * under everything that can influence it: the patch set, a digest of its
+ * approvals and topic, the revision of each project configuration (and
+ * therefore each {@code rules.pl}) in the inheritance chain, and the user
+ * asking.
+ */
+@Singleton
+public class SubmitRecordCache {
+  private static final String CACHE_NAME = "submit_records";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        final TypeLiteral<Cache<Key, List<SubmitRecord>>> type =
+            new TypeLiteral<Cache<Key, List<SubmitRecord>>>() {};
+        core(type, CACHE_NAME).maxAge(30, MINUTES);
+        bind(SubmitRecordCache.class);
+      }
+    };
+  }
+
+  private final Cache<Key, List<SubmitRecord>> cache;
+
+  @Inject
+  SubmitRecordCache(@Named(CACHE_NAME) Cache<Key, List<SubmitRecord>> cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Compute the cache key for evaluating submit rules on a patch set.
+   *
+   * @return the key; null if the result cannot be cached for this caller.
+   */
+  Key key(ReviewDb db, ChangeControl ctl, PatchSet.Id patchSetId)
+      throws OrmException {
+    final String user = userKey(ctl.getCurrentUser());
+    if (user == null) {
+      return null;
+    }
+
+    final List<ObjectId> revisions = new ArrayList<ObjectId>();
+    final Set<Project.NameKey> seen = new HashSet<Project.NameKey>();
+    ProjectState ps = ctl.getProjectControl().getProjectState();
+    while (ps != null && seen.add(ps.getProject().getNameKey())) {
+      final ObjectId rev = ps.getConfig().getRevision();
+      if (rev == null) {
+        return null;
+      }
+      revisions.add(rev.copy());
+      ps = ps.getParentState();
+    }
+
+    final List<PatchSetApproval> approvals = new ArrayList<PatchSetApproval>();
+    for (PatchSetApproval a : db.patchSetApprovals().byPatchSet(patchSetId)) {
+      approvals.add(a);
+    }
+    return new Key(patchSetId, user, revisions,
+        digest(ctl.getChange().getTopic(), approvals));
+  }
+
+  /** @return a copy of the cached records, or null if not cached. */
+  List<SubmitRecord> get(Key key) {
+    final List<SubmitRecord> r = cache.get(key);
+    return r != null ? copy(r) : null;
+  }
+
+  void put(Key key, List<SubmitRecord> records) {
+    cache.put(key, Collections.unmodifiableList(copy(records)));
+  }
+
+  private static String userKey(CurrentUser user) {
+    if (user instanceof IdentifiedUser) {
+      return "account:" + ((IdentifiedUser) user).getAccountId().get();
+    } else if (user instanceof AnonymousUser) {
+      return "anonymous";
+    }
+    // Other users have permissions that are not named by an identity.
+    return null;
+  }
+
+  private static byte[] digest(String topic, List<PatchSetApproval> approvals) {
+    Collections.sort(approvals, new Comparator<PatchSetApproval>() {
+      @Override
+      public int compare(PatchSetApproval a, PatchSetApproval b) {
+        int cmp = a.getAccountId().get() - b.getAccountId().get();
+        if (cmp == 0) {
+          cmp = a.getCategoryId().get().compareTo(b.getCategoryId().get());
+        }
+        return cmp;
+      }
+    });
+
+    final MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("JVM lacks SHA-1", e);
+    }
+    final StringBuilder s = new StringBuilder();
+    s.append(topic != null ? topic : "").append('\n');
+    for (PatchSetApproval a : approvals) {
+      s.append(a.getAccountId().get()).append(':')
+       .append(a.getCategoryId().get()).append(':')
+       .append(a.getValue()).append('\n');
+    }
+    try {
+      return md.digest(s.toString().getBytes("UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException("JVM lacks UTF-8", e);
+    }
+  }
+
+  private static List<SubmitRecord> copy(List<SubmitRecord> src) {
+    final List<SubmitRecord> r = new ArrayList<SubmitRecord>(src.size());
+    for (SubmitRecord s : src) {
+      final SubmitRecord d = new SubmitRecord();
+      d.status = s.status;
+      d.errorMessage = s.errorMessage;
+      if (s.labels != null) {
+        d.labels = new ArrayList<SubmitRecord.Label>(s.labels.size());
+        for (SubmitRecord.Label l : s.labels) {
+          final SubmitRecord.Label c = new SubmitRecord.Label();
+          c.label = l.label;
+          c.status = l.status;
+          c.appliedBy = l.appliedBy;
+          d.labels.add(c);
+        }
+      }
+      r.add(d);
+    }
+    return r;
+  }
+
+  static final class Key {
+    private final PatchSet.Id patchSetId;
+    private final String user;
+    private final List<ObjectId> revisions;
+    private final byte[] approvals;
+
+    Key(PatchSet.Id patchSetId, String user, List<ObjectId> revisions,
+        byte[] approvals) {
+      this.patchSetId = patchSetId;
+      this.user = user;
+      this.revisions = revisions;
+      this.approvals = approvals;
+    }
+
+    @Override
+    public int hashCode() {
+      return (patchSetId.hashCode() * 31 + user.hashCode()) * 31
+          + Arrays.hashCode(approvals);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (other instanceof Key) {
+        Key b = (Key) other;
+        return patchSetId.equals(b.patchSetId)
+            && user.equals(b.user)
+            && revisions.equals(b.revisions)
+            && Arrays.equals(approvals, b.approvals);
+      }
+      return false;
+    }
+  }
+}
@@ -35,7 +35,6 @@ import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectReader;
-import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
@@ -43,6 +42,7 @@ import org.eclipse.jgit.treewalk.TreeWalk;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 /**
@@ -73,13 +73,13 @@ public class PRED_commit_edits_2 extends Predicate.P2 {
     Pattern editRegex = getRegexParameter(a2);
 
     PatchList pl = StoredValues.PATCH_LIST.get(engine);
-    Repository repo = StoredValues.REPOSITORY.get(engine);
+    RevWalk rw = StoredValues.REV_WALK.get(engine);
+    Map<ObjectId, Text> texts = StoredValues.BLOB_TEXT.get(engine);
 
-    final ObjectReader reader = repo.newObjectReader();
+    final ObjectReader reader = rw.getObjectReader();
     final RevTree aTree;
     final RevTree bTree;
     try {
-      final RevWalk rw = new RevWalk(reader);
       final RevCommit bCommit = rw.parseCommit(pl.getNewId());
 
       if (pl.getOldId() != null) {
@@ -108,11 +108,11 @@ public class PRED_commit_edits_2 extends Predicate.P2 {
           }
           Text tA;
           if (oldName != null) {
-            tA = load(aTree, oldName, reader);
+            tA = load(aTree, oldName, reader, texts);
           } else {
-            tA = load(aTree, newName, reader);
+            tA = load(aTree, newName, reader, texts);
           }
-          Text tB = load(bTree, newName, reader);
+          Text tB = load(bTree, newName, reader, texts);
           for (Edit edit : edits) {
             if (tA != Text.EMPTY) {
               String aDiff = tA.getString(edit.getBeginA(), edit.getEndA(), true);
@@ -131,8 +131,6 @@ public class PRED_commit_edits_2 extends Predicate.P2 {
       }
     } catch (IOException err) {
       throw new JavaException(this, 1, err);
-    } finally {
-      reader.release();
     }
 
     return engine.fail();
@@ -148,7 +146,8 @@ public class PRED_commit_edits_2 extends Predicate.P2 {
     return Pattern.compile(term.name(), Pattern.MULTILINE);
   }
 
-  private Text load(final ObjectId tree, final String path, final ObjectReader reader)
+  private Text load(final ObjectId tree, final String path,
+      final ObjectReader reader, final Map<ObjectId, Text> texts)
       throws MissingObjectException, IncorrectObjectTypeException,
       CorruptObjectException, IOException {
     if (path == null) {
@@ -161,6 +160,12 @@ public class PRED_commit_edits_2 extends Predicate.P2 {
     if (tw.getFileMode(0).getObjectType() != Constants.OBJ_BLOB) {
       return Text.EMPTY;
     }
-    return new Text(reader.open(tw.getObjectId(0), Constants.OBJ_BLOB));
+    final ObjectId id = tw.getObjectId(0);
+    Text t = texts.get(id);
+    if (t == null) {
+      t = new Text(reader.open(id, Constants.OBJ_BLOB));
+      texts.put(id, t);
+    }
+    return t;
   }
 }
\ No newline at end of file
@@ -0,0 +1,180 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.common;
+
+import com.google.gerrit.server.events.ChangeEvent;
+import com.google.gerrit.server.events.RefUpdatedEvent;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.Config;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class HookTest extends TestCase {
+  private File dir;
+  private Config cfg;
+  private LinkedList<Runnable> tasks;
+  private Executor pool;
+  private Hook hook;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    dir = File.createTempFile("hooks", "");
+    dir.delete();
+    dir.mkdir();
+    cfg = new Config();
+    tasks = new LinkedList<Runnable>();
+    pool = new Executor() {
+      @Override
+      public void execute(Runnable task) {
+        tasks.add(task);
+      }
+    };
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    if (hook != null) {
+      hook.stop();
+    }
+    for (File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+    super.tearDown();
+  }
+
+  public void testLimitsConcurrentRuns() throws Exception {
+    cfg.setInt("hooks", "test-hook", "maxConcurrent", 2);
+    hook = newHook("exit 0");
+    run(null);
+    run(null);
+    run(null);
+    assertEquals(2, tasks.size());
+    assertEquals(1, hook.getStatistics().getPending());
+
+    runTasks();
+    assertEquals(3, hook.getStatistics().getRuns());
+    assertEquals(0, hook.getStatistics().getPending());
+  }
+
+  public void testYieldsThreadAfterBatch() throws Exception {
+    hook = newHook("exit 0");
+    for (int i = 0; i < 20; i++) {
+      run(null);
+    }
+    assertEquals(1, tasks.size());
+
+    tasks.poll().run();
+    assertEquals(16, hook.getStatistics().getRuns());
+    assertEquals(1, tasks.size());
+
+    runTasks();
+    assertEquals(20, hook.getStatistics().getRuns());
+  }
+
+  public void testRestartsStreamAfterExit() throws Exception {
+    cfg.setBoolean("hooks", "test-hook", "stream", true);
+    // The first process reads one event and exits; later ones read all.
+    hook = newHook("if [ -f started ]; then\n"
+        + "  cat >> events\n"
+        + "else\n"
+        + "  touch started\n"
+        + "  read line\n"
+        + "  echo \"$line\" >> events\n"
+        + "fi");
+    run(event(1));
+    runTasks();
+    assertEquals(1, awaitEvents(1).size());
+    assertEquals(1, hook.getStatistics().getRuns());
+    Thread.sleep(500); // Let the first process exit.
+
+    // Both events are written before the flush that finds the process
+    // gone; both must reach the restarted process.
+    run(event(2));
+    run(event(3));
+    runTasks();
+    final List<String> events = awaitEvents(3);
+    assertEquals(3, events.size());
+    assertTrue(events.get(1).contains("\"seq\":2"));
+    assertTrue(events.get(2).contains("\"seq\":3"));
+    assertEquals(3, hook.getStatistics().getRuns());
+    assertEquals(0, hook.getStatistics().getFailures());
+  }
+
+  private Hook newHook(String script) throws IOException {
+    final File f = new File(dir, "test-hook");
+    final FileWriter w = new FileWriter(f);
+    try {
+      w.write("#!/bin/sh\n" + script + "\n");
+    } finally {
+      w.close();
+    }
+    f.setExecutable(true);
+    return new Hook(f, cfg, 0, null, pool);
+  }
+
+  private void run(ChangeEvent event) {
+    hook.run(null, Collections.<String> emptyList(), event);
+  }
+
+  private void runTasks() {
+    while (!tasks.isEmpty()) {
+      tasks.poll().run();
+    }
+  }
+
+  private static ChangeEvent event(long seq) {
+    final RefUpdatedEvent e = new RefUpdatedEvent();
+    e.seq = seq;
+    return e;
+  }
+
+  private List<String> awaitEvents(int n) throws Exception {
+    final File f = new File(dir, "events");
+    final long end = System.currentTimeMillis() + 5000;
+    List<String> lines = new ArrayList<String>();
+    while (System.currentTimeMillis() < end) {
+      lines = new ArrayList<String>();
+      if (f.exists()) {
+        final BufferedReader r = new BufferedReader(new FileReader(f));
+        try {
+          String line;
+          while ((line = r.readLine()) != null) {
+            lines.add(line);
+          }
+        } finally {
+          r.close();
+        }
+      }
+      if (n <= lines.size()) {
+        break;
+      }
+      Thread.sleep(10);
+    }
+    return lines;
+  }
+}
@@ -0,0 +1,67 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.rules;
+
+import com.google.gerrit.server.patch.Text;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+public class TextCacheTest extends TestCase {
+  private static final ObjectId A = id(1);
+  private static final ObjectId B = id(2);
+  private static final ObjectId C = id(3);
+
+  public void testEvictsLeastRecentlyUsed() {
+    final TextCache cache = new TextCache(10);
+    cache.put(A, text(4));
+    cache.put(B, text(4));
+    cache.get(A);
+    cache.put(C, text(4));
+    assertTrue(cache.containsKey(A));
+    assertFalse(cache.containsKey(B));
+    assertTrue(cache.containsKey(C));
+    assertEquals(8, cache.getBytes());
+  }
+
+  public void testSkipsTextLargerThanLimit() {
+    final TextCache cache = new TextCache(10);
+    cache.put(A, text(4));
+    cache.put(B, text(11));
+    assertTrue(cache.containsKey(A));
+    assertFalse(cache.containsKey(B));
+    assertEquals(4, cache.getBytes());
+  }
+
+  public void testCountsReplacedText() {
+    final TextCache cache = new TextCache(10);
+    cache.put(A, text(4));
+    cache.put(A, text(6));
+    assertEquals(6, cache.getBytes());
+    cache.remove(A);
+    assertEquals(0, cache.getBytes());
+  }
+
+  private static Text text(int size) {
+    return new Text(new byte[size]);
+  }
+
+  private static ObjectId id(int n) {
+    final byte[] raw = new byte[20];
+    raw[19] = (byte) n;
+    return ObjectId.fromRaw(raw);
+  }
+}
@@ -0,0 +1,171 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import static com.google.gerrit.reviewdb.client.AccountExternalId.SCHEME_MAILTO;
+import static com.google.gerrit.reviewdb.client.AccountExternalId.SCHEME_USERNAME;
+
+import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.client.AccountExternalId;
+import com.google.gerrit.reviewdb.client.AccountGroup;
+import com.google.gerrit.server.account.AccountSuggestIndex.Field;
+import com.google.gerrit.server.account.AccountSuggestIndex.Match;
+import com.google.gerrit.server.account.AccountSuggestIndex.Snapshot;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+public class AccountSuggestIndexTest extends TestCase {
+  private static final Account.Id ALICE = new Account.Id(1);
+  private static final Account.Id ALBERT = new Account.Id(2);
+  private static final Account.Id BOB = new Account.Id(3);
+
+  private Snapshot index;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    final Map<Field, List<Match>> fields = Snapshot.newFields();
+    Snapshot.addKeys(fields, account(ALICE, "Alice Smith", "alice@example.com"),
+        Arrays.asList(
+            externalId(ALICE, SCHEME_USERNAME + "alice", null),
+            externalId(ALICE, SCHEME_MAILTO + "as@example.org",
+                "as@example.org")));
+    Snapshot.addKeys(fields, account(ALBERT, "Albert Jones", null),
+        Collections.<AccountExternalId> emptyList());
+    Snapshot.addKeys(fields, account(BOB, "Bob", "bob@example.com"),
+        Collections.singletonList(
+            externalId(BOB, SCHEME_USERNAME + "bob", null)));
+    index = new Snapshot(fields);
+  }
+
+  public void testMatchesPrefixInOrder() {
+    assertEquals(Arrays.asList(ALBERT, ALICE),
+        ids(index.byPrefix(Field.FULL_NAME, "Al", 10)));
+    assertEquals(Arrays.asList(ALICE),
+        ids(index.byPrefix(Field.FULL_NAME, "Alice Smith", 10)));
+    assertTrue(index.byPrefix(Field.FULL_NAME, "Alicia", 10).isEmpty());
+    assertTrue(index.byPrefix(Field.FULL_NAME, "Zed", 10).isEmpty());
+  }
+
+  public void testMatchesEachField() {
+    assertEquals(Arrays.asList(BOB),
+        ids(index.byPrefix(Field.PREFERRED_EMAIL, "bob@", 10)));
+    assertEquals(Arrays.asList(ALICE),
+        ids(index.byPrefix(Field.EMAIL_ADDRESS, "as@", 10)));
+    assertEquals("as@example.org",
+        index.byPrefix(Field.EMAIL_ADDRESS, "as@", 10).get(0).getKey());
+    assertEquals(Arrays.asList(ALICE, BOB),
+        ids(index.byPrefix(Field.USER_NAME, "", 10)));
+  }
+
+  public void testMatchIsCaseSensitive() {
+    assertTrue(index.byPrefix(Field.FULL_NAME, "al", 10).isEmpty());
+  }
+
+  public void testLimit() {
+    assertEquals(Arrays.asList(ALBERT),
+        ids(index.byPrefix(Field.FULL_NAME, "A", 1)));
+  }
+
+  public void testReplace() {
+    final Map<Field, List<Match>> added = Snapshot.newFields();
+    Snapshot.addKeys(added, account(BOB, "Robert", "bob@example.com"),
+        Collections.<AccountExternalId> emptyList());
+    final Snapshot updated =
+        index.replace(Collections.singleton(BOB), added);
+
+    assertTrue(updated.byPrefix(Field.FULL_NAME, "Bob", 10).isEmpty());
+    assertEquals(Arrays.asList(BOB),
+        ids(updated.byPrefix(Field.FULL_NAME, "Rob", 10)));
+    assertTrue(updated.byPrefix(Field.USER_NAME, "bob", 10).isEmpty());
+    assertEquals(Arrays.asList(ALBERT, ALICE),
+        ids(updated.byPrefix(Field.FULL_NAME, "Al", 10)));
+
+    // The original index is not modified.
+    assertEquals(Arrays.asList(BOB),
+        ids(index.byPrefix(Field.FULL_NAME, "Bob", 10)));
+  }
+
+  public void testReplaceKeepsKeysSorted() {
+    final Account.Id ann = new Account.Id(4);
+    final Account.Id zoe = new Account.Id(5);
+    final Map<Field, List<Match>> added = Snapshot.newFields();
+    Snapshot.addKeys(added, account(zoe, "Zoe", null),
+        Collections.<AccountExternalId> emptyList());
+    Snapshot.addKeys(added, account(ann, "Ann", null),
+        Collections.<AccountExternalId> emptyList());
+    Snapshot.addKeys(added, account(ALICE, "Alice Smith", "alice@example.com"),
+        Collections.<AccountExternalId> emptyList());
+    final Snapshot updated =
+        index.replace(new HashSet<Account.Id>(Arrays.asList(ALICE, ann, zoe)),
+            added);
+
+    assertEquals(Arrays.asList(ALBERT, ALICE, ann, BOB, zoe),
+        ids(updated.byPrefix(Field.FULL_NAME, "", 10)));
+    assertEquals(Arrays.asList(BOB),
+        ids(updated.byPrefix(Field.USER_NAME, "", 10)));
+    assertTrue(updated.byPrefix(Field.EMAIL_ADDRESS, "", 10).isEmpty());
+  }
+
+  public void testReplaceWithSameKeys() {
+    final Map<Field, List<Match>> added = Snapshot.newFields();
+    Snapshot.addKeys(added, account(BOB, "Bob", "bob@example.com"),
+        Collections.singletonList(
+            externalId(BOB, SCHEME_USERNAME + "bob", null)));
+    assertSame(index, index.replace(Collections.singleton(BOB), added));
+  }
+
+  public void testMatchesAccountState() {
+    final AccountState state = new AccountState(
+        account(ALICE, "Alice Smith", "alice@example.com"),
+        Collections.<AccountGroup.UUID> emptySet(),
+        Arrays.asList(externalId(ALICE, SCHEME_USERNAME + "asmith", null)));
+    assertTrue(AccountSuggestIndex.matches(state, "Alice"));
+    assertTrue(AccountSuggestIndex.matches(state, "alice@"));
+    assertTrue(AccountSuggestIndex.matches(state, "asm"));
+    assertFalse(AccountSuggestIndex.matches(state, "Smith"));
+  }
+
+  private static Account account(Account.Id id, String fullName,
+      String preferredEmail) {
+    final Account a = new Account(id);
+    a.setFullName(fullName);
+    a.setPreferredEmail(preferredEmail);
+    return a;
+  }
+
+  private static AccountExternalId externalId(Account.Id id, String key,
+      String email) {
+    final AccountExternalId e =
+        new AccountExternalId(id, new AccountExternalId.Key(key));
+    e.setEmailAddress(email);
+    return e;
+  }
+
+  private static List<Account.Id> ids(List<Match> matches) {
+    final List<Account.Id> r = new ArrayList<Account.Id>();
+    for (Match m : matches) {
+      r.add(m.getAccountId());
+    }
+    return r;
+  }
+}
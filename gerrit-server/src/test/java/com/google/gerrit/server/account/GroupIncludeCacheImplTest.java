@@ -0,0 +1,94 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import com.google.gerrit.reviewdb.client.AccountGroup;
+import com.google.gerrit.server.cache.ConcurrentHashMapCache;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public class GroupIncludeCacheImplTest extends TestCase {
+  private static final AccountGroup.UUID A = new AccountGroup.UUID("a");
+  private static final AccountGroup.UUID B = new AccountGroup.UUID("b");
+  private static final AccountGroup.UUID C = new AccountGroup.UUID("c");
+  private static final AccountGroup.UUID D = new AccountGroup.UUID("d");
+
+  private ConcurrentHashMapCache<AccountGroup.UUID, Collection<AccountGroup.UUID>> byInclude;
+  private GroupIncludeCacheImpl cache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    byInclude =
+        new ConcurrentHashMapCache<AccountGroup.UUID, Collection<AccountGroup.UUID>>();
+    // a is included in b, b in c, and c in a.
+    includedIn(A, B);
+    includedIn(B, C);
+    includedIn(C, A);
+    includedIn(D);
+    cache = new GroupIncludeCacheImpl(byInclude,
+        new ConcurrentHashMapCache<AccountGroup.UUID, Set<AccountGroup.UUID>>());
+  }
+
+  public void testClosureFollowsNestedGroups() {
+    assertEquals(set(A, B, C), cache.getAllByInclude(A));
+    assertEquals(set(A, B, C), cache.getAllByInclude(B));
+    assertEquals(set(D), cache.getAllByInclude(D));
+  }
+
+  public void testClosureIsCached() {
+    final Set<AccountGroup.UUID> first = cache.getAllByInclude(A);
+    assertSame(first, cache.getAllByInclude(A));
+  }
+
+  public void testEvictionInvalidatesDependentClosures() {
+    cache.getAllByInclude(A);
+    final Set<AccountGroup.UUID> d = cache.getAllByInclude(D);
+
+    // b is now included in d instead of c.
+    cache.evictInclude(B);
+    includedIn(B, D);
+
+    assertEquals(set(A, B, D), cache.getAllByInclude(A));
+    assertEquals(set(B, D), cache.getAllByInclude(B));
+    assertSame(d, cache.getAllByInclude(D));
+  }
+
+  public void testMembershipUsesClosure() {
+    final MaterializedGroupMembership m =
+        new MaterializedGroupMembership(cache, Collections.singleton(B));
+    assertTrue(m.contains(B));
+    assertTrue(m.contains(A));
+    assertFalse(m.contains(D));
+    assertTrue(m.containsAnyOf(Arrays.asList(D, C)));
+    assertFalse(m.containsAnyOf(Collections.singleton(D)));
+    assertEquals(set(A, B, C), m.getKnownGroups());
+  }
+
+  private void includedIn(AccountGroup.UUID group,
+      AccountGroup.UUID... parents) {
+    byInclude.put(group, Arrays.asList(parents));
+  }
+
+  private static Set<AccountGroup.UUID> set(AccountGroup.UUID... groups) {
+    return new HashSet<AccountGroup.UUID>(Arrays.asList(groups));
+  }
+}
@@ -0,0 +1,160 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.auth.ldap;
+
+import junit.framework.TestCase;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+
+public class LdapConnectionPoolTest extends TestCase {
+  private static class FakeContext extends InitialDirContext {
+    boolean closed;
+    boolean alive = true;
+    int checks;
+
+    FakeContext() throws NamingException {
+      super(true);
+    }
+
+    @Override
+    public Attributes getAttributes(String name, String[] attrIds)
+        throws NamingException {
+      checks++;
+      if (!alive) {
+        throw new CommunicationException("connection reset");
+      }
+      return new BasicAttributes();
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  private int opened;
+
+  private LdapConnectionPool newPool(int maxSize, long idleTimeout) {
+    return newPool(maxSize, idleTimeout,
+        LdapConnectionPool.HEALTH_CHECK_AFTER);
+  }
+
+  private LdapConnectionPool newPool(int maxSize, long idleTimeout,
+      long healthCheckAfter) {
+    return new LdapConnectionPool(new LdapConnectionPool.Factory() {
+      @Override
+      public DirContext open() throws NamingException {
+        opened++;
+        return new FakeContext();
+      }
+    }, maxSize, 10, idleTimeout, healthCheckAfter);
+  }
+
+  public void testReusesReleasedConnection() throws NamingException {
+    final LdapConnectionPool pool = newPool(2, 60000);
+    final DirContext a = pool.borrow();
+    pool.release(a, false);
+    assertSame(a, pool.borrow());
+    assertEquals(1, opened);
+  }
+
+  public void testBoundedSize() throws NamingException {
+    final LdapConnectionPool pool = newPool(2, 60000);
+    final DirContext a = pool.borrow();
+    pool.borrow();
+    try {
+      pool.borrow();
+      fail("Opened more connections than the pool size");
+    } catch (NamingException e) {
+      // Expected.
+    }
+    pool.release(a, false);
+    assertSame(a, pool.borrow());
+    assertEquals(2, opened);
+  }
+
+  public void testClosesForeignConnection() throws NamingException {
+    final LdapConnectionPool pool = newPool(2, 60000);
+    final FakeContext user = new FakeContext();
+    pool.release(user, false);
+    assertTrue(user.closed);
+    assertEquals(0, pool.getIdleCount());
+  }
+
+  public void testClosesIdleConnections() throws NamingException {
+    final LdapConnectionPool pool = newPool(2, 0);
+    final FakeContext a = (FakeContext) pool.borrow();
+    pool.release(a, false);
+    assertTrue(a.closed);
+    assertNotSame(a, pool.borrow());
+    assertEquals(2, opened);
+  }
+
+  public void testCloseIdle() throws NamingException {
+    final LdapConnectionPool pool = newPool(2, 60000);
+    final FakeContext a = (FakeContext) pool.borrow();
+    pool.release(a, false);
+    pool.closeIdle();
+    assertTrue(a.closed);
+    assertEquals(0, pool.getIdleCount());
+  }
+
+  public void testDiscardsBrokenConnection() throws NamingException {
+    final LdapConnectionPool pool = newPool(1, 60000);
+    final FakeContext a = (FakeContext) pool.borrow();
+    pool.release(a, true);
+    assertTrue(a.closed);
+    assertEquals(0, pool.getIdleCount());
+
+    // The permit was returned, so the pool is not left exhausted.
+    assertNotSame(a, pool.borrow());
+    assertEquals(2, opened);
+  }
+
+  public void testSkipsHealthCheckOfRecentConnection() throws NamingException {
+    final LdapConnectionPool pool = newPool(1, 60000);
+    final FakeContext a = (FakeContext) pool.borrow();
+    pool.release(a, false);
+    a.alive = false;
+    assertSame(a, pool.borrow());
+    assertEquals(0, a.checks);
+  }
+
+  public void testHealthCheckKeepsLiveConnection() throws NamingException {
+    final LdapConnectionPool pool = newPool(1, 60000, 0);
+    final FakeContext a = (FakeContext) pool.borrow();
+    pool.release(a, false);
+    assertSame(a, pool.borrow());
+    assertEquals(1, a.checks);
+    assertFalse(a.closed);
+    assertEquals(1, opened);
+  }
+
+  public void testHealthCheckDiscardsDeadConnection() throws NamingException {
+    final LdapConnectionPool pool = newPool(1, 60000, 0);
+    final FakeContext a = (FakeContext) pool.borrow();
+    pool.release(a, false);
+    a.alive = false;
+    assertNotSame(a, pool.borrow());
+    assertEquals(1, a.checks);
+    assertTrue(a.closed);
+    assertEquals(2, opened);
+  }
+}
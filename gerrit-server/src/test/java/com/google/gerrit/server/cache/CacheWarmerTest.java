@@ -0,0 +1,59 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import junit.framework.TestCase;
+
+public class CacheWarmerTest extends TestCase {
+  private ConcurrentHashMapCache<String, String> cache;
+  private CacheWarmer<String, String> warmer;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    cache = new ConcurrentHashMapCache<String, String>();
+    warmer = new CacheWarmer<String, String>(cache);
+  }
+
+  public void testPutsEntries() {
+    warmer.begin();
+    warmer.put("a", "1");
+    warmer.put("b", "2");
+    warmer.end();
+    assertEquals("1", cache.get("a"));
+    assertEquals("2", cache.get("b"));
+  }
+
+  public void testDiscardsEntriesEvictedWhileWarming() {
+    warmer.begin();
+    // "a" is updated after being read, but before it is put.
+    cache.remove("a");
+    warmer.evicted("a");
+    warmer.put("a", "stale");
+    warmer.put("b", "2");
+    warmer.end();
+    assertNull(cache.get("a"));
+    assertEquals("2", cache.get("b"));
+  }
+
+  public void testIgnoresEvictionsOutsideWarmUp() {
+    warmer.evicted("a");
+    warmer.begin();
+    warmer.put("a", "1");
+    warmer.end();
+    warmer.evicted("a");
+    assertEquals("1", cache.get("a"));
+  }
+}
@@ -0,0 +1,131 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.events;
+
+import com.google.gerrit.reviewdb.client.Branch;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.config.SitePaths;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+public class EventJournalTest extends TestCase {
+  private File root;
+  private Config cfg;
+  private Project.NameKey project;
+  private Branch.NameKey branch;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    root = new File(new File("target"), "random-name-" + UUID.randomUUID());
+    assertTrue(root.mkdirs());
+    cfg = new Config();
+    cfg.setString("events", null, "journalDirectory", "journal");
+    project = new Project.NameKey("p");
+    branch = new Branch.NameKey(project, "refs/heads/master");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    delete(root);
+    super.tearDown();
+  }
+
+  public void testDisabled() throws IOException {
+    final EventJournal j = new EventJournal(new Config(), new SitePaths(root));
+    assertFalse(j.isEnabled());
+    assertNull(j.read(0).next());
+  }
+
+  public void testAppendAndRead() throws IOException {
+    final EventJournal j = open();
+    assertTrue(j.isEnabled());
+    assertEquals(0, j.getLastSequence());
+
+    final RefUpdatedEvent a = new RefUpdatedEvent();
+    j.append(project, branch, null, false, a);
+    final RefUpdatedEvent b = new RefUpdatedEvent();
+    j.append(project, branch, new Change.Id(7), true, b);
+    assertEquals(Long.valueOf(1), a.seq);
+    assertEquals(Long.valueOf(2), b.seq);
+    assertEquals(2, j.getLastSequence());
+
+    EventJournal.Reader r = j.read(0);
+    EventJournal.Record rec = r.next();
+    assertNotNull(rec);
+    assertEquals(1, rec.getSequence());
+    assertEquals(branch, rec.getBranch());
+    assertNull(rec.getChangeId());
+    assertFalse(rec.isDraft());
+    assertTrue(rec.getEvent().contains("\"ref-updated\""));
+
+    rec = r.next();
+    assertNotNull(rec);
+    assertEquals(2, rec.getSequence());
+    assertEquals(new Change.Id(7), rec.getChangeId());
+    assertTrue(rec.isDraft());
+    assertNull(r.next());
+
+    r = j.read(1);
+    assertEquals(2, r.next().getSequence());
+    assertNull(r.next());
+    j.close();
+  }
+
+  public void testReaderStopsAtOpen() throws IOException {
+    final EventJournal j = open();
+    j.append(project, branch, null, false, new RefUpdatedEvent());
+    final EventJournal.Reader r = j.read(0);
+    j.append(project, branch, null, false, new RefUpdatedEvent());
+    assertEquals(1, r.next().getSequence());
+    assertNull(r.next());
+    j.close();
+  }
+
+  public void testSequenceSurvivesRestart() throws IOException {
+    EventJournal j = open();
+    j.append(project, branch, null, false, new RefUpdatedEvent());
+    j.append(project, branch, null, false, new RefUpdatedEvent());
+    j.close();
+
+    j = open();
+    assertEquals(2, j.getLastSequence());
+    final RefUpdatedEvent e = new RefUpdatedEvent();
+    j.append(project, branch, null, false, e);
+    assertEquals(Long.valueOf(3), e.seq);
+    j.close();
+  }
+
+  private EventJournal open() throws IOException {
+    return new EventJournal(cfg, new SitePaths(root));
+  }
+
+  private static void delete(final File f) {
+    final File[] children = f.listFiles();
+    if (children != null) {
+      for (File c : children) {
+        delete(c);
+      }
+    }
+    f.delete();
+  }
+}
@@ -14,14 +14,22 @@
 
 package com.google.gerrit.server.git;
 
+import static com.google.gerrit.server.git.PushReplication.ReplicationConfig.backoff;
 import static com.google.gerrit.server.git.PushReplication.ReplicationConfig.encode;
+import static com.google.gerrit.server.git.PushReplication.ReplicationConfig.mergeFailed;
 import static com.google.gerrit.server.git.PushReplication.ReplicationConfig.needsUrlEncoding;
 
+import com.google.gerrit.reviewdb.client.Project;
+
 import junit.framework.TestCase;
 
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.transport.RemoteConfig;
 import org.eclipse.jgit.transport.URIish;
 
 import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.Random;
 
 public class PushReplicationTest extends TestCase {
   public void testNeedsUrlEncoding() throws URISyntaxException {
@@ -41,4 +49,82 @@ public class PushReplicationTest extends TestCase {
     assertEquals("name/with%20a%20space", encode("name/with a space"));
     assertEquals("name%0Awith-LF", encode("name\nwith-LF"));
   }
+
+  public void testBackoff() {
+    final Random rnd = new Random(42);
+    assertBetween(60, 75, backoff(1, 1, 60, rnd));
+    assertBetween(120, 150, backoff(2, 1, 60, rnd));
+    assertBetween(240, 300, backoff(3, 1, 60, rnd));
+    assertBetween(3600, 4500, backoff(7, 1, 60, rnd));
+    assertBetween(3600, 4500, backoff(100, 1, 60, rnd));
+    assertEquals(0, backoff(5, 0, 60, rnd));
+  }
+
+  public void testFailedBulkPushLeavesInteractivePushPending()
+      throws URISyntaxException {
+    final PushOp failed = op(PushOp.ALL_REFS);
+    failed.setBulk(true);
+    final PushOp waiting = op("refs/heads/master");
+
+    assertNull(mergeFailed(failed, waiting));
+    assertFalse(waiting.wasCanceled());
+    assertFalse(waiting.isBulk());
+    assertFalse(waiting.isRetrying());
+    assertEquals(Collections.singleton(PushOp.ALL_REFS), waiting.getRefs());
+  }
+
+  public void testFailedPushTakesOverPendingPush() throws URISyntaxException {
+    final PushOp failed = op("refs/heads/master");
+    final PushOp waiting = op("refs/heads/stable");
+
+    assertSame(failed, mergeFailed(failed, waiting));
+    assertTrue(waiting.wasCanceled());
+    assertTrue(failed.getRefs().contains("refs/heads/master"));
+    assertTrue(failed.getRefs().contains("refs/heads/stable"));
+  }
+
+  public void testFailedInteractivePushTakesOverBulkPush()
+      throws URISyntaxException {
+    final PushOp failed = op("refs/heads/master");
+    final PushOp waiting = op(PushOp.ALL_REFS);
+    waiting.setBulk(true);
+
+    assertSame(failed, mergeFailed(failed, waiting));
+    assertTrue(waiting.wasCanceled());
+    assertEquals(Collections.singleton(PushOp.ALL_REFS), failed.getRefs());
+  }
+
+  public void testRetryingPushTakesOverFailedPush() throws URISyntaxException {
+    final PushOp failed = op("refs/heads/master");
+    final PushOp waiting = op("refs/heads/stable");
+    waiting.setToRetry();
+
+    assertNull(mergeFailed(failed, waiting));
+    assertFalse(waiting.wasCanceled());
+    assertTrue(waiting.getRefs().contains("refs/heads/master"));
+  }
+
+  public void testFailedPushWithNothingPending() throws URISyntaxException {
+    final PushOp failed = op("refs/heads/master");
+    assertSame(failed, mergeFailed(failed, null));
+  }
+
+  private static PushOp op(String ref) throws URISyntaxException {
+    final PushOp op = new PushOp(null, null, null,
+        new RemoteConfig(new Config(), "mirror"),
+        new SecureCredentialsProvider.Factory() {
+          @Override
+          public SecureCredentialsProvider create(String remoteName) {
+            return null;
+          }
+        }, null, new Project.NameKey("project"),
+        new URIish("ssh://mirror.example.com/project.git"));
+    op.addRef(ref);
+    return op;
+  }
+
+  private static void assertBetween(long min, long max, long actual) {
+    assertTrue(actual + " < " + min, min <= actual);
+    assertTrue(actual + " > " + max, actual <= max);
+  }
 }
@@ -0,0 +1,115 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.RemoteSession;
+import org.eclipse.jgit.transport.SshSessionFactory;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.util.FS;
+
+import java.util.concurrent.TimeUnit;
+
+public class SshSessionPoolTest extends TestCase {
+  private static class FakeSession implements RemoteSession {
+    @Override
+    public Process exec(String commandName, int timeout) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void disconnect() {
+    }
+  }
+
+  private static class FakeFactory extends SshSessionFactory {
+    int opened;
+    int released;
+
+    @Override
+    public RemoteSession getSession(URIish uri,
+        CredentialsProvider credentialsProvider, FS fs, int tms) {
+      opened++;
+      return new FakeSession();
+    }
+
+    @Override
+    public void releaseSession(RemoteSession session) {
+      released++;
+    }
+  }
+
+  private FakeFactory delegate;
+  private URIish uri;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    delegate = new FakeFactory();
+    uri = new URIish("ssh://git@mirror.example.com/project.git");
+  }
+
+  public void testReusesReleasedSession() throws Exception {
+    final SshSessionPool pool = newPool(2, 60);
+    pool.getSession(uri, null, FS.DETECTED, 0).disconnect();
+    pool.getSession(uri, null, FS.DETECTED, 0).disconnect();
+    assertEquals(1, delegate.opened);
+    assertEquals(0, delegate.released);
+  }
+
+  public void testOpensAnotherSessionPastChannelLimit() throws Exception {
+    final SshSessionPool pool = newPool(2, 60);
+    pool.getSession(uri, null, FS.DETECTED, 0);
+    pool.getSession(uri, null, FS.DETECTED, 0);
+    assertEquals(1, delegate.opened);
+
+    final RemoteSession third = pool.getSession(uri, null, FS.DETECTED, 0);
+    assertEquals(2, delegate.opened);
+
+    // The freed channel is reused instead of opening a third session.
+    third.disconnect();
+    pool.getSession(uri, null, FS.DETECTED, 0);
+    assertEquals(2, delegate.opened);
+  }
+
+  public void testSeparatesSessionsByHost() throws Exception {
+    final SshSessionPool pool = newPool(2, 60);
+    pool.getSession(uri, null, FS.DETECTED, 0).disconnect();
+    pool.getSession(new URIish("ssh://git@other.example.com/project.git"),
+        null, FS.DETECTED, 0).disconnect();
+    assertEquals(2, delegate.opened);
+  }
+
+  public void testCloseIdleDisconnectsUnusedSessions() throws Exception {
+    final SshSessionPool pool = newPool(2, 0);
+    final RemoteSession leased = pool.getSession(uri, null, FS.DETECTED, 0);
+    pool.closeIdle();
+    assertEquals(0, delegate.released);
+
+    leased.disconnect();
+    pool.closeIdle();
+    assertEquals(1, delegate.released);
+
+    pool.getSession(uri, null, FS.DETECTED, 0);
+    assertEquals(2, delegate.opened);
+  }
+
+  private SshSessionPool newPool(int maxChannels, long idleSeconds) {
+    return new SshSessionPool(delegate, maxChannels, idleSeconds,
+        TimeUnit.SECONDS);
+  }
+}
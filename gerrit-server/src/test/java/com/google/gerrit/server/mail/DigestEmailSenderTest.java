@@ -0,0 +1,215 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.mail;
+
+import com.google.gerrit.reviewdb.client.Account;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class DigestEmailSenderTest extends TestCase {
+  private static final Address FROM = new Address("Gerrit", "gerrit@example.com");
+  private static final Address ALICE = new Address("alice@example.com");
+  private static final Address BOB = new Address("bob@example.com");
+  private static final Address CAROL = new Address("carol@example.com");
+
+  private static class Sent {
+    final Address from;
+    final List<Address> rcpt;
+    final Map<String, EmailHeader> headers;
+    final String body;
+
+    Sent(Address from, Collection<Address> rcpt,
+        Map<String, EmailHeader> headers, String body) {
+      this.from = from;
+      this.rcpt = new ArrayList<Address>(rcpt);
+      this.headers = headers;
+      this.body = body;
+    }
+
+    String getSubject() {
+      return ((EmailHeader.String) headers.get("Subject")).getString();
+    }
+  }
+
+  private static class RecordingSender implements EmailSender {
+    final List<Sent> sent = new ArrayList<Sent>();
+
+    @Override
+    public boolean isEnabled() {
+      return true;
+    }
+
+    @Override
+    public boolean canEmail(String address) {
+      return true;
+    }
+
+    @Override
+    public synchronized void send(Address from, Collection<Address> rcpt,
+        Map<String, EmailHeader> headers, String body) {
+      sent.add(new Sent(from, rcpt, headers, body));
+    }
+  }
+
+  private RecordingSender delivery;
+  private ScheduledThreadPoolExecutor queue;
+  private DigestEmailSender sender;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    delivery = new RecordingSender();
+    queue = new ScheduledThreadPoolExecutor(1);
+    sender = newSender(TimeUnit.HOURS.toMillis(1));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    queue.shutdownNow();
+    super.tearDown();
+  }
+
+  public void testSendsOtherEmailImmediately() throws EmailException {
+    final Map<String, EmailHeader> headers =
+        new LinkedHashMap<String, EmailHeader>();
+    headers.put("Subject", new EmailHeader.String("Verify your address"));
+    sender.send(FROM, Arrays.asList(ALICE), headers, "body");
+    assertEquals(1, delivery.sent.size());
+  }
+
+  public void testSendsImmediatelyWithoutWindow() throws EmailException {
+    sender = newSender(0);
+    send("change 1", ALICE);
+    assertEquals(1, delivery.sent.size());
+  }
+
+  public void testHoldsChangeEmailUntilFlush() throws EmailException {
+    send("change 1", ALICE);
+    assertTrue(delivery.sent.isEmpty());
+    sender.flush();
+    assertEquals(1, delivery.sent.size());
+    assertEquals("change 1", delivery.sent.get(0).getSubject());
+  }
+
+  public void testDigestsOnlyRecipientsOfSeveralEmails()
+      throws EmailException {
+    send("change 1", ALICE, BOB);
+    send("change 2", ALICE);
+    sender.flush();
+    assertEquals(2, delivery.sent.size());
+
+    final Sent digest = sentTo(ALICE);
+    assertEquals(1, digest.rcpt.size());
+    assertEquals("Digest of 2 change notifications", digest.getSubject());
+    assertTrue(digest.body.indexOf("Subject: change 1")
+        < digest.body.indexOf("Subject: change 2"));
+    assertTrue(digest.body.contains("body of change 2"));
+
+    final Sent unchanged = sentTo(BOB);
+    assertEquals(1, unchanged.rcpt.size());
+    assertEquals("change 1", unchanged.getSubject());
+    assertSame(FROM, unchanged.from);
+  }
+
+  public void testSendsUnchangedEmailOnceForAllRecipients()
+      throws EmailException {
+    send("change 1", ALICE, BOB);
+    send("change 2", CAROL);
+    sender.flush();
+    assertEquals(2, delivery.sent.size());
+
+    final Sent first = sentTo(ALICE);
+    assertEquals("change 1", first.getSubject());
+    assertEquals(Arrays.asList(ALICE, BOB), first.rcpt);
+    assertEquals("change 2", sentTo(CAROL).getSubject());
+  }
+
+  public void testSplitsLongBursts() throws EmailException {
+    for (int i = 0; i < DigestEmailSender.MAX_DIGEST_SIZE + 1; i++) {
+      send("change " + i, ALICE);
+    }
+    sender.flush();
+    assertEquals(2, delivery.sent.size());
+    assertEquals("Digest of " + DigestEmailSender.MAX_DIGEST_SIZE
+        + " change notifications", delivery.sent.get(0).getSubject());
+    assertEquals("Digest of 1 change notifications",
+        delivery.sent.get(1).getSubject());
+    assertTrue(delivery.sent.get(1).body.contains("Subject: change "
+        + DigestEmailSender.MAX_DIGEST_SIZE + "\n"));
+  }
+
+  public void testFlushesOnStop() throws EmailException {
+    send("change 1", ALICE);
+    new DigestEmailSender.Lifecycle(sender).stop();
+    assertEquals(1, delivery.sent.size());
+  }
+
+  public void testFlushesAfterWindow() throws Exception {
+    sender = newSender(1);
+    send("change 1", ALICE);
+    final long end = System.currentTimeMillis() + 5000;
+    while (sentCount() == 0 && System.currentTimeMillis() < end) {
+      Thread.sleep(10);
+    }
+    assertEquals(1, sentCount());
+  }
+
+  private DigestEmailSender newSender(long window) {
+    return new DigestEmailSender(window, delivery, new FromAddressGenerator() {
+      @Override
+      public boolean isGenericAddress(Account.Id fromId) {
+        return true;
+      }
+
+      @Override
+      public Address from(Account.Id fromId) {
+        return FROM;
+      }
+    }, queue);
+  }
+
+  private void send(String subject, Address... rcpt) throws EmailException {
+    final Map<String, EmailHeader> headers =
+        new LinkedHashMap<String, EmailHeader>();
+    headers.put("Subject", new EmailHeader.String(subject));
+    headers.put("X-Gerrit-Change-Id", new EmailHeader.String("I" + subject));
+    sender.send(FROM, Arrays.asList(rcpt), headers, "body of " + subject);
+  }
+
+  private Sent sentTo(Address a) {
+    for (Sent s : delivery.sent) {
+      if (s.rcpt.contains(a)) {
+        return s;
+      }
+    }
+    fail("Nothing sent to " + a);
+    return null;
+  }
+
+  private int sentCount() {
+    synchronized (delivery) {
+      return delivery.sent.size();
+    }
+  }
+}
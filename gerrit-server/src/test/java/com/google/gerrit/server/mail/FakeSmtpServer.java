@@ -0,0 +1,187 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.mail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Minimal SMTP server on the loopback interface, recording what it gets. */
+class FakeSmtpServer {
+  private final ServerSocket server;
+  private final List<Socket> clients = new ArrayList<Socket>();
+  private final List<String> commands = new ArrayList<String>();
+  private final List<String> messages = new ArrayList<String>();
+  private int connections;
+
+  volatile String greeting = "220 fake ESMTP";
+  volatile String mailFromReply = "250 OK";
+
+  /** Replies to {@code RCPT TO}, by address; others are accepted. */
+  final Map<String, String> rcptToReplies =
+      new ConcurrentHashMap<String, String>();
+
+  /** @param port port to listen on; 0 picks a free one. */
+  FakeSmtpServer(int port) throws IOException {
+    server = new ServerSocket();
+    server.setReuseAddress(true);
+    server.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"),
+        port));
+
+    final Thread t = new Thread("FakeSmtpServer-" + getPort()) {
+      @Override
+      public void run() {
+        accept();
+      }
+    };
+    t.setDaemon(true);
+    t.start();
+  }
+
+  int getPort() {
+    return server.getLocalPort();
+  }
+
+  synchronized int getConnections() {
+    return connections;
+  }
+
+  synchronized List<String> getCommands() {
+    return new ArrayList<String>(commands);
+  }
+
+  synchronized List<String> getMessages() {
+    return new ArrayList<String>(messages);
+  }
+
+  /** Wait until at least {@code n} messages were received. */
+  synchronized List<String> awaitMessages(int n, long timeoutMillis)
+      throws InterruptedException {
+    final long end = System.currentTimeMillis() + timeoutMillis;
+    while (messages.size() < n) {
+      final long wait = end - System.currentTimeMillis();
+      if (wait <= 0) {
+        break;
+      }
+      wait(wait);
+    }
+    return new ArrayList<String>(messages);
+  }
+
+  /** Stop listening and drop all connections. */
+  void close() throws IOException {
+    server.close();
+    synchronized (this) {
+      for (Socket s : clients) {
+        s.close();
+      }
+      clients.clear();
+    }
+  }
+
+  private void accept() {
+    for (;;) {
+      final Socket s;
+      try {
+        s = server.accept();
+      } catch (IOException e) {
+        return;
+      }
+      synchronized (this) {
+        connections++;
+        clients.add(s);
+      }
+      final Thread t = new Thread("FakeSmtpServer-session") {
+        @Override
+        public void run() {
+          try {
+            session(s);
+          } catch (IOException e) {
+            // The client or the test closed the connection.
+          } finally {
+            try {
+              s.close();
+            } catch (IOException e) {
+            }
+          }
+        }
+      };
+      t.setDaemon(true);
+      t.start();
+    }
+  }
+
+  private void session(Socket s) throws IOException {
+    final BufferedReader in = new BufferedReader(
+        new InputStreamReader(s.getInputStream(), "UTF-8"));
+    final OutputStream out = s.getOutputStream();
+    reply(out, greeting);
+    if (!greeting.startsWith("2")) {
+      return;
+    }
+
+    String line;
+    while ((line = in.readLine()) != null) {
+      synchronized (this) {
+        commands.add(line);
+      }
+      final String cmd = line.toUpperCase();
+      if (cmd.startsWith("EHLO") || cmd.startsWith("HELO")) {
+        reply(out, "250 fake");
+      } else if (cmd.startsWith("MAIL FROM:")) {
+        reply(out, mailFromReply);
+      } else if (cmd.startsWith("RCPT TO:")) {
+        final String addr = line.substring(line.indexOf('<') + 1,
+            line.lastIndexOf('>'));
+        final String rcptReply = rcptToReplies.get(addr);
+        reply(out, rcptReply != null ? rcptReply : "250 OK");
+      } else if (cmd.equals("RSET") || cmd.equals("NOOP")) {
+        reply(out, "250 OK");
+      } else if (cmd.equals("DATA")) {
+        reply(out, "354 End data with <CR><LF>.<CR><LF>");
+        final StringBuilder data = new StringBuilder();
+        while ((line = in.readLine()) != null && !line.equals(".")) {
+          data.append(line.startsWith(".") ? line.substring(1) : line);
+          data.append('\n');
+        }
+        synchronized (this) {
+          messages.add(data.toString());
+          notifyAll();
+        }
+        reply(out, "250 OK queued");
+      } else if (cmd.equals("QUIT")) {
+        reply(out, "221 Bye");
+        return;
+      } else {
+        reply(out, "502 Command not implemented");
+      }
+    }
+  }
+
+  private static void reply(OutputStream out, String reply)
+      throws IOException {
+    out.write((reply + "\r\n").getBytes("UTF-8"));
+    out.flush();
+  }
+}
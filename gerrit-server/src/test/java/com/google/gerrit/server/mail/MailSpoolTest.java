@@ -0,0 +1,170 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.mail;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.Config;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class MailSpoolTest extends TestCase {
+  private File dir;
+  private ScheduledThreadPoolExecutor pool;
+  private FakeSmtpServer server;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    dir = File.createTempFile("spool", "");
+    dir.delete();
+    dir.mkdir();
+    pool = new ScheduledThreadPoolExecutor(1);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    pool.shutdownNow();
+    if (server != null) {
+      server.close();
+    }
+    for (File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+    super.tearDown();
+  }
+
+  public void testRetryDelayDoubles() {
+    assertEquals(1000, MailSpool.retryDelay(1000, 1));
+    assertEquals(2000, MailSpool.retryDelay(1000, 2));
+    assertEquals(4000, MailSpool.retryDelay(1000, 3));
+    assertEquals(TimeUnit.HOURS.toMillis(1),
+        MailSpool.retryDelay(TimeUnit.MINUTES.toMillis(1), 10));
+    assertEquals(TimeUnit.HOURS.toMillis(1),
+        MailSpool.retryDelay(TimeUnit.MINUTES.toMillis(1), 1000));
+  }
+
+  public void testKeepsMessageWhileServerRefusesConnections()
+      throws Exception {
+    // Find a free port, then leave nothing listening on it.
+    server = new FakeSmtpServer(0);
+    final int port = server.getPort();
+    server.close();
+    server = null;
+
+    final Config cfg = new Config();
+    cfg.setString("sendemail", null, "smtpserver", "127.0.0.1");
+    cfg.setInt("sendemail", null, "smtpserverport", port);
+    final SmtpEmailSender sender = new SmtpEmailSender(cfg, null, null);
+    final MailStatistics stats = new MailStatistics();
+    final MailSpool spool = new MailSpool(sender, dir, pool, 10,
+        TimeUnit.HOURS.toMillis(1), stats);
+
+    spool.add(SmtpEmailSenderTest.message("spooled"));
+    final long end = System.currentTimeMillis() + 5000;
+    while (stats.getRetries() < 2 && System.currentTimeMillis() < end) {
+      Thread.sleep(10);
+    }
+    assertTrue(stats.getRetries() >= 2);
+    assertEquals(0, stats.getFailures());
+    assertEquals(1, spooled());
+    assertEquals(1, stats.getPending());
+
+    server = new FakeSmtpServer(port);
+    assertEquals(1, server.awaitMessages(1, 10000).size());
+    while (spooled() > 0 && System.currentTimeMillis() < end + 10000) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, spooled());
+    assertEquals(1, stats.getSent());
+    assertEquals(0, stats.getPending());
+  }
+
+  public void testDropsPermanentlyRejectedMessage() throws Exception {
+    server = new FakeSmtpServer(0);
+    server.mailFromReply = "550 Sender not allowed";
+    final Config cfg = new Config();
+    cfg.setString("sendemail", null, "smtpserver", "127.0.0.1");
+    cfg.setInt("sendemail", null, "smtpserverport", server.getPort());
+    final MailStatistics stats = new MailStatistics();
+    final MailSpool spool = new MailSpool(new SmtpEmailSender(cfg, null, null),
+        dir, pool, 10, TimeUnit.HOURS.toMillis(1), stats);
+
+    spool.add(SmtpEmailSenderTest.message("rejected"));
+    final long end = System.currentTimeMillis() + 5000;
+    while (spooled() > 0 && System.currentTimeMillis() < end) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, spooled());
+    assertEquals(1, stats.getFailures());
+    assertEquals(0, stats.getRetries());
+  }
+
+  public void testRetriesOnlyDeferredRecipients() throws Exception {
+    server = new FakeSmtpServer(0);
+    server.rcptToReplies.put("b@example.com", "450 Mailbox busy");
+    final Config cfg = new Config();
+    cfg.setString("sendemail", null, "smtpserver", "127.0.0.1");
+    cfg.setInt("sendemail", null, "smtpserverport", server.getPort());
+    final MailStatistics stats = new MailStatistics();
+    final MailSpool spool = new MailSpool(new SmtpEmailSender(cfg, null, null),
+        dir, pool, 50, TimeUnit.HOURS.toMillis(1), stats);
+
+    spool.add(SmtpEmailSenderTest.message("partial", "a@example.com",
+        "b@example.com"));
+    assertEquals(1, server.awaitMessages(1, 5000).size());
+    final long end = System.currentTimeMillis() + 5000;
+    while (stats.getRetries() < 1 && System.currentTimeMillis() < end) {
+      Thread.sleep(10);
+    }
+    assertEquals(1, spooled());
+    assertEquals(Arrays.asList("b@example.com"),
+        SmtpMessage.read(spoolFiles()[0]).getRecipients());
+
+    server.rcptToReplies.clear();
+    assertEquals(2, server.awaitMessages(2, 10000).size());
+    while (spooled() > 0 && System.currentTimeMillis() < end + 10000) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, spooled());
+    assertEquals(0, stats.getFailures());
+
+    int toA = 0;
+    for (String c : server.getCommands()) {
+      if (c.equals("RCPT TO:<a@example.com>")) {
+        toA++;
+      }
+    }
+    assertEquals(1, toA);
+  }
+
+  private int spooled() {
+    return spoolFiles().length;
+  }
+
+  private File[] spoolFiles() {
+    return dir.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File d, String name) {
+        return name.endsWith(".msg");
+      }
+    });
+  }
+}
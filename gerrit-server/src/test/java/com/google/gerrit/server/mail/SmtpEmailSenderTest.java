@@ -0,0 +1,163 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.mail;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class SmtpEmailSenderTest extends TestCase {
+  private FakeSmtpServer server;
+  private Config cfg;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    server = new FakeSmtpServer(0);
+    cfg = new Config();
+    cfg.setString("sendemail", null, "smtpserver", "127.0.0.1");
+    cfg.setInt("sendemail", null, "smtpserverport", server.getPort());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.close();
+    super.tearDown();
+  }
+
+  public void testReusesConnection() throws Exception {
+    final SmtpEmailSender sender = newSender();
+    sender.deliver(message("first"));
+    sender.deliver(message("second"));
+
+    final List<String> messages = server.awaitMessages(2, 5000);
+    assertEquals(2, messages.size());
+    assertTrue(messages.get(0).contains("first"));
+    assertTrue(messages.get(1).contains("second"));
+    assertEquals(1, server.getConnections());
+    assertTrue(server.getCommands().contains("RSET"));
+    assertEquals(1, sender.getStatistics().getConnections());
+  }
+
+  public void testReconnectsAfterMaxMessages() throws Exception {
+    cfg.setInt("sendemail", null, "maxMessagesPerConnection", 2);
+    final SmtpEmailSender sender = newSender();
+    sender.deliver(message("1"));
+    sender.deliver(message("2"));
+    sender.deliver(message("3"));
+
+    assertEquals(3, server.awaitMessages(3, 5000).size());
+    assertEquals(2, server.getConnections());
+  }
+
+  public void testReconnectsAfterIdleTimeout() throws Exception {
+    cfg.setString("sendemail", null, "connectionIdleTimeout", "1 ms");
+    final SmtpEmailSender sender = newSender();
+    sender.deliver(message("1"));
+    Thread.sleep(20);
+    sender.deliver(message("2"));
+
+    assertEquals(2, server.awaitMessages(2, 5000).size());
+    assertEquals(2, server.getConnections());
+    assertFalse(server.getCommands().contains("RSET"));
+  }
+
+  public void testTransientRejectionIsTemporary() throws Exception {
+    server.mailFromReply = "451 Try again later";
+    try {
+      newSender().deliver(message("body"));
+      fail("Message was accepted");
+    } catch (SmtpEmailSender.TemporaryFailure e) {
+      // Expected.
+    }
+  }
+
+  public void testPermanentRejectionIsNotTemporary() throws Exception {
+    server.mailFromReply = "550 Sender not allowed";
+    try {
+      newSender().deliver(message("body"));
+      fail("Message was accepted");
+    } catch (SmtpEmailSender.TemporaryFailure e) {
+      fail("Permanent rejection reported as temporary");
+    } catch (EmailException e) {
+      // Expected.
+    }
+  }
+
+  public void testTransientRecipientRejectionDefersRecipient()
+      throws Exception {
+    server.rcptToReplies.put("b@example.com", "450 Mailbox busy");
+    try {
+      newSender().deliver(message("body", "a@example.com", "b@example.com"));
+      fail("Message was accepted for all recipients");
+    } catch (SmtpEmailSender.TemporaryFailure e) {
+      assertEquals(Collections.singletonList("b@example.com"),
+          e.getDeferredRecipients());
+    }
+    assertEquals(1, server.awaitMessages(1, 5000).size());
+  }
+
+  public void testPermanentRecipientRejectionIsNotTemporary()
+      throws Exception {
+    server.rcptToReplies.put("b@example.com", "550 No such user");
+    try {
+      newSender().deliver(message("body", "a@example.com", "b@example.com"));
+      fail("Message was accepted for all recipients");
+    } catch (SmtpEmailSender.TemporaryFailure e) {
+      fail("Permanent rejection reported as temporary");
+    } catch (EmailException e) {
+      // Expected.
+    }
+    assertEquals(1, server.awaitMessages(1, 5000).size());
+  }
+
+  public void testTransientGreetingIsTemporary() throws Exception {
+    server.greeting = "421 Too many connections";
+    try {
+      newSender().deliver(message("body"));
+      fail("Message was accepted");
+    } catch (SmtpEmailSender.TemporaryFailure e) {
+      // Expected.
+    }
+  }
+
+  public void testRefusedConnectionIsTemporary() throws Exception {
+    server.close();
+    try {
+      newSender().deliver(message("body"));
+      fail("Message was accepted");
+    } catch (SmtpEmailSender.TemporaryFailure e) {
+      // Expected.
+    }
+  }
+
+  private SmtpEmailSender newSender() {
+    // Without sendemail.spoolDirectory the site and work queue are unused.
+    return new SmtpEmailSender(cfg, null, null);
+  }
+
+  static SmtpMessage message(String body) {
+    return message(body, "a@example.com");
+  }
+
+  static SmtpMessage message(String body, String... rcpt) {
+    return new SmtpMessage("gerrit@example.com", Arrays.asList(rcpt),
+        "Subject: test\r\n\r\n" + body + "\r\n");
+  }
+}
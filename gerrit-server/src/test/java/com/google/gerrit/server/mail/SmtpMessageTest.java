@@ -0,0 +1,90 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.mail;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class SmtpMessageTest extends TestCase {
+  private File file;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    file = File.createTempFile("smtp", ".msg");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    file.delete();
+    super.tearDown();
+  }
+
+  public void testRoundTrip() throws IOException {
+    final String data = "Subject: Change in gerrit[master]: Caf\u00e9\r\n"
+        + "\r\n" + "Hello\n\nA line\r\n.\r\n";
+    final SmtpMessage in = new SmtpMessage("gerrit@example.com",
+        Arrays.asList("a@example.com", "b@example.com"), data);
+    in.write(file);
+
+    final SmtpMessage out = SmtpMessage.read(file);
+    assertEquals("gerrit@example.com", out.getSender());
+    assertEquals(in.getRecipients(), out.getRecipients());
+    assertEquals(data, out.getData());
+  }
+
+  public void testNoRecipients() throws IOException {
+    new SmtpMessage("gerrit@example.com", Collections.<String> emptyList(),
+        "").write(file);
+
+    final SmtpMessage out = SmtpMessage.read(file);
+    assertTrue(out.getRecipients().isEmpty());
+    assertEquals("", out.getData());
+  }
+
+  public void testRejectsTruncatedEnvelope() throws IOException {
+    write("MAIL FROM:<gerrit@example.com>\nRCPT TO:<a@example.com>\n");
+    try {
+      SmtpMessage.read(file);
+      fail("Accepted truncated envelope");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  public void testRejectsMissingSender() throws IOException {
+    write("RCPT TO:<a@example.com>\n\nbody");
+    try {
+      SmtpMessage.read(file);
+      fail("Accepted message without sender");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  private void write(String content) throws IOException {
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(content.getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,211 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.reviewdb.client.Patch;
+import com.google.gerrit.reviewdb.client.Patch.ChangeType;
+import com.google.gerrit.reviewdb.client.Patch.PatchType;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.ReplaceEdit;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class DiffCodecTest extends TestCase {
+  private static final ObjectId A =
+      ObjectId.fromString("3cf6d4e2d8a2a05e3d34e7a2a5b1f1a4d2b5c7e9");
+  private static final ObjectId B =
+      ObjectId.fromString("8b2d1e0f7c6a5b4d3e2f1a0b9c8d7e6f5a4b3c2d");
+
+  public void testPatchListRoundTrip() throws IOException {
+    final PatchListEntry[] in = {
+        entry(ChangeType.MODIFIED, null, Patch.COMMIT_MSG,
+            Arrays.asList(new Edit(0, 1, 0, 2))),
+        entry(ChangeType.RENAMED, "src/a/Old.java", "src/a/New.java",
+            Arrays.asList(new Edit(3, 4, 3, 5), new Edit(10, 10, 11, 13))),
+        entry(ChangeType.ADDED, null, "src/b/Added.java",
+            Arrays.asList(new Edit(0, 0, 0, 7))),
+        entry(ChangeType.DELETED, null, "\u00fcber/Gone.java",
+            Collections.<Edit> emptyList()),};
+    final PatchList list = new PatchList(A, B, true, in);
+
+    final byte[] buf = DiffCodec.encode(list);
+    assertEquals(DiffCodec.VERSION, buf[0]);
+    assertEquals(0, buf[1]);
+
+    final PatchList out = DiffCodec.decodePatchList(buf);
+    assertEquals(A, out.getOldId());
+    assertEquals(B, out.getNewId());
+    assertTrue(out.isAgainstParent());
+    assertEquals(list.getInsertions(), out.getInsertions());
+    assertEquals(list.getDeletions(), out.getDeletions());
+    assertEntriesEqual(list.getPatches(), out.getPatches());
+  }
+
+  public void testCombinedPatchList() throws IOException {
+    final PatchList list = new PatchList(null, B, false,
+        new PatchListEntry[] {entry(ChangeType.ADDED, null, Patch.COMMIT_MSG,
+            Arrays.asList(new Edit(0, 0, 0, 3)))});
+    final PatchList out = DiffCodec.decodePatchList(DiffCodec.encode(list));
+    assertNull(out.getOldId());
+    assertEquals(B, out.getNewId());
+    assertFalse(out.isAgainstParent());
+    assertEntriesEqual(list.getPatches(), out.getPatches());
+  }
+
+  public void testLargePatchListIsDeflated() throws IOException {
+    final List<PatchListEntry> in = new ArrayList<PatchListEntry>();
+    in.add(entry(ChangeType.MODIFIED, null, Patch.COMMIT_MSG,
+        Collections.<Edit> emptyList()));
+    for (int i = 0; i < 500; i++) {
+      final List<Edit> edits = new ArrayList<Edit>();
+      for (int j = 0; j < 5; j++) {
+        final int b = 100 * j;
+        edits.add(new Edit(b, b + 2, b + i, b + i + 4));
+      }
+      in.add(entry(ChangeType.MODIFIED, null,
+          String.format("third_party/lib/src/File%04d.java", i), edits));
+    }
+    final PatchList list =
+        new PatchList(A, B, true, in.toArray(new PatchListEntry[in.size()]));
+
+    final byte[] buf = DiffCodec.encode(list);
+    assertEquals(DiffCodec.VERSION, buf[0]);
+    assertEquals(1, buf[1]);
+
+    final PatchList out = DiffCodec.decodePatchList(buf);
+    assertEquals(list.getInsertions(), out.getInsertions());
+    assertEntriesEqual(list.getPatches(), out.getPatches());
+  }
+
+  public void testIntraLineDiffRoundTrip() throws IOException {
+    final List<Edit> edits = new ArrayList<Edit>();
+    edits.add(new ReplaceEdit(new Edit(2, 3, 2, 3), Arrays.asList(
+        new Edit(40, 42, 40, 45), new Edit(50, 50, 53, 54))));
+    edits.add(new Edit(7, 7, 7, 9));
+    edits.add(new ReplaceEdit(new Edit(12, 14, 14, 15), Arrays.asList(
+        new Edit(130, 131, 150, 150))));
+
+    final IntraLineDiff out = DiffCodec.decodeIntraLineDiff(
+        DiffCodec.encode(new IntraLineDiff(edits)));
+    assertSame(IntraLineDiff.Status.EDIT_LIST, out.getStatus());
+    assertEquals(edits, out.getEdits());
+    for (int i = 0; i < edits.size(); i++) {
+      final Edit e = edits.get(i);
+      final Edit o = out.getEdits().get(i);
+      if (e instanceof ReplaceEdit) {
+        assertTrue(o instanceof ReplaceEdit);
+        assertEquals(((ReplaceEdit) e).getInternalEdits(),
+            ((ReplaceEdit) o).getInternalEdits());
+      } else {
+        assertFalse(o instanceof ReplaceEdit);
+      }
+    }
+  }
+
+  public void testIntraLineDiffStatus() throws IOException {
+    final IntraLineDiff out = DiffCodec.decodeIntraLineDiff(
+        DiffCodec.encode(new IntraLineDiff(IntraLineDiff.Status.TIMEOUT)));
+    assertSame(IntraLineDiff.Status.TIMEOUT, out.getStatus());
+    assertTrue(out.getEdits().isEmpty());
+  }
+
+  public void testRejectsOtherVersions() {
+    final byte[] buf =
+        DiffCodec.encode(new IntraLineDiff(IntraLineDiff.Status.ERROR));
+    buf[0] = DiffCodec.VERSION + 1;
+    try {
+      DiffCodec.decodeIntraLineDiff(buf);
+      fail("Accepted unsupported version");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  public void testRejectsTruncatedInput() {
+    final PatchList list = new PatchList(A, B, true,
+        new PatchListEntry[] {entry(ChangeType.MODIFIED, null,
+            Patch.COMMIT_MSG, Arrays.asList(new Edit(0, 1, 0, 2)))});
+    final byte[] buf = DiffCodec.encode(list);
+    try {
+      DiffCodec.decodePatchList(Arrays.copyOf(buf, buf.length - 3));
+      fail("Accepted truncated input");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  public void testRejectsImplausibleInflatedSize() {
+    final byte[] buf = {DiffCodec.VERSION, 1,
+        (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0x7f, 0x78, (byte) 0x9c};
+    try {
+      DiffCodec.decodePatchList(buf);
+      fail("Accepted inflated size of 256 MiB from 2 bytes");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  public void testRejectsImplausibleCount() {
+    final byte[] buf = {DiffCodec.VERSION, 0,
+        (byte) IntraLineDiff.Status.EDIT_LIST.getCode(),
+        (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07};
+    try {
+      DiffCodec.decodeIntraLineDiff(buf);
+      fail("Accepted more edits than input bytes");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  private static PatchListEntry entry(ChangeType type, String oldName,
+      String newName, List<Edit> edits) {
+    int ins = 0;
+    int del = 0;
+    for (Edit e : edits) {
+      del += e.getEndA() - e.getBeginA();
+      ins += e.getEndB() - e.getBeginB();
+    }
+    final byte[] header =
+        Constants.encode("diff --git a/" + newName + " b/" + newName + "\n");
+    return new PatchListEntry(type, PatchType.UNIFIED, oldName, newName,
+        header, Collections.unmodifiableList(edits), ins, del);
+  }
+
+  private static void assertEntriesEqual(List<PatchListEntry> exp,
+      List<PatchListEntry> act) {
+    assertEquals(exp.size(), act.size());
+    for (int i = 0; i < exp.size(); i++) {
+      final PatchListEntry e = exp.get(i);
+      final PatchListEntry a = act.get(i);
+      assertSame(e.getChangeType(), a.getChangeType());
+      assertSame(e.getPatchType(), a.getPatchType());
+      assertEquals(e.getOldName(), a.getOldName());
+      assertEquals(e.getNewName(), a.getNewName());
+      assertTrue(Arrays.equals(e.getRawHeader(), a.getRawHeader()));
+      assertEquals(e.getInsertions(), a.getInsertions());
+      assertEquals(e.getDeletions(), a.getDeletions());
+      assertEquals(e.getEdits(), a.getEdits());
+    }
+  }
+}
@@ -0,0 +1,153 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.client.AccountGroup;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.account.GroupIncludeCache;
+import com.google.gerrit.server.cache.ConcurrentHashMapCache;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+public class ReviewerSuggestionCacheTest extends TestCase {
+  private static final Account.Id A = new Account.Id(1);
+  private static final Account.Id B = new Account.Id(2);
+  private static final Account.Id C = new Account.Id(3);
+  private static final Project.NameKey PROJECT =
+      new Project.NameKey("project");
+  private static final AccountGroup.UUID CHILD = new AccountGroup.UUID("c");
+  private static final AccountGroup.UUID PARENT = new AccountGroup.UUID("p");
+  private static final AccountGroup.UUID OTHER = new AccountGroup.UUID("o");
+
+  private static class FakeLoader extends
+      ReviewerSuggestionCache.RankingLoader {
+    int loads;
+
+    FakeLoader() {
+      super(null);
+    }
+
+    @Override
+    List<Account.Id> load(Project.NameKey project) {
+      loads++;
+      return Arrays.asList(B, A);
+    }
+  }
+
+  private static class FakeIncludes implements GroupIncludeCache {
+    @Override
+    public Collection<AccountGroup.UUID> getByInclude(AccountGroup.UUID id) {
+      return CHILD.equals(id)
+          ? Collections.singleton(PARENT)
+          : Collections.<AccountGroup.UUID> emptySet();
+    }
+
+    @Override
+    public Set<AccountGroup.UUID> getAllByInclude(AccountGroup.UUID id) {
+      final Set<AccountGroup.UUID> r = new HashSet<AccountGroup.UUID>();
+      r.add(id);
+      r.addAll(getByInclude(id));
+      return r;
+    }
+
+    @Override
+    public void evictInclude(AccountGroup.UUID id) {
+    }
+  }
+
+  private FakeLoader loader;
+  private LinkedList<Runnable> tasks;
+  private ConcurrentHashMapCache<AccountGroup.UUID, Set<Account.Id>> members;
+  private ReviewerSuggestionCache cache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    loader = new FakeLoader();
+    tasks = new LinkedList<Runnable>();
+    members = new ConcurrentHashMapCache<AccountGroup.UUID, Set<Account.Id>>();
+    cache = new ReviewerSuggestionCache(null, new FakeIncludes(),
+        new ConcurrentHashMapCache<Project.NameKey, List<Account.Id>>(),
+        members, loader, new Executor() {
+          @Override
+          public void execute(Runnable task) {
+            tasks.add(task);
+          }
+        });
+  }
+
+  public void testRanksInBackground() {
+    assertTrue(cache.getFrequentReviewers(PROJECT).isEmpty());
+    assertTrue(cache.getFrequentReviewers(PROJECT).isEmpty());
+    assertEquals(1, tasks.size());
+    assertEquals(0, loader.loads);
+
+    tasks.poll().run();
+    assertEquals(Arrays.asList(B, A), cache.getFrequentReviewers(PROJECT));
+    assertTrue(tasks.isEmpty());
+    assertEquals(1, loader.loads);
+  }
+
+  public void testEvictsMembersOfIncludingGroups() {
+    final Set<Account.Id> s = Collections.singleton(A);
+    members.put(CHILD, s);
+    members.put(PARENT, s);
+    members.put(OTHER, s);
+    cache.evictMembers(CHILD);
+    assertNull(members.get(CHILD));
+    assertNull(members.get(PARENT));
+    assertSame(s, members.get(OTHER));
+  }
+
+  public void testRanksMostFrequentFirst() {
+    final Map<Account.Id, Integer> counts = new HashMap<Account.Id, Integer>();
+    counts.put(A, 1);
+    counts.put(B, 7);
+    counts.put(C, 3);
+    assertEquals(Arrays.asList(B, C, A),
+        ReviewerSuggestionCache.rank(counts, 10));
+  }
+
+  public void testBreaksTiesByAccountId() {
+    final Map<Account.Id, Integer> counts = new HashMap<Account.Id, Integer>();
+    counts.put(C, 2);
+    counts.put(A, 2);
+    counts.put(B, 2);
+    assertEquals(Arrays.asList(A, B, C),
+        ReviewerSuggestionCache.rank(counts, 10));
+  }
+
+  public void testLimit() {
+    final Map<Account.Id, Integer> counts = new HashMap<Account.Id, Integer>();
+    counts.put(A, 1);
+    counts.put(B, 7);
+    counts.put(C, 3);
+    assertEquals(Arrays.asList(B),
+        ReviewerSuggestionCache.rank(counts, 1));
+    assertTrue(ReviewerSuggestionCache.rank(counts, 0).isEmpty());
+  }
+}
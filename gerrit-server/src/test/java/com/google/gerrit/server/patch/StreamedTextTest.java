@@ -0,0 +1,105 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectLoader;
+
+import java.io.IOException;
+
+public class StreamedTextTest extends TestCase {
+  public void testEmpty() throws IOException {
+    final StreamedText t = read("", 0, 10);
+    assertEquals(0, t.size());
+    assertFalse(t.isMissingNewlineAtEnd());
+    assertEquals(0, t.getHead().length);
+  }
+
+  public void testKeepsOnlyRequestedLines() throws IOException {
+    final StringBuilder b = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      b.append("line ").append(i).append('\n');
+    }
+    final StreamedText t = read(b.toString(), 0, 2, 50, 53, 99, 120);
+    assertEquals(100, t.size());
+    assertFalse(t.isMissingNewlineAtEnd());
+
+    assertEquals("line 0", t.getString(0));
+    assertEquals("line 1", t.getString(1));
+    assertFalse(t.contains(2));
+    assertFalse(t.contains(49));
+    assertEquals("line 50", t.getString(50));
+    assertEquals("line 52", t.getString(52));
+    assertFalse(t.contains(53));
+    assertEquals("line 99", t.getString(99));
+    assertFalse(t.contains(100));
+    assertEquals("", t.getString(10));
+  }
+
+  public void testMissingNewlineAtEnd() throws IOException {
+    final StreamedText t = read("a\nb\nlast", 2, 3);
+    assertEquals(3, t.size());
+    assertTrue(t.isMissingNewlineAtEnd());
+    assertEquals("last", t.getString(2));
+    assertFalse(t.contains(1));
+  }
+
+  public void testMissingNewlineAfterHighByte() throws IOException {
+    final byte[] content = {'a', '\n', 'b', (byte) 0xff};
+    final StreamedText t = read(content, 0, 2);
+    assertEquals(2, t.size());
+    assertTrue(t.isMissingNewlineAtEnd());
+    assertTrue(t.contains(1));
+  }
+
+  public void testLinesSpanningReads() throws IOException {
+    final StringBuilder b = new StringBuilder();
+    for (int i = 0; i < 3000; i++) {
+      b.append('x');
+    }
+    final String longLine = b.toString();
+    final String content = longLine + "\n" + longLine + "\n" + longLine + "\n"
+        + longLine + "\nend\n";
+    final StreamedText t = read(content, 3, 5);
+    assertEquals(5, t.size());
+    assertEquals(longLine, t.getString(3));
+    assertEquals("end", t.getString(4));
+    assertEquals(StreamedText.HEAD_LENGTH, t.getHead().length);
+  }
+
+  public void testTruncatesLongLines() throws IOException {
+    final StringBuilder b = new StringBuilder();
+    for (int i = 0; i < StreamedText.MAX_LINE_LENGTH + 100; i++) {
+      b.append('y');
+    }
+    final StreamedText t = read(b.toString() + "\n", 0, 1);
+    assertEquals(1, t.size());
+    assertEquals(StreamedText.MAX_LINE_LENGTH, t.getString(0).length());
+  }
+
+  private static StreamedText read(String content, int... ranges)
+      throws IOException {
+    return read(Constants.encode(content), ranges);
+  }
+
+  private static StreamedText read(byte[] content, int... ranges)
+      throws IOException {
+    final ObjectLoader ldr =
+        new ObjectLoader.SmallObject(Constants.OBJ_BLOB, content);
+    return StreamedText.read(ldr, ranges);
+  }
+}
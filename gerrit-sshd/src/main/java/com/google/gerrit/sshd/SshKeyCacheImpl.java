@@ -17,12 +17,18 @@ package com.google.gerrit.sshd;
 import static com.google.gerrit.reviewdb.client.AccountExternalId.SCHEME_USERNAME;
 
 import com.google.gerrit.common.errors.InvalidSshKeyException;
+import com.google.gerrit.lifecycle.LifecycleListener;
+import com.google.gerrit.lifecycle.LifecycleModule;
+import com.google.gerrit.reviewdb.client.Account;
 import com.google.gerrit.reviewdb.client.AccountExternalId;
 import com.google.gerrit.reviewdb.client.AccountSshKey;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.cache.Cache;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.CacheWarmer;
 import com.google.gerrit.server.cache.EntryCreator;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.ssh.SshKeyCache;
 import com.google.gwtorm.server.OrmException;
 import com.google.gwtorm.server.SchemaFactory;
@@ -32,6 +38,7 @@ import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
 import com.google.inject.name.Named;
 
+import org.eclipse.jgit.lib.Config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,7 +48,9 @@ import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /** Provides the {@link SshKeyCacheEntry}. */
 @Singleton
@@ -62,6 +71,13 @@ public class SshKeyCacheImpl implements SshKeyCache {
         core(type, CACHE_NAME).populateWith(Loader.class);
         bind(SshKeyCacheImpl.class);
         bind(SshKeyCache.class).to(SshKeyCacheImpl.class);
+
+        install(new LifecycleModule() {
+          @Override
+          protected void configure() {
+            listener().to(WarmUp.class);
+          }
+        });
       }
     };
   }
@@ -72,11 +88,13 @@ public class SshKeyCacheImpl implements SshKeyCache {
   }
 
   private final Cache<String, Iterable<SshKeyCacheEntry>> cache;
+  private final CacheWarmer<String, Iterable<SshKeyCacheEntry>> warmer;
 
   @Inject
   SshKeyCacheImpl(
       @Named(CACHE_NAME) final Cache<String, Iterable<SshKeyCacheEntry>> cache) {
     this.cache = cache;
+    this.warmer = new CacheWarmer<String, Iterable<SshKeyCacheEntry>>(cache);
   }
 
   public Iterable<SshKeyCacheEntry> get(String username) {
@@ -85,6 +103,7 @@ public class SshKeyCacheImpl implements SshKeyCache {
 
   public void evict(String username) {
     cache.remove(username);
+    warmer.evicted(username);
   }
 
   @Override
@@ -127,17 +146,8 @@ public class SshKeyCacheImpl implements SshKeyCache {
           return NO_SUCH_USER;
         }
 
-        final List<SshKeyCacheEntry> kl = new ArrayList<SshKeyCacheEntry>(4);
-        for (AccountSshKey k : db.accountSshKeys().byAccount(
-            user.getAccountId())) {
-          if (k.isValid()) {
-            add(db, kl, k);
-          }
-        }
-        if (kl.isEmpty()) {
-          return NO_KEYS;
-        }
-        return Collections.unmodifiableList(kl);
+        return toEntries(db,
+            db.accountSshKeys().byAccount(user.getAccountId()));
       } finally {
         db.close();
       }
@@ -148,7 +158,21 @@ public class SshKeyCacheImpl implements SshKeyCache {
       return Collections.emptyList();
     }
 
-    private void add(ReviewDb db, List<SshKeyCacheEntry> kl, AccountSshKey k) {
+    static Iterable<SshKeyCacheEntry> toEntries(ReviewDb db,
+        Iterable<AccountSshKey> keys) {
+      final List<SshKeyCacheEntry> kl = new ArrayList<SshKeyCacheEntry>(4);
+      for (AccountSshKey k : keys) {
+        if (k.isValid()) {
+          add(db, kl, k);
+        }
+      }
+      if (kl.isEmpty()) {
+        return NO_KEYS;
+      }
+      return Collections.unmodifiableList(kl);
+    }
+
+    private static void add(ReviewDb db, List<SshKeyCacheEntry> kl, AccountSshKey k) {
       try {
         kl.add(new SshKeyCacheEntry(k.getKey(), SshUtil.parse(k)));
       } catch (OutOfMemoryError e) {
@@ -161,7 +185,7 @@ public class SshKeyCacheImpl implements SshKeyCache {
       }
     }
 
-    private void markInvalid(final ReviewDb db, final AccountSshKey k) {
+    private static void markInvalid(final ReviewDb db, final AccountSshKey k) {
       try {
         log.info("Flagging SSH key " + k.getKey() + " invalid");
         k.setInvalid();
@@ -171,4 +195,95 @@ public class SshKeyCacheImpl implements SshKeyCache {
       }
     }
   }
+
+  /**
+   * Loads the SSH keys of all users into the cache at startup.
+   * <p>
+   * Enabled by {@code cache.warmUp}; at most
+   * {@code cache.sshkeys.memoryLimit} users are loaded.
+   */
+  static class WarmUp implements LifecycleListener {
+    private final SchemaFactory<ReviewDb> schema;
+    private final WorkQueue queue;
+    private final SshKeyCacheImpl cache;
+    private final boolean enabled;
+    private final int limit;
+
+    @Inject
+    WarmUp(@GerritServerConfig final Config cfg,
+        final SchemaFactory<ReviewDb> schema, final WorkQueue queue,
+        final SshKeyCacheImpl cache) {
+      this.schema = schema;
+      this.queue = queue;
+      this.cache = cache;
+      this.enabled = cfg.getBoolean("cache", "warmUp", false);
+      this.limit = cfg.getInt("cache", CACHE_NAME, "memoryLimit", 1024);
+    }
+
+    @Override
+    public void start() {
+      if (!enabled) {
+        return;
+      }
+      queue.getDefaultQueue().execute(new Runnable() {
+        @Override
+        public void run() {
+          warm();
+        }
+
+        @Override
+        public String toString() {
+          return "warm SSH key cache";
+        }
+      });
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    private void warm() {
+      final long start = System.currentTimeMillis();
+      cache.warmer.begin();
+      try {
+        final ReviewDb db = schema.open();
+        try {
+          final Map<Account.Id, List<AccountSshKey>> keys =
+              new HashMap<Account.Id, List<AccountSshKey>>();
+          for (AccountSshKey k : db.accountSshKeys().all()) {
+            final Account.Id id = k.getAccount();
+            List<AccountSshKey> l = keys.get(id);
+            if (l == null) {
+              if (keys.size() >= limit) {
+                continue;
+              }
+              l = new ArrayList<AccountSshKey>(2);
+              keys.put(id, l);
+            }
+            l.add(k);
+          }
+
+          int users = 0;
+          for (AccountExternalId e : db.accountExternalIds().all()) {
+            if (e.isScheme(SCHEME_USERNAME)) {
+              final List<AccountSshKey> l = keys.get(e.getAccountId());
+              if (l != null) {
+                cache.warmer.put(e.getSchemeRest(),
+                    Loader.toEntries(db, l));
+                users++;
+              }
+            }
+          }
+          log.info("Warmed SSH key cache with " + users + " users in "
+              + (System.currentTimeMillis() - start) + " ms");
+        } finally {
+          db.close();
+        }
+      } catch (OrmException e) {
+        log.warn("Cannot warm SSH key cache", e);
+      } finally {
+        cache.warmer.end();
+      }
+    }
+  }
 }
@@ -153,6 +153,7 @@ final class CreateAccountCommand extends BaseCommand {
     }
 
     sshKeyCache.evict(username);
+    accountCache.evict(id);
     accountCache.evictByUsername(username);
     byEmailCache.evict(email);
   }
@@ -20,6 +20,7 @@ import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.config.SitePath;
 import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.git.WorkQueue.Task;
+import com.google.gerrit.server.patch.IntraLineStatistics;
 import com.google.gerrit.sshd.BaseCommand;
 import com.google.gerrit.sshd.SshDaemon;
 import com.google.inject.Inject;
@@ -76,6 +77,9 @@ final class ShowCaches extends CacheCommand {
   @Inject
   private SshDaemon daemon;
 
+  @Inject
+  private IntraLineStatistics intraLine;
+
   @Inject
   @SitePath
   private File sitePath;
@@ -181,6 +185,7 @@ final class ShowCaches extends CacheCommand {
 
     sshSummary();
     taskSummary();
+    intraLineSummary();
     memSummary();
 
     if (showJVM) {
@@ -232,6 +237,14 @@ final class ShowCaches extends CacheCommand {
         tasksSleeping);
   }
 
+  private void intraLineSummary() {
+    p.format(
+        "Intraline: %4d computed, %4d timed out, %4d failed\n",
+        intraLine.getComputed(),
+        intraLine.getTimeouts(),
+        intraLine.getFailed());
+  }
+
   private void sshSummary() {
     IoAcceptor acceptor = daemon.getIoAcceptor();
     if (acceptor == null) {
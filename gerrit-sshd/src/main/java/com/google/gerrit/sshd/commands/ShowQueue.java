@@ -14,11 +14,17 @@
 
 package com.google.gerrit.sshd.commands;
 
+import com.google.gerrit.common.ChangeHookRunner;
+import com.google.gerrit.common.HookStatistics;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.git.ReplicationQueue;
+import com.google.gerrit.server.git.ReplicationStatistics;
 import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.git.WorkQueue.ProjectTask;
 import com.google.gerrit.server.git.WorkQueue.Task;
+import com.google.gerrit.server.mail.MailStatistics;
+import com.google.gerrit.server.mail.SmtpEmailSender;
 import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.server.util.IdGenerator;
@@ -46,6 +52,15 @@ final class ShowQueue extends BaseCommand {
   @Inject
   private WorkQueue workQueue;
 
+  @Inject
+  private ReplicationQueue replication;
+
+  @Inject
+  private ChangeHookRunner hooks;
+
+  @Inject
+  private SmtpEmailSender mail;
+
   @Inject
   private ProjectCache projectCache;
 
@@ -180,13 +195,92 @@ final class ShowQueue extends BaseCommand {
 
     p.print("  " + numberOfPendingTasks + " tasks\n");
 
+    if (viewAll && replication.isEnabled()) {
+      displayReplication();
+    }
+
+    if (viewAll) {
+      displayHooks();
+      displayMail();
+    }
+
     p.flush();
   }
 
+  private void displayReplication() {
+    p.print("\n");
+    p.print(String.format("%-16s %8s %8s %6s %8s %7s %8s\n", //
+        "Remote", "Pushes", "Refs", "Failed", "Avg (ms)", "Pending", "Oldest"));
+    p.print("----------------------------------------------"
+        + "--------------------------------\n");
+    for (ReplicationStatistics s : replication.getStatistics()) {
+      p.print(String.format("%-16s %8d %8d %6d %8d %7d %8s\n", //
+          s.getRemoteName(), s.getPushes(), s.getRefs(), s.getFailures(),
+          s.getAverageMillis(), s.getPending(),
+          age(s.getOldestPendingAge())));
+    }
+    p.print("----------------------------------------------"
+        + "--------------------------------\n");
+  }
+
+  private void displayHooks() {
+    boolean header = false;
+    for (HookStatistics s : hooks.getHookStatistics()) {
+      if (s.getRuns() == 0 && s.getFailures() == 0 && s.getPending() == 0) {
+        continue;
+      }
+      if (!header) {
+        p.print("\n");
+        p.print(String.format("%-24s %8s %6s %8s %8s %7s\n", //
+            "Hook", "Runs", "Failed", "Avg wait", "Max wait", "Pending"));
+        p.print("----------------------------------------------"
+            + "--------------------------------\n");
+        header = true;
+      }
+      p.print(String.format("%-24s %8d %6d %8s %8s %7d\n", //
+          s.getHookName(), s.getRuns(), s.getFailures(),
+          age(s.getAverageWaitMillis()), age(s.getMaxWaitMillis()),
+          s.getPending()));
+    }
+    if (header) {
+      p.print("----------------------------------------------"
+          + "--------------------------------\n");
+    }
+  }
+
+  private void displayMail() {
+    final MailStatistics s = mail.getStatistics();
+    if (s.getSent() == 0 && s.getFailures() == 0 && s.getPending() == 0) {
+      return;
+    }
+    p.print("\n");
+    p.print(String.format("%-16s %8s %6s %8s %7s %11s\n", //
+        "Email", "Sent", "Failed", "Retries", "Pending", "Connections"));
+    p.print("----------------------------------------------"
+        + "--------------------------------\n");
+    p.print(String.format("%-16s %8d %6d %8d %7d %11d\n", //
+        "smtp", s.getSent(), s.getFailures(), s.getRetries(),
+        s.getPending(), s.getConnections()));
+    p.print("----------------------------------------------"
+        + "--------------------------------\n");
+  }
+
   private static String id(final int id) {
     return IdGenerator.format(id);
   }
 
+  private static String age(final long millis) {
+    final long sec = TimeUnit.MILLISECONDS.toSeconds(millis);
+    if (sec < 60) {
+      return sec + "s";
+    } else if (sec < 60 * 60) {
+      return (sec / 60) + "m";
+    } else if (sec < 24 * 60 * 60) {
+      return (sec / (60 * 60)) + "h";
+    }
+    return (sec / (24 * 60 * 60)) + "d";
+  }
+
   private static String time(final long now, final long delay) {
     final Date when = new Date(now + delay);
     if (delay < 24 * 60 * 60 * 1000L) {
@@ -0,0 +1,77 @@
+// Copyright (C) 2012 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.sshd.commands;
+
+import com.google.gerrit.server.events.ChangeEvent;
+import com.google.gson.Gson;
+import com.google.inject.Singleton;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Encodes events for {@link StreamEvents} clients.
+ * <p>
+ * Every connected client receives the same event, one client after another.
+ * The most recently encoded event is remembered, so an event is formatted
+ * as JSON once no matter how many clients are connected. The returned
+ * messages are shared between clients and must not be modified.
+ */
+@Singleton
+class StreamEventEncoder {
+  private final Gson gson = new Gson();
+
+  /** An encoded event, shared by all clients. */
+  static class Message {
+    /** Journal sequence number of the event; 0 if not journaled. */
+    final long seq;
+    final byte[] bytes;
+
+    Message(final long seq, final byte[] bytes) {
+      this.seq = seq;
+      this.bytes = bytes;
+    }
+  }
+
+  /** Special event to notify clients they missed other events. */
+  private final Message droppedOutput = new Message(0, encode(new Object() {
+    @SuppressWarnings("unused")
+    final String type = "dropped-output";
+  }));
+
+  private ChangeEvent lastEvent;
+  private Message lastEncoded;
+
+  synchronized Message encode(final ChangeEvent event) {
+    if (event != lastEvent) {
+      final long seq = event.seq != null ? event.seq : 0;
+      lastEncoded = new Message(seq, encode((Object) event));
+      lastEvent = event;
+    }
+    return lastEncoded;
+  }
+
+  Message droppedOutput() {
+    return droppedOutput;
+  }
+
+  /** Encode a message as one line of UTF-8 JSON, without caching it. */
+  byte[] encode(final Object message) {
+    try {
+      return (gson.toJson(message) + "\n").getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException("JVM lacks UTF-8 encoding", e);
+    }
+  }
+}
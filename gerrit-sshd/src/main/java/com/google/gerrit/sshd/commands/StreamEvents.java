@@ -16,29 +16,54 @@ package com.google.gerrit.sshd.commands;
 
 import com.google.gerrit.common.ChangeHooks;
 import com.google.gerrit.common.ChangeListener;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.events.ChangeEvent;
+import com.google.gerrit.server.events.EventJournal;
 import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.git.WorkQueue.CancelableRunnable;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectControl;
+import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.sshd.BaseCommand;
 import com.google.gerrit.sshd.StreamCommandExecutor;
-import com.google.gson.Gson;
+import com.google.gerrit.sshd.commands.StreamEventEncoder.Message;
+import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.SchemaFactory;
 import com.google.inject.Inject;
 
 import org.apache.sshd.server.Environment;
+import org.eclipse.jgit.lib.Config;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 
 final class StreamEvents extends BaseCommand {
-  /** Maximum number of events that may be queued up for each connection. */
+  private static final Logger log = LoggerFactory.getLogger(StreamEvents.class);
+
+  /** Default number of events that may be queued up for each connection. */
   private static final int MAX_EVENTS = 128;
 
   /** Number of events to write before yielding off the thread. */
   private static final int BATCH_SIZE = 32;
 
+  /** Number of journal records to read before yielding off the thread. */
+  private static final int REPLAY_BATCH_SIZE = 256;
+
+  @Option(name = "--resume-from", metaVar = "SEQ", usage = "replay journaled events after SEQ before new events")
+  private long resumeFrom = -1;
+
   @Inject
   private IdentifiedUser currentUser;
 
@@ -49,17 +74,46 @@ final class StreamEvents extends BaseCommand {
   @StreamCommandExecutor
   private WorkQueue.Executor pool;
 
-  /** Queue of events to stream to the connected user. */
-  private final LinkedBlockingQueue<ChangeEvent> queue =
-      new LinkedBlockingQueue<ChangeEvent>(MAX_EVENTS);
+  @Inject
+  private StreamEventEncoder encoder;
+
+  @Inject
+  @GerritServerConfig
+  private Config config;
 
-  private final Gson gson = new Gson();
+  @Inject
+  private EventJournal journal;
 
-  /** Special event to notify clients they missed other events. */
-  private final Object droppedOutputEvent = new Object() {
-    @SuppressWarnings("unused")
-    final String type = "dropped-output";
-  };
+  @Inject
+  private ProjectCache projectCache;
+
+  @Inject
+  private SchemaFactory<ReviewDb> schema;
+
+  /** Queue of encoded events to stream to the connected user. */
+  private LinkedBlockingQueue<Message> queue;
+
+  /**
+   * True while the journal is being replayed.
+   * <p>
+   * Live events are queued during the replay, but the writer task is not
+   * started for them; the replay task drains them when done. If they
+   * overflow the queue, the replay is abandoned and the client is sent
+   * a dropped-output event.
+   */
+  private boolean replaying;
+
+  /** Journal being replayed; null once replay is complete. */
+  private EventJournal.Reader replay;
+
+  /** Sequence number of the last journaled event replayed. */
+  private long lastReplayed;
+
+  /** Controls used to check visibility of replayed events. */
+  private Map<Project.NameKey, ProjectControl> replayControls;
+
+  /** Database opened to check visibility of replayed drafts. */
+  private ReviewDb replayDb;
 
   private final ChangeListener listener = new ChangeListener() {
     @Override
@@ -71,7 +125,9 @@ final class StreamEvents extends BaseCommand {
   private final CancelableRunnable writer = new CancelableRunnable() {
     @Override
     public void run() {
-      writeEvents();
+      if (replay == null || replayEvents()) {
+        writeEvents();
+      }
     }
 
     @Override
@@ -80,10 +136,13 @@ final class StreamEvents extends BaseCommand {
     }
   };
 
-  /** True if {@link #droppedOutputEvent} needs to be sent. */
+  /** True if a dropped-output event needs to be sent. */
   private volatile boolean dropped;
 
-  /** Lock to protect {@link #queue}, {@link #task}, {@link #done}. */
+  /**
+   * Lock to protect {@link #queue}, {@link #task}, {@link #done},
+   * {@link #replaying}.
+   */
   private final Object taskLock = new Object();
 
   /** True if no more messages should be sent to the output. */
@@ -98,12 +157,18 @@ final class StreamEvents extends BaseCommand {
    */
   private Future<?> task;
 
-  private PrintWriter stdout;
+  private OutputStream stdout;
+
+  /** True if writing to {@link #stdout} failed; the client is gone. */
+  private volatile boolean writeError;
 
   @Override
   public void start(final Environment env) throws IOException {
     try {
       parseCommandLine();
+      if (0 <= resumeFrom && !journal.isEnabled()) {
+        throw new UnloggedFailure(1, "fatal: event journal is not enabled");
+      }
     } catch (UnloggedFailure e) {
       String msg = e.getMessage();
       if (!msg.endsWith("\n")) {
@@ -115,8 +180,30 @@ final class StreamEvents extends BaseCommand {
       return;
     }
 
-    stdout = toPrintWriter(out);
-    hooks.addChangeListener(listener, currentUser);
+    final int max = config.getInt("sshd", "streamEventsQueueSize", MAX_EVENTS);
+    queue = new LinkedBlockingQueue<Message>(Math.max(1, max));
+    stdout = new BufferedOutputStream(out);
+
+    if (0 <= resumeFrom) {
+      // Listen before opening the journal, so no event can fall between
+      // the end of the replay and the first live event. Events fired
+      // during the replay wait in the queue; any already replayed are
+      // skipped by their sequence number in writeEvents().
+      //
+      synchronized (taskLock) {
+        replaying = true;
+      }
+      hooks.addChangeListener(listener, currentUser);
+      replay = journal.read(resumeFrom);
+      replayControls = new HashMap<Project.NameKey, ProjectControl>();
+      synchronized (taskLock) {
+        if (!done) {
+          task = pool.submit(writer);
+        }
+      }
+    } else {
+      hooks.addChangeListener(listener, currentUser);
+    }
   }
 
   @Override
@@ -150,20 +237,21 @@ final class StreamEvents extends BaseCommand {
   }
 
   private void offer(final ChangeEvent event) {
+    final Message msg = encoder.encode(event);
     synchronized (taskLock) {
-      if (!queue.offer(event)) {
+      if (!queue.offer(msg)) {
         dropped = true;
       }
 
-      if (task == null && !done) {
+      if (task == null && !done && !replaying) {
         task = pool.submit(writer);
       }
     }
   }
 
-  private ChangeEvent poll() {
+  private Message poll() {
     synchronized (taskLock) {
-      ChangeEvent event = queue.poll();
+      Message event = queue.poll();
       if (event == null) {
         task = null;
       }
@@ -175,7 +263,7 @@ final class StreamEvents extends BaseCommand {
     int processed = 0;
 
     while (processed < BATCH_SIZE) {
-      if (Thread.interrupted() || stdout.checkError()) {
+      if (Thread.interrupted() || writeError) {
         // The other side either requested a shutdown by calling our
         // destroy() above, or it closed the stream and is no longer
         // accepting output. Either way terminate this instance.
@@ -187,14 +275,17 @@ final class StreamEvents extends BaseCommand {
       }
 
       if (dropped) {
-        write(droppedOutputEvent);
+        write(encoder.droppedOutput());
         dropped = false;
       }
 
-      final ChangeEvent event = poll();
+      final Message event = poll();
       if (event == null) {
         break;
       }
+      if (event.seq != 0 && event.seq <= lastReplayed) {
+        continue; // Already sent while replaying the journal.
+      }
 
       write(event);
       processed++;
@@ -213,16 +304,119 @@ final class StreamEvents extends BaseCommand {
     }
   }
 
-  private void write(final Object message) {
-    final String msg = gson.toJson(message) + "\n";
+  /**
+   * Send the next batch of journaled events to the client.
+   *
+   * @return true if the replay is complete and live events can be sent.
+   */
+  private boolean replayEvents() {
+    try {
+      for (int n = 0; n < REPLAY_BATCH_SIZE; n++) {
+        if (Thread.interrupted() || writeError) {
+          endReplay();
+          hooks.removeChangeListener(listener);
+          flush();
+          onExit(0);
+          return false;
+        }
+
+        if (dropped) {
+          // Live events overflowed the queue while waiting for the replay.
+          // The client cannot be brought up to date; give up on the journal
+          // and let writeEvents() report the gap.
+          //
+          endReplay();
+          return true;
+        }
+
+        final EventJournal.Record r = replay.next();
+        if (r == null) {
+          endReplay();
+          return true;
+        }
+
+        lastReplayed = r.getSequence();
+        if (isVisible(r)) {
+          write(new Message(r.getSequence(), (r.getEvent() + "\n")
+              .getBytes("UTF-8")));
+        }
+      }
+    } catch (IOException e) {
+      log.error("Cannot replay event journal", e);
+      endReplay();
+      return true;
+    } catch (OrmException e) {
+      log.error("Cannot replay event journal", e);
+      endReplay();
+      return true;
+    }
+
+    flush();
+    synchronized (taskLock) {
+      if (!done) {
+        task = pool.submit(writer);
+      }
+    }
+    return false;
+  }
+
+  private boolean isVisible(final EventJournal.Record r) throws OrmException {
+    ProjectControl pc = replayControls.get(r.getProject());
+    if (pc == null) {
+      if (replayControls.containsKey(r.getProject())) {
+        return false;
+      }
+      final ProjectState pe = projectCache.get(r.getProject());
+      pc = pe != null ? pe.controlFor(currentUser) : null;
+      replayControls.put(r.getProject(), pc);
+      if (pc == null) {
+        return false;
+      }
+    }
+
+    if (!pc.controlForRef(r.getBranch()).isVisible()) {
+      return false;
+    }
+    if (r.isDraft()) {
+      if (replayDb == null) {
+        replayDb = schema.open();
+      }
+      final Change change = replayDb.changes().get(r.getChangeId());
+      return change != null && pc.controlFor(change).isVisible(replayDb);
+    }
+    return true;
+  }
+
+  private void endReplay() {
+    synchronized (taskLock) {
+      replaying = false;
+    }
+    replay.close();
+    replay = null;
+    replayControls = null;
+    if (replayDb != null) {
+      replayDb.close();
+      replayDb = null;
+    }
+  }
+
+  private void write(final Message msg) {
     synchronized (stdout) {
-      stdout.print(msg);
+      try {
+        stdout.write(msg.bytes);
+      } catch (IOException e) {
+        writeError = true;
+      }
     }
   }
 
   private void flush() {
     synchronized (stdout) {
-      stdout.flush();
+      try {
+        stdout.flush();
+      } catch (IOException e) {
+        writeError = true;
+      }
     }
   }
 }